@@ -0,0 +1,144 @@
+/**
+ * Copyright (c) 2001, 2006, Paul James Mutton
+ * Copyright (c) 2007, Arnaud Blouin
+ * All rights reserved.
+ * This file is part of jlibeps, merged with similar code from EPS Graphics, and
+ * expanded by Meyer Sound Laboratories Inc.
+ * jlibeps is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * jlibeps is distributed without any warranty; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the GNU General Public License for more details.
+ * Project: http://www.jibble.org/
+ */
+package org.sourceforge.jlibeps.epsgraphics;
+
+/**
+ * This class is the emitter of the binary EPS mode. It composes lines like its
+ * parent class, except that numbers are written as PostScript Level 2 binary
+ * tokens: integers as 8, 16 or 32-bit integer tokens, and other numbers as
+ * 32-bit IEEE reals, both high-order byte first. This makes the numbers of a
+ * path two to four times shorter, and the interpreter reads them without any
+ * parsing. Operators and other tokens are still written as text, which can be
+ * freely mixed with binary tokens, and the rounding of numbers is the same as
+ * in text mode.
+ * A binary token is self-delimiting, so no separator is written after it.
+ * @version 1.6.0
+ */
+public class EpsBinaryLineBuilder extends EpsLineBuilder {
+	/** The first byte of a 32-bit integer token, high-order byte first. */
+	private static final int TOKEN_INT32 = 132;
+
+	/** The first byte of a 16-bit integer token, high-order byte first. */
+	private static final int TOKEN_INT16 = 134;
+
+	/** The first byte of a signed 8-bit integer token. */
+	private static final int TOKEN_INT8 = 136;
+
+	/** The first byte of a 32-bit IEEE real token, high-order byte first. */
+	private static final int TOKEN_REAL32 = 138;
+
+	/**
+	 * The length of the line right after the last binary token, or -1 if the
+	 * line does not end with a binary token.
+	 */
+	private int _binaryEnd;
+
+	/**
+	 * Constructs an empty binary line builder with the default number
+	 * precision.
+	 * @since 1.6.0
+	 */
+	public EpsBinaryLineBuilder() {
+		super();
+		_binaryEnd = -1;
+	}
+
+	/**
+	 * Appends the given number of low-order bytes of a value, high-order byte
+	 * first.
+	 * @since 1.6.0
+	 */
+	private void appendBytes(final int value, final int count) {
+		for(int shift = (count - 1) * 8; shift >= 0; shift -= 8) {
+			append((char) (value >>> shift & 0xff));
+		}
+	}
+
+	@Override
+	public EpsLineBuilder clear() {
+		_binaryEnd = -1;
+		return super.clear();
+	}
+
+	/**
+	 * Appends an integer as the shortest binary integer token that holds it.
+	 * Integers beyond 32 bits are written as reals, as PostScript integers
+	 * cannot hold them.
+	 * @since 1.6.0
+	 */
+	@Override
+	public EpsLineBuilder integer(final long value) {
+		if(value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+			return real(value);
+		}
+
+		separate();
+
+		if(value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+			append((char) TOKEN_INT8);
+			appendBytes((int) value, 1);
+		}else if(value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+			append((char) TOKEN_INT16);
+			appendBytes((int) value, 2);
+		}else {
+			append((char) TOKEN_INT32);
+			appendBytes((int) value, 4);
+		}
+
+		_binaryEnd = length();
+		return this;
+	}
+
+	/**
+	 * Appends a number as a binary token, after rounding it as in text mode.
+	 * Numbers that round to an integer are written as integer tokens.
+	 * @since 1.6.0
+	 */
+	@Override
+	public EpsLineBuilder number(final double value, final int maxDecimals) {
+		final double rounded = round(value, maxDecimals);
+
+		if(rounded == Math.rint(rounded) && rounded >= Integer.MIN_VALUE && rounded <= Integer.MAX_VALUE) {
+			return integer((long) rounded);
+		}
+
+		return real(rounded);
+	}
+
+	/**
+	 * Appends a 32-bit IEEE real token.
+	 * @since 1.6.0
+	 */
+	private EpsLineBuilder real(final double value) {
+		separate();
+		append((char) TOKEN_REAL32);
+		appendBytes(Float.floatToIntBits((float) value), 4);
+		_binaryEnd = length();
+		return this;
+	}
+
+	/**
+	 * Appends a separating space, unless the line ends with a binary token,
+	 * which needs no delimiter, or the parent class would not separate.
+	 * @since 1.6.0
+	 */
+	@Override
+	protected void separate() {
+		if(length() != _binaryEnd) {
+			super.separate();
+		}
+	}
+}// class EpsBinaryLineBuilder
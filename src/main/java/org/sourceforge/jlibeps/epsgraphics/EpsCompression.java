@@ -0,0 +1,113 @@
+/**
+ * Copyright (c) 2001, 2006, Paul James Mutton
+ * Copyright (c) 2007, Arnaud Blouin
+ * All rights reserved.
+ * This file is part of jlibeps, merged with similar code from EPS Graphics, and
+ * expanded by Meyer Sound Laboratories Inc.
+ * jlibeps is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * jlibeps is distributed without any warranty; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the GNU General Public License for more details.
+ * Project: http://www.jibble.org/
+ */
+package org.sourceforge.jlibeps.epsgraphics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Enumeration of the methods for compressing the body of an EPS document, or
+ * the data of its images. The compressed bytes are read back by the
+ * interpreter through the matching PostScript decode filter, so the
+ * compression is transparent to any EPS consumer, unlike compressing the
+ * whole file.
+ * @version 1.6.0
+ */
+public enum EpsCompression {
+	/**
+	 * The body is not compressed.
+	 */
+	NONE(null, 2),
+
+	/**
+	 * The body is compressed with run-length encoding, which every Level 2
+	 * interpreter can decode. It is the fastest method, but only compresses
+	 * runs of equal bytes, as found in flat-color images.
+	 */
+	RUN_LENGTH("RunLengthDecode", 2),
+
+	/**
+	 * The body is compressed with LZW, which every Level 2 interpreter can
+	 * decode.
+	 */
+	LZW("LZWDecode", 2),
+
+	/**
+	 * The body is compressed with Deflate, which compresses better than LZW but
+	 * requires a Level 3 interpreter.
+	 */
+	FLATE("FlateDecode", 3);
+
+	private final String _filterName;
+	private final int _languageLevel;
+
+	EpsCompression(final String filterName, final int languageLevel) {
+		_filterName = filterName;
+		_languageLevel = languageLevel;
+	}
+
+	/**
+	 * Creates an encoder that compresses the bytes written to it, and writes
+	 * them to the given stream. Closing the encoder writes the last bytes and
+	 * closes the stream.
+	 * @param out The stream to write the compressed bytes to
+	 * @return The new encoder
+	 * @since 1.6.0
+	 */
+	OutputStream createEncoder(final OutputStream out) {
+		switch(this) {
+			case RUN_LENGTH:
+				return new EpsRunLengthOutputStream(out);
+			case LZW:
+				return new EpsLzwOutputStream(out);
+			case FLATE:
+				final Deflater deflater = new Deflater();
+				return new DeflaterOutputStream(out, deflater, EpsSink.DEFAULT_BUFFER_SIZE) {
+					@Override
+					public void close() throws IOException {
+						try {
+							super.close();
+						}finally {
+							deflater.end();
+						}
+					}
+				};
+			default:
+				return out;
+		}
+	}
+
+	/**
+	 * Returns the name of the PostScript filter that decodes this compression.
+	 * @return The name of the decode filter, or null if there is no compression
+	 * @since 1.6.0
+	 */
+	public String getFilterName() {
+		return _filterName;
+	}
+
+	/**
+	 * Returns the PostScript language level required to decode this
+	 * compression.
+	 * @return The required language level
+	 * @since 1.6.0
+	 */
+	public int getLanguageLevel() {
+		return _languageLevel;
+	}
+}// class EpsCompression
@@ -0,0 +1,125 @@
+/**
+ * Copyright (c) 2001, 2006, Paul James Mutton
+ * Copyright (c) 2007, Arnaud Blouin
+ * All rights reserved.
+ * This file is part of jlibeps, merged with similar code from EPS Graphics, and
+ * expanded by Meyer Sound Laboratories Inc.
+ * jlibeps is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * jlibeps is distributed without any warranty; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the GNU General Public License for more details.
+ * Project: http://www.jibble.org/
+ */
+package org.sourceforge.jlibeps.epsgraphics;
+
+/**
+ * This class counts the primitives that the graphics contexts of an EPS
+ * document did not paint as they were given, because they would not have
+ * made any visible difference, either as they were too small or as they were
+ * out of sight. The counts are shared by all the graphics
+ * contexts of the document.
+ * @see org.sourceforge.jlibeps.epsgraphics.EpsDetailPolicy
+ * @version 1.6.0
+ */
+public class EpsCullStatistics {
+	private long _droppedCount;
+	private long _collapsedCount;
+	private long _invisibleCount;
+	private long _trimmedCount;
+
+	/**
+	 * Returns the number of primitives painted as a dot, as they were below
+	 * the detail threshold.
+	 * @return The number of collapsed primitives
+	 * @since 1.6.0
+	 */
+	public synchronized long getCollapsedCount() {
+		return _collapsedCount;
+	}
+
+	/**
+	 * Returns the number of primitives skipped, as they were below the detail
+	 * threshold.
+	 * @return The number of dropped primitives
+	 * @since 1.6.0
+	 */
+	public synchronized long getDroppedCount() {
+		return _droppedCount;
+	}
+
+	/**
+	 * Returns the number of primitives skipped, as they were entirely outside
+	 * of the clip or of the declared box of the document.
+	 * @return The number of invisible primitives
+	 * @since 1.6.0
+	 */
+	public synchronized long getInvisibleCount() {
+		return _invisibleCount;
+	}
+
+	/**
+	 * Returns the number of polyline vertices left out, as all the segments
+	 * they belong to were outside of the visible area.
+	 * @return The number of trimmed vertices
+	 * @since 1.6.0
+	 */
+	public synchronized long getTrimmedCount() {
+		return _trimmedCount;
+	}
+
+	/**
+	 * Records a primitive painted as a dot.
+	 * @since 1.6.0
+	 */
+	synchronized void addCollapsed() {
+		_collapsedCount++;
+	}
+
+	/**
+	 * Records a skipped primitive.
+	 * @since 1.6.0
+	 */
+	synchronized void addDropped() {
+		_droppedCount++;
+	}
+
+	/**
+	 * Records an invisible primitive.
+	 * @since 1.6.0
+	 */
+	synchronized void addInvisible() {
+		_invisibleCount++;
+	}
+
+	/**
+	 * Records trimmed polyline vertices.
+	 * @param count The number of trimmed vertices
+	 * @since 1.6.0
+	 */
+	synchronized void addTrimmed(final long count) {
+		_trimmedCount += count;
+	}
+
+	/**
+	 * Resets all the counts to zero.
+	 * @since 1.6.0
+	 */
+	public synchronized void reset() {
+		_droppedCount = 0L;
+		_collapsedCount = 0L;
+		_invisibleCount = 0L;
+		_trimmedCount = 0L;
+	}
+
+	/**
+	 * Returns the counts as a String, for diagnostics.
+	 * @since 1.6.0
+	 */
+	@Override
+	public synchronized String toString() {
+		return "dropped: " + _droppedCount + ", collapsed: " + _collapsedCount + ", invisible: " + _invisibleCount + ", trimmed: " + _trimmedCount;
+	}
+}// class EpsCullStatistics
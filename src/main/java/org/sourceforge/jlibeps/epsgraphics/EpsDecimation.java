@@ -0,0 +1,30 @@
+/**
+ * Copyright (c) 2001, 2006, Paul James Mutton
+ * Copyright (c) 2007, Arnaud Blouin
+ * All rights reserved.
+ * This file is part of jlibeps, merged with similar code from EPS Graphics, and
+ * expanded by Meyer Sound Laboratories Inc.
+ * jlibeps is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * jlibeps is distributed without any warranty; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the GNU General Public License for more details.
+ * Project: http://www.jibble.org/
+ */
+package org.sourceforge.jlibeps.epsgraphics;
+
+/**
+ * Enumeration of the ways dense polylines can be reduced before they are
+ * written. NONE writes every vertex. MIN_MAX keeps, for each column of the
+ * output as wide as the tolerance, the first and last vertex and the lowest
+ * and highest ones, which is visually lossless for series plotted along the x
+ * axis. DOUGLAS_PEUCKER drops the vertices that lie closer than the tolerance
+ * to the simplified polyline, whatever its direction.
+ * @see org.sourceforge.jlibeps.epsgraphics.EpsDecimator
+ * @version 1.6.0
+ */
+public enum EpsDecimation {
+	NONE, MIN_MAX, DOUGLAS_PEUCKER
+}
@@ -0,0 +1,353 @@
+/**
+ * Copyright (c) 2001, 2006, Paul James Mutton
+ * Copyright (c) 2007, Arnaud Blouin
+ * All rights reserved.
+ * This file is part of jlibeps, merged with similar code from EPS Graphics, and
+ * expanded by Meyer Sound Laboratories Inc.
+ * jlibeps is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * jlibeps is distributed without any warranty; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the GNU General Public License for more details.
+ * Project: http://www.jibble.org/
+ */
+package org.sourceforge.jlibeps.epsgraphics;
+
+import java.util.Arrays;
+
+/**
+ * This class reduces the vertices of a polyline as they are streamed to it,
+ * so that a dense series only costs as many vertices as the output can
+ * show. The kept vertices become available in order, as soon as they are
+ * known to be kept, and are taken from the output buffer by the caller.
+ * The MIN_MAX reduction only holds the vertices of the current column. The
+ * DOUGLAS_PEUCKER reduction simplifies the polyline by chunks of bounded
+ * size, whose ends are always kept, so that very long series do not have to
+ * be held in memory either.
+ * @see org.sourceforge.jlibeps.epsgraphics.EpsDecimation
+ * @version 1.6.0
+ */
+public class EpsDecimator {
+	/**
+	 * The maximum number of vertices that are simplified together.
+	 */
+	private static final int CHUNK_SIZE = 1 << 16;
+
+	private final EpsDecimation _decimation;
+	private double _tolerance;
+
+	// The state of the current column of the MIN_MAX reduction, as the first,
+	// lowest, highest and last vertices, with their index in the polyline.
+	private boolean _columnStarted;
+	private double _column;
+	private long _index;
+	private long _firstIndex;
+	private double _firstX;
+	private double _firstY;
+	private long _minIndex;
+	private double _minX;
+	private double _minY;
+	private long _maxIndex;
+	private double _maxX;
+	private double _maxY;
+	private long _lastIndex;
+	private double _lastX;
+	private double _lastY;
+
+	// The current chunk of the DOUGLAS_PEUCKER reduction.
+	private double[] _chunkX = new double[16];
+	private double[] _chunkY = new double[16];
+	private boolean[] _keep = new boolean[16];
+	private int[] _stack = new int[32];
+	private int _chunkCount;
+
+	private double[] _outputX = new double[16];
+	private double[] _outputY = new double[16];
+	private int _outputCount;
+
+	/**
+	 * Constructs a decimator.
+	 * @param decimation The reduction to apply
+	 * @since 1.6.0
+	 */
+	public EpsDecimator(final EpsDecimation decimation) {
+		_decimation = decimation != null ? decimation : EpsDecimation.NONE;
+	}
+
+	/**
+	 * Adds the next vertex of the polyline.
+	 * @param x The x coordinate of the vertex
+	 * @param y The y coordinate of the vertex
+	 * @since 1.6.0
+	 */
+	public void add(final double x, final double y) {
+		if(_decimation == EpsDecimation.NONE || !(_tolerance > 0d)) {
+			output(x, y);
+		}else if(_decimation == EpsDecimation.MIN_MAX) {
+			addToColumn(x, y);
+		}else {
+			addToChunk(x, y);
+		}
+	}
+
+	/**
+	 * Adds a vertex to the current column, after ending the column if the
+	 * vertex falls in another one.
+	 * @since 1.6.0
+	 */
+	private void addToColumn(final double x, final double y) {
+		final double column = Math.floor(x / _tolerance);
+		final long index = _index++;
+
+		if(!_columnStarted || column != _column) {
+			endColumn();
+			_columnStarted = true;
+			_column = column;
+			_firstIndex = index;
+			_firstX = x;
+			_firstY = y;
+			_minIndex = index;
+			_minX = x;
+			_minY = y;
+			_maxIndex = index;
+			_maxX = x;
+			_maxY = y;
+		}else if(y < _minY) {
+			_minIndex = index;
+			_minX = x;
+			_minY = y;
+		}else if(y > _maxY) {
+			_maxIndex = index;
+			_maxX = x;
+			_maxY = y;
+		}
+
+		_lastIndex = index;
+		_lastX = x;
+		_lastY = y;
+	}
+
+	/**
+	 * Adds a vertex to the current chunk, after simplifying the chunk if it
+	 * is full. The last vertex of a full chunk starts the next one.
+	 * @since 1.6.0
+	 */
+	private void addToChunk(final double x, final double y) {
+		if(_chunkCount == CHUNK_SIZE) {
+			simplifyChunk(false);
+			_chunkX[0] = _chunkX[CHUNK_SIZE - 1];
+			_chunkY[0] = _chunkY[CHUNK_SIZE - 1];
+			_chunkCount = 1;
+		}
+
+		if(_chunkCount == _chunkX.length) {
+			final int capacity = Math.min(CHUNK_SIZE, 2 * _chunkCount);
+			_chunkX = Arrays.copyOf(_chunkX, capacity);
+			_chunkY = Arrays.copyOf(_chunkY, capacity);
+			_keep = new boolean[capacity];
+			_stack = new int[2 * capacity];
+		}
+
+		_chunkX[_chunkCount] = x;
+		_chunkY[_chunkCount] = y;
+		_chunkCount++;
+	}
+
+	/**
+	 * Starts a new polyline, forgetting any vertex of the previous one.
+	 * @param tolerance The width of the columns of the MIN_MAX reduction, or
+	 * the maximum distance of the dropped vertices to the simplified polyline
+	 * of the DOUGLAS_PEUCKER reduction, in the units of the vertices
+	 * @since 1.6.0
+	 */
+	public void begin(final double tolerance) {
+		_tolerance = tolerance;
+		_columnStarted = false;
+		_index = 0L;
+		_chunkCount = 0;
+		_outputCount = 0;
+	}
+
+	/**
+	 * Clears the output buffer, once its vertices have been taken.
+	 * @since 1.6.0
+	 */
+	public void clearOutput() {
+		_outputCount = 0;
+	}
+
+	/**
+	 * Ends the polyline, which makes its remaining kept vertices available.
+	 * @since 1.6.0
+	 */
+	public void end() {
+		endColumn();
+
+		if(_chunkCount > 0) {
+			simplifyChunk(true);
+			_chunkCount = 0;
+		}
+	}
+
+	/**
+	 * Outputs the vertices kept from the current column, in their order
+	 * along the polyline.
+	 * @since 1.6.0
+	 */
+	private void endColumn() {
+		if(!_columnStarted) {
+			return;
+		}
+
+		// The lowest and highest vertices may be the first or last ones, which
+		// are only written once.
+		final boolean minFirst = _minIndex <= _maxIndex;
+		long previous = _firstIndex;
+		output(_firstX, _firstY);
+
+		if((minFirst ? _minIndex : _maxIndex) != previous) {
+			previous = minFirst ? _minIndex : _maxIndex;
+			output(minFirst ? _minX : _maxX, minFirst ? _minY : _maxY);
+		}
+
+		if((minFirst ? _maxIndex : _minIndex) != previous) {
+			previous = minFirst ? _maxIndex : _minIndex;
+			output(minFirst ? _maxX : _minX, minFirst ? _maxY : _minY);
+		}
+
+		if(_lastIndex != previous) {
+			output(_lastX, _lastY);
+		}
+
+		_columnStarted = false;
+	}
+
+	/**
+	 * Returns the reduction that this decimator applies.
+	 * @return The reduction
+	 * @since 1.6.0
+	 */
+	public EpsDecimation getDecimation() {
+		return _decimation;
+	}
+
+	/**
+	 * Returns the number of vertices available in the output buffer.
+	 * @return The number of kept vertices that have not been taken yet
+	 * @since 1.6.0
+	 */
+	public int getOutputCount() {
+		return _outputCount;
+	}
+
+	/**
+	 * Returns the x coordinate of a vertex of the output buffer.
+	 * @param i The index of the vertex in the output buffer
+	 * @return The x coordinate of the vertex
+	 * @since 1.6.0
+	 */
+	public double getOutputX(final int i) {
+		return _outputX[i];
+	}
+
+	/**
+	 * Returns the y coordinate of a vertex of the output buffer.
+	 * @param i The index of the vertex in the output buffer
+	 * @return The y coordinate of the vertex
+	 * @since 1.6.0
+	 */
+	public double getOutputY(final int i) {
+		return _outputY[i];
+	}
+
+	private void output(final double x, final double y) {
+		if(_outputCount == _outputX.length) {
+			_outputX = Arrays.copyOf(_outputX, 2 * _outputCount);
+			_outputY = Arrays.copyOf(_outputY, 2 * _outputCount);
+		}
+
+		_outputX[_outputCount] = x;
+		_outputY[_outputCount] = y;
+		_outputCount++;
+	}
+
+	/**
+	 * Simplifies the current chunk and outputs its kept vertices, except its
+	 * last one unless it is the end of the polyline. The vertices are checked
+	 * against their distance to the segment between the kept vertices around
+	 * them, and the farthest one is kept as long as it is beyond the
+	 * tolerance. The ranges still to check are kept on an explicit stack, as
+	 * the recursion could otherwise be as deep as the chunk is long.
+	 * @param last Whether the chunk ends the polyline
+	 * @since 1.6.0
+	 */
+	private void simplifyChunk(final boolean last) {
+		final int count = _chunkCount;
+		final double toleranceSquared = _tolerance * _tolerance;
+		Arrays.fill(_keep, 0, count, false);
+		_keep[0] = true;
+		_keep[count - 1] = true;
+		int depth = 0;
+
+		if(count > 2) {
+			_stack[depth++] = 0;
+			_stack[depth++] = count - 1;
+		}
+
+		while(depth > 0) {
+			final int end = _stack[--depth];
+			final int start = _stack[--depth];
+			final double startX = _chunkX[start];
+			final double startY = _chunkY[start];
+			final double dx = _chunkX[end] - startX;
+			final double dy = _chunkY[end] - startY;
+			final double lengthSquared = dx * dx + dy * dy;
+			double farthest = -1d;
+			int farthestIndex = -1;
+
+			for(int i = start + 1; i < end; i++) {
+				double px = _chunkX[i] - startX;
+				double py = _chunkY[i] - startY;
+
+				// The distance is taken to the segment rather than to its line,
+				// so that series that turn back on themselves are kept.
+				if(lengthSquared > 0d) {
+					final double t = Math.max(0d, Math.min(1d, (px * dx + py * dy) / lengthSquared));
+					px -= t * dx;
+					py -= t * dy;
+				}
+
+				final double distanceSquared = px * px + py * py;
+
+				if(distanceSquared > farthest) {
+					farthest = distanceSquared;
+					farthestIndex = i;
+				}
+			}
+
+			if(farthest > toleranceSquared) {
+				_keep[farthestIndex] = true;
+
+				if(farthestIndex - start > 1) {
+					_stack[depth++] = start;
+					_stack[depth++] = farthestIndex;
+				}
+
+				if(end - farthestIndex > 1) {
+					_stack[depth++] = farthestIndex;
+					_stack[depth++] = end;
+				}
+			}
+		}
+
+		final int outputEnd = last ? count : count - 1;
+
+		for(int i = 0; i < outputEnd; i++) {
+			if(_keep[i]) {
+				output(_chunkX[i], _chunkY[i]);
+			}
+		}
+	}
+}// class EpsDecimator
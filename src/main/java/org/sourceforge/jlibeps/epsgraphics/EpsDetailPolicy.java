@@ -0,0 +1,29 @@
+/**
+ * Copyright (c) 2001, 2006, Paul James Mutton
+ * Copyright (c) 2007, Arnaud Blouin
+ * All rights reserved.
+ * This file is part of jlibeps, merged with similar code from EPS Graphics, and
+ * expanded by Meyer Sound Laboratories Inc.
+ * jlibeps is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * jlibeps is distributed without any warranty; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the GNU General Public License for more details.
+ * Project: http://www.jibble.org/
+ */
+package org.sourceforge.jlibeps.epsgraphics;
+
+/**
+ * Enumeration of the ways primitives that are too small to be seen can be
+ * handled. KEEP paints every primitive as it is. DROP skips the primitives
+ * whose painted extent, line width included, is below the threshold. DOT
+ * paints them as a filled rectangle over that extent instead, which keeps
+ * their mark on the page at the cost of a single rectangle.
+ * @see org.sourceforge.jlibeps.epsgraphics.EpsCullStatistics
+ * @version 1.6.0
+ */
+public enum EpsDetailPolicy {
+	KEEP, DROP, DOT
+}
@@ -0,0 +1,30 @@
+/**
+ * Copyright (c) 2001, 2006, Paul James Mutton
+ * Copyright (c) 2007, Arnaud Blouin
+ * All rights reserved.
+ * This file is part of jlibeps, merged with similar code from EPS Graphics, and
+ * expanded by Meyer Sound Laboratories Inc.
+ * jlibeps is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * jlibeps is distributed without any warranty; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the GNU General Public License for more details.
+ * Project: http://www.jibble.org/
+ */
+package org.sourceforge.jlibeps.epsgraphics;
+
+/**
+ * Enumeration of the ways images are reduced to black and white pixels.
+ * NONE makes each pixel white when its luminance is at least half of the
+ * maximum, and black otherwise. ORDERED compares the luminance with the
+ * thresholds of an 8x8 Bayer matrix tiled over the image, which renders
+ * gray levels as regular patterns. ERROR_DIFFUSION spreads the difference
+ * between the luminance and the chosen color over the neighbouring pixels,
+ * with the Floyd-Steinberg weights, which renders gray levels best.
+ * @version 1.6.0
+ */
+public enum EpsDithering {
+	NONE, ORDERED, ERROR_DIFFUSION
+}
@@ -17,19 +17,18 @@
  */
 package org.sourceforge.jlibeps.epsgraphics;
 
-import java.awt.Color;
-import java.awt.Composite;
-import java.awt.Font;
-import java.awt.Paint;
 import java.awt.Shape;
-import java.awt.Stroke;
-import java.io.BufferedWriter;
+import java.awt.geom.Rectangle2D;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.StringWriter;
 import java.io.Writer;
+import java.nio.channels.WritableByteChannel;
 import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * This class represents an EPS Document. Several EpsGraphics2D objects may
@@ -38,12 +37,104 @@ import java.time.LocalDate;
  * @version 1.5.0
  */
 public class EpsDocument {
+	/**
+	 * The name under which the matrix of the page is saved at the start of the
+	 * body when native transforms are enabled, so that the graphics contexts
+	 * can reinstate it before concatenating their own transform.
+	 */
+	public static final String BASE_MATRIX_NAME = "jlibepsbase";
+
+	/**
+	 * The prefix of the names of the procedures defined in the document body.
+	 */
+	private static final String PROCEDURE_PREFIX = "jp";
+
+	/**
+	 * The number of candidate procedures whose uses are counted, as a multiple
+	 * of the maximum number of procedures.
+	 */
+	private static final int PROCEDURE_USES_FACTOR = 4;
+
+	/**
+	 * The number of lines after which a combined path is painted, so that it
+	 * stays well within the path limit of the PostScript interpreters.
+	 */
+	private static final int PAINT_LINE_LIMIT = 500;
+
+	/**
+	 * This class is the content of a procedure as a key of the procedure maps.
+	 * A stored key holds a copy of the bytes of the content, while the probe
+	 * key looks a procedure up from the line builder itself, so that finding
+	 * an existing procedure allocates nothing. The bytes are only compared
+	 * when the hash codes match.
+	 */
+	private static final class ProcedureKey {
+		private byte[] _bytes;
+		private EpsLineBuilder _line;
+		private int _hash;
+
+		ProcedureKey() {
+			// The probe key, which is set before each look up.
+		}
+
+		ProcedureKey(final byte[] bytes, final int hash) {
+			_bytes = bytes;
+			_hash = hash;
+		}
+
+		void set(final EpsLineBuilder line) {
+			_line = line;
+			_hash = line.contentHashCode();
+		}
+
+		@Override
+		public boolean equals(final Object object) {
+			if(this == object) {
+				return true;
+			}
+
+			if(!(object instanceof ProcedureKey)) {
+				return false;
+			}
+
+			final ProcedureKey other = (ProcedureKey) object;
+
+			if(_hash != other._hash) {
+				return false;
+			}
+
+			if(_line != null) {
+				return other._bytes != null && _line.contentEquals(other._bytes);
+			}
+
+			return other._line != null ? other._line.contentEquals(_bytes) : Arrays.equals(_bytes, other._bytes);
+		}
+
+		@Override
+		public int hashCode() {
+			return _hash;
+		}
+	}
+
 	private double _minX;
 	private double _minY;
 	private double _maxX;
 	private double _maxY;
 	private boolean _clipSet;
+
+	/**
+	 * The scale factor from document units to points of the output page, which
+	 * is known once the header has been computed, or 0 until then.
+	 */
+	private double _scaleFactor = 0d;
+
+	/**
+	 * The box of the content declared to the constructor, in document units,
+	 * or null if the bounds grow with the content.
+	 */
+	private Rectangle2D _pageBounds = null;
 	private final String _title;
+	private final EpsSettings _settings;
 
 	/**
 	 * The Output Stream reference is provided for backward compatibility with
@@ -57,18 +148,18 @@ public class EpsDocument {
 	private OutputStream _outputStream = null;
 
 	/**
-	 * The StringWriter reference is provided for backward compatibility with
-	 * older versions of the library, which allowed for in-memory EPS creation.
+	 * The in-memory buffer is provided for backward compatibility with older
+	 * versions of the library, which allowed for in-memory EPS creation.
 	 */
-	private StringWriter _stringWriter = null;
+	private ByteArrayOutputStream _memory = null;
 
 	/**
-	 * The Writer reference was previously generated by the library in its
-	 * fully-qualified constructor, but is now passed in by the client in place
-	 * of an Output Stream reference, as only the client can wrap the usage in
-	 * try-with-resources and still control the execution order of EPS Export.
+	 * The sink receives the ASCII bytes of the EPS content. It wraps whichever
+	 * Writer, Output Stream or Channel the client passed in, as only the client
+	 * can wrap the usage in try-with-resources and still control the execution
+	 * order of EPS Export.
 	 */
-	private final Writer _writer;
+	private final EpsSink _sink;
 
 	/**
 	 * We need to remember which was the last EpsGraphics2D object to use this
@@ -77,6 +168,67 @@ public class EpsDocument {
 	 */
 	private EpsGraphics2D _lastG;
 
+	/**
+	 * The graphics state of the PostScript interpreter, as far as it is known
+	 * from the commands written so far. It is shared by all the EpsGraphics2D
+	 * objects drawing on this document, so that they only emit state changes.
+	 */
+	private final EpsGraphicsState _graphicsState = new EpsGraphicsState();
+
+	/**
+	 * The counts of the primitives that the graphics contexts did not paint
+	 * as they were given.
+	 */
+	private final EpsCullStatistics _cullStatistics = new EpsCullStatistics();
+
+	/**
+	 * The names of the procedures currently defined in the body, by their
+	 * content, so that a procedure is only defined once however often the
+	 * graphics contexts ask for it. The map is in access order, so that the
+	 * least recently used procedure comes first.
+	 */
+	private final Map<ProcedureKey, String> _procedures = new LinkedHashMap<>(16, 0.75f, true);
+
+	/**
+	 * The reusable key that looks the content of a procedure up in the maps.
+	 */
+	private final ProcedureKey _procedureProbe = new ProcedureKey();
+
+	/**
+	 * The painting operator owed to the path written so far, if paths are
+	 * coalesced, or null if there is no such path. The path is open while a
+	 * graphics context appends to it, and its lines and bounds are counted so
+	 * as to decide whether the next path may join it.
+	 */
+	private EpsOperator _paint = null;
+	private boolean _paintOpen;
+	private int _paintLines;
+	private double _paintMinX;
+	private double _paintMinY;
+	private double _paintMaxX;
+	private double _paintMaxY;
+	private EpsLineBuilder _paintLine;
+
+	/**
+	 * The graphics context that holds painting operations back to reorder
+	 * them, if any. They are written before anything else is, and before the
+	 * graphics state is looked at, as it may be about to change.
+	 */
+	private EpsGraphics2D _reorderOwner = null;
+
+	/**
+	 * The number of times that the procedures which are not defined yet have
+	 * been asked for, by their content. Only the most recent ones are kept.
+	 */
+	private final Map<ProcedureKey, Integer> _procedureUses = new LinkedHashMap<ProcedureKey, Integer>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<ProcedureKey, Integer> eldest) {
+			return size() > PROCEDURE_USES_FACTOR * _settings.getProcedureLimit();
+		}
+	};
+
 	/**
 	 * Constructs an empty EpsDocument, for in-memory usage.
 	 * This constructor does NOT write the header right away, as do the others,
@@ -92,15 +244,16 @@ public class EpsDocument {
 	@Deprecated
 	public EpsDocument(final String title) {
 		_title = title;
+		_settings = new EpsSettings();
 
 		_minX = Double.POSITIVE_INFINITY;
 		_minY = Double.POSITIVE_INFINITY;
 		_maxX = Double.NEGATIVE_INFINITY;
 		_maxY = Double.NEGATIVE_INFINITY;
 
-		_stringWriter = new StringWriter();
+		_memory = new ByteArrayOutputStream();
 
-		_writer = new BufferedWriter(_stringWriter);
+		_sink = new EpsSink(_memory);
 	}
 
 	/**
@@ -124,7 +277,7 @@ public class EpsDocument {
 	@Deprecated
 	public EpsDocument(final String title, final OutputStream outputStream, final double minX, final double minY, final double maxX, final double maxY) throws
 		IOException {
-		this(new BufferedWriter(new OutputStreamWriter(outputStream)), title, minX, minY, maxX, maxY);
+		this(new EpsSink(outputStream), title, minX, minY, maxX, maxY);
 
 		// Cache the Output Stream passed in by the client, as they may need to
 		// retrieve it later in a different part of their code structure where
@@ -157,20 +310,155 @@ public class EpsDocument {
 	 */
 	public EpsDocument(final Writer writer, final String title, final double minX, final double minY, final double maxX, final double maxY) throws
 		IOException {
+		this(EpsSink.forWriter(writer), title, minX, minY, maxX, maxY);
+	}
+
+	/**
+	 * Constructs an empty EpsDocument that writes directly to an Output Stream,
+	 * and writes the common header shared by all EPS files.
+	 * As EPS content is 7-bit clean, the ASCII bytes are written as they are,
+	 * without going through a Writer and its charset encoding. The client
+	 * remains responsible for closing the Output Stream, preferably with a
+	 * try-with-resources block.
+	 * @param outputStream The @OutputStream to channel the EPS content to
+	 * @param title The title of the EPS Document
+	 * @param minX The x-coordinate of the EPS content top left corner
+	 * @param minY The y-coordinate of the EPS content top left corner
+	 * @param maxX The x-coordinate of the EPS content bottom right corner
+	 * @param maxY The y-coordinate of the EPS content bottom right corner
+	 * @throws IOException
+	 * @since 1.6.0
+	 */
+	public EpsDocument(final OutputStream outputStream, final String title, final double minX, final double minY, final double maxX, final double maxY)
+		throws IOException {
+		this(new EpsSink(outputStream), title, minX, minY, maxX, maxY);
+	}
+
+	/**
+	 * Constructs an empty EpsDocument that writes directly to a Channel, and
+	 * writes the common header shared by all EPS files.
+	 * As EPS content is 7-bit clean, the ASCII bytes are written as they are,
+	 * without any charset encoding. The client remains responsible for closing
+	 * the Channel, preferably with a try-with-resources block.
+	 * @param channel The @WritableByteChannel to channel the EPS content to
+	 * @param title The title of the EPS Document
+	 * @param minX The x-coordinate of the EPS content top left corner
+	 * @param minY The y-coordinate of the EPS content top left corner
+	 * @param maxX The x-coordinate of the EPS content bottom right corner
+	 * @param maxY The y-coordinate of the EPS content bottom right corner
+	 * @throws IOException
+	 * @since 1.6.0
+	 */
+	public EpsDocument(final WritableByteChannel channel, final String title, final double minX, final double minY, final double maxX, final double
+		maxY) throws IOException {
+		this(EpsSink.forChannel(channel), title, minX, minY, maxX, maxY);
+	}
+
+	/**
+	 * Constructs an empty EpsDocument that writes directly to an EPS sink, and
+	 * writes the common header shared by all EPS files, with default settings.
+	 * @param sink The @EpsSink to channel the EPS content to
+	 * @param title The title of the EPS Document
+	 * @param minX The x-coordinate of the EPS content top left corner
+	 * @param minY The y-coordinate of the EPS content top left corner
+	 * @param maxX The x-coordinate of the EPS content bottom right corner
+	 * @param maxY The y-coordinate of the EPS content bottom right corner
+	 * @throws IOException
+	 * @since 1.6.0
+	 */
+	public EpsDocument(final EpsSink sink, final String title, final double minX, final double minY, final double maxX, final double maxY) throws
+		IOException {
+		this(sink, title, minX, minY, maxX, maxY, new EpsSettings());
+	}
+
+	/**
+	 * Constructs an empty EpsDocument that writes directly to an EPS sink, and
+	 * writes the common header shared by all EPS files. All other file based
+	 * constructors wrap their target in a sink and delegate to this one.
+	 * The settings are copied, as they already shape the header.
+	 * @param sink The @EpsSink to channel the EPS content to
+	 * @param title The title of the EPS Document
+	 * @param minX The x-coordinate of the EPS content top left corner
+	 * @param minY The y-coordinate of the EPS content top left corner
+	 * @param maxX The x-coordinate of the EPS content bottom right corner
+	 * @param maxY The y-coordinate of the EPS content bottom right corner
+	 * @param settings The @EpsSettings of the EPS Document
+	 * @throws IOException
+	 * @since 1.6.0
+	 */
+	public EpsDocument(final EpsSink sink, final String title, final double minX, final double minY, final double maxX, final double maxY, final
+		EpsSettings settings) throws IOException {
 		_title = title;
+		_settings = new EpsSettings(settings);
+
+		// A Writer may encode the bytes beyond ASCII as it likes, so binary
+		// tokens, compression and binary image data fall back to text.
+		if(!sink.isBinary()) {
+			_settings.setBinaryTokens(false);
+			_settings.setCompression(EpsCompression.NONE);
+
+			if(_settings.getImageEncoding() == EpsImageEncoding.BINARY) {
+				_settings.setImageEncoding(EpsImageEncoding.HEX);
+			}
+		}
 
 		_minX = minX;
 		_minY = minY;
 		_maxX = maxX;
 		_maxY = maxY;
+		_pageBounds = new Rectangle2D.Double(Math.min(minX, maxX), Math.min(minY, maxY), Math.abs(maxX - minX), Math.abs(maxY - minY));
 
 		_clipSet = false;
 
-		_writer = writer;
+		_sink = sink;
 
 		// Write the header immediately, to make sure it is at the top of the
 		// EPS Document, as not all EPS clients are reliable otherwise.
-		write(_writer);
+		write(_sink);
+	}
+
+	/**
+	 * Appends the definition of the base matrix, if native transforms are
+	 * enabled. It must follow the page scale and translation.
+	 * @param line The line builder to append the definition to
+	 * @since 1.6.0
+	 */
+	private void appendBaseMatrix(final EpsLineBuilder line) {
+		if(_settings.isNativeTransforms()) {
+			line.append('/').append(BASE_MATRIX_NAME).token("matrix currentmatrix def\n");
+		}
+	}
+
+	/**
+	 * Makes the given graphics context the active one for this document. If the
+	 * graphics context changed and wasn't previously null, the clip of the new
+	 * context is "redundantly" reset, to trigger the EPS commands that restore
+	 * it. The color, font and stroke need no such reset, as the graphics
+	 * contexts synchronize them with the shared @EpsGraphicsState before use.
+	 * This is done by the graphics context itself before it starts composing a
+	 * line, so that the reset commands cannot interleave with that line.
+	 * @param epsGraphics The @EpsGraphics2D graphics context for writing EPS content
+	 * @since 1.6.0
+	 */
+	public synchronized void activate(final EpsGraphics2D epsGraphics) {
+		releaseOperations();
+
+		if(_lastG == null || epsGraphics.equals(_lastG)) {
+			_lastG = epsGraphics;
+			return;
+		}
+
+		// Replace the cached graphics context before replaying the clip, as
+		// the replay itself appends lines through the new context.
+		final EpsGraphics2D lastG = _lastG;
+		_lastG = epsGraphics;
+
+		// We are being drawn on with a different EpsGraphics2D context.
+		// We may need to update the clip from this new context.
+		final Shape clip = epsGraphics.getClip();
+		if(clip != null && !clip.equals(lastG.getClip())) {
+			epsGraphics.setClip(clip);
+		}
 	}
 
 	/**
@@ -184,67 +472,322 @@ public class EpsDocument {
 	 * @throws IOException
 	 * @since 0.1
 	 */
-	@SuppressWarnings("nls")
 	public synchronized void append(final EpsGraphics2D epsGraphics, final String line) throws IOException {
-		// If the graphics context changed and wasn't previously null,
-		// "redundantly" reset current attributes to trigger EPS commands.
-		if(_lastG != null && !epsGraphics.equals(_lastG)) {
-			final EpsGraphics2D lastG = _lastG;
-
-			// We are being drawn on with a different EpsGraphics2D context.
-			// We may need to update the clip, etc. from this new context.
-			final Shape clip = epsGraphics.getClip();
-			if(clip != null && !clip.equals(lastG.getClip())) {
-				epsGraphics.setClip(clip);
-			}
+		// Make sure the settings of this graphics context are established
+		// before writing a content line on its behalf.
+		activate(epsGraphics);
+		appendPaint();
 
-			final Color color = epsGraphics.getColor();
-			if(color != null && !color.equals(lastG.getColor())) {
-				epsGraphics.setColor(color);
-			}
+		// :NOTE: This is not done in a platform-specific way via the
+		// System.lineSeparator() function, as it is the downstream consumer of
+		// the EPS document that matters more than the producer of the document.
+		_sink.write(line);
+		_sink.write('\n');
+	}
 
-			final Color background = epsGraphics.getBackground();
-			if(background != null && !background.equals(lastG.getBackground())) {
-				epsGraphics.setBackground(background);
-			}
+	/**
+	 * Appends a line composed in a reusable line builder to the EpsDocument,
+	 * without converting it to a String first. A new line character is added to
+	 * the end of the line when it is added. The graphics context must have been
+	 * activated before composing the line, as activation may itself append
+	 * lines through the same builder.
+	 * @param epsGraphics The @EpsGraphics2D graphics context for writing EPS content
+	 * @param line The line builder holding the new content line
+	 * @throws IOException
+	 * @see #activate(EpsGraphics2D)
+	 * @since 1.6.0
+	 */
+	public synchronized void append(final EpsGraphics2D epsGraphics, final EpsLineBuilder line) throws IOException {
+		_lastG = epsGraphics;
+		appendPaint();
 
-			// We don't need this, as this only affects the stroke and font,
-			// which are dealt with separately later on.
-			// final AffineTransform transform = g.getTransform();
-			// if ( ( transform != null ) && !transform.equals(
-			// lastG.getTransform() ) ) {
-			// g.setTransform( transform );
-			// }
-
-			final Paint paint = epsGraphics.getPaint();
-			if(paint != null && !paint.equals(lastG.getPaint())) {
-				epsGraphics.setPaint(paint);
-			}
+		line.writeTo(_sink);
+		_sink.write('\n');
+	}
 
-			final Composite composite = epsGraphics.getComposite();
-			if(composite != null && !composite.equals(lastG.getComposite())) {
-				epsGraphics.setComposite(composite);
-			}
+	/**
+	 * Appends the content lines held in a range of a line builder. The range
+	 * may end in the middle of a line, which the next range then continues.
+	 * @param epsGraphics The @EpsGraphics2D graphics context for writing EPS content
+	 * @param lines The line builder holding the content lines
+	 * @param offset The offset of the first line in the line builder
+	 * @param length The size of the range, including the line terminators
+	 * @param count The number of line terminators in the range
+	 * @throws IOException
+	 * @see #activate(EpsGraphics2D)
+	 * @since 1.6.0
+	 */
+	public synchronized void append(final EpsGraphics2D epsGraphics, final EpsLineBuilder lines, final int offset, final int length, final int count)
+			throws IOException {
+		_lastG = epsGraphics;
+
+		if(_paintOpen) {
+			_paintLines += count;
+		}else {
+			flushPaint();
+		}
+
+		lines.writeTo(_sink, offset, length);
+	}
+
+	/**
+	 * Records that a graphics context holds painting operations back to
+	 * reorder them. The operations held by another context are written first,
+	 * as they were painted before.
+	 * @param epsGraphics The @EpsGraphics2D graphics context that holds operations
+	 * @see #releaseOperations()
+	 * @since 1.6.0
+	 */
+	public synchronized void holdOperations(final EpsGraphics2D epsGraphics) {
+		if(_reorderOwner != epsGraphics) {
+			releaseOperations();
+			_reorderOwner = epsGraphics;
+		}
+	}
+
+	/**
+	 * Has the graphics context that holds painting operations back, if any,
+	 * write them now.
+	 * @since 1.6.0
+	 */
+	public synchronized void releaseOperations() {
+		if(_reorderOwner != null) {
+			final EpsGraphics2D owner = _reorderOwner;
+			_reorderOwner = null;
+			owner.writeOperations();
+		}
+	}
+
+	/**
+	 * Appends the painting operator owed to the combined path, if any, unless
+	 * the path is still open, in which case the line is counted as one of its
+	 * own.
+	 * @throws IOException
+	 * @since 1.6.0
+	 */
+	private void appendPaint() throws IOException {
+		if(_paintOpen) {
+			_paintLines++;
+		}else {
+			flushPaint();
+		}
+	}
+
+	/**
+	 * Starts appending a path that is to be painted with the given operator.
+	 * The path joins the one written so far if they are painted the same way,
+	 * as nothing else has been written in between, and if the combined path
+	 * paints the same. Otherwise the path written so far is painted first.
+	 * The caller must then write the path, starting with a newpath command
+	 * unless it joins the previous one, and end it with deferPaint.
+	 * @param action The painting operator, as FILL or STROKE
+	 * @param minX The minimum x coordinate of the path, or NaN if unknown
+	 * @param minY The minimum y coordinate of the path
+	 * @param maxX The maximum x coordinate of the path
+	 * @param maxY The maximum y coordinate of the path
+	 * @return true if the path joins the one written so far; false otherwise
+	 * @throws IOException
+	 * @see #deferPaint(EpsOperator)
+	 * @since 1.6.0
+	 */
+	public synchronized boolean continuePaint(final EpsOperator action, final double minX, final double minY, final double maxX, final double maxY)
+			throws IOException {
+		// Stroking subpaths together paints their union, whereas filling them
+		// together would combine their windings, so that overlapping filled
+		// paths could cut holes in each other.
+		final boolean joined = action == _paint && _paintLines < PAINT_LINE_LIMIT &&
+				(action == EpsOperator.STROKE || minX >= _paintMaxX || maxX <= _paintMinX || minY >= _paintMaxY || maxY <= _paintMinY);
+
+		if(joined) {
+			_paintMinX = Math.min(_paintMinX, minX);
+			_paintMinY = Math.min(_paintMinY, minY);
+			_paintMaxX = Math.max(_paintMaxX, maxX);
+			_paintMaxY = Math.max(_paintMaxY, maxY);
+		}else {
+			flushPaint();
+			_paintLines = 0;
+			_paintMinX = minX;
+			_paintMinY = minY;
+			_paintMaxX = maxX;
+			_paintMaxY = maxY;
+		}
+
+		_paint = null;
+		_paintOpen = true;
+		return joined;
+	}
+
+	/**
+	 * Ends a path started by continuePaint, whose painting operator is only
+	 * written once no other path joins it.
+	 * @param action The painting operator, as FILL or STROKE
+	 * @see #continuePaint(EpsOperator, double, double, double, double)
+	 * @since 1.6.0
+	 */
+	public synchronized void deferPaint(final EpsOperator action) {
+		_paint = action;
+		_paintOpen = false;
+	}
+
+	/**
+	 * Writes the painting operator owed to the combined path, if any.
+	 * @throws IOException
+	 * @since 1.6.0
+	 */
+	private void flushPaint() throws IOException {
+		if(_paint == null) {
+			return;
+		}
+
+		if(_paintLine == null) {
+			_paintLine = createLineBuilder();
+		}
+
+		_paintLine.clear().operator(_paint);
+		_paint = null;
 
-			final Font font = epsGraphics.getFont();
-			if(font != null && !font.equals(lastG.getFont())) {
-				epsGraphics.setFont(font);
+		_paintLine.writeTo(_sink);
+		_sink.write('\n');
+	}
+
+	/**
+	 * Creates a path encoder that writes path segments the way this document
+	 * expects them, e.g. in relative form if the settings allow it.
+	 * @return A new path encoder configured for this document
+	 * @since 1.6.0
+	 */
+	public EpsPathEncoder createPathEncoder() {
+		return new EpsPathEncoder(createLineBuilder(), _settings.isRelativePaths());
+	}
+
+	/**
+	 * Returns the name of a procedure with the given content, defining it in
+	 * the document body first unless an identical procedure already is. The
+	 * names are kept short, as they are written each time the procedure is
+	 * invoked.
+	 * @param epsGraphics The @EpsGraphics2D graphics context for writing EPS content
+	 * @param body The line builder holding the content of the procedure,
+	 * without the enclosing braces
+	 * @return The name of the procedure
+	 * @throws IOException
+	 * @since 1.6.0
+	 */
+	public synchronized String defineProcedure(final EpsGraphics2D epsGraphics, final EpsLineBuilder body) throws IOException {
+		return defineProcedure(epsGraphics, body, 1);
+	}
+
+	/**
+	 * Returns the name of a procedure with the given content, once it has been
+	 * asked for a number of times. The procedure is defined in the document
+	 * body when that number is reached, unless an identical procedure already
+	 * is. Once the procedure limit of the settings is reached, the least
+	 * recently used procedure is forgotten and its name is reused, which
+	 * redefines it.
+	 * @param epsGraphics The @EpsGraphics2D graphics context for writing EPS content
+	 * @param body The line builder holding the content of the procedure,
+	 * without the enclosing braces
+	 * @param uses The number of times that the procedure has to be asked for
+	 * before it is defined
+	 * @return The name of the procedure, or null if it is not defined yet
+	 * @throws IOException
+	 * @since 1.6.0
+	 */
+	public synchronized String defineProcedure(final EpsGraphics2D epsGraphics, final EpsLineBuilder body, final int uses) throws IOException {
+		final ProcedureKey probe = _procedureProbe;
+		probe.set(body);
+		String name = _procedures.get(probe);
+
+		if(name != null) {
+			return name;
+		}
+
+		if(uses > 1) {
+			final Integer count = _procedureUses.get(probe);
+
+			// Only a new candidate needs a key of its own.
+			if(count == null) {
+				_procedureUses.put(new ProcedureKey(body.toByteArray(), probe.hashCode()), 1);
+				return null;
 			}
 
-			final Stroke stroke = epsGraphics.getStroke();
-			if(stroke != null && !stroke.equals(lastG.getStroke())) {
-				epsGraphics.setStroke(stroke);
+			if(count + 1 < uses) {
+				_procedureUses.put(probe, count + 1);
+				return null;
 			}
+
+			_procedureUses.remove(probe);
 		}
 
-		// Replace the cached graphics context for future change detection.
+		if(_procedures.size() < _settings.getProcedureLimit()) {
+			name = PROCEDURE_PREFIX + _procedures.size();
+		}else {
+			final Iterator<String> eldest = _procedures.values().iterator();
+			name = eldest.next();
+			eldest.remove();
+		}
+
+		_procedures.put(new ProcedureKey(body.toByteArray(), probe.hashCode()), name);
+		releaseOperations();
 		_lastG = epsGraphics;
+		flushPaint();
 
-		// Now we have enough settings established for writing a content line.
-		// :NOTE: This is not done in a platform-specific way via the
-		// System.lineSeparator() function, as it is the downstream consumer of
-		// the EPS document that matters more than the producer of the document.
-		_writer.write(line + "\n");
+		_sink.write("/" + name + " {");
+		body.writeTo(_sink);
+		_sink.write("} bind def\n");
+
+		return name;
+	}
+
+	/**
+	 * Creates a line builder that composes content lines the way this document
+	 * expects them, e.g. with operator aliases if the prolog defines them.
+	 * @return A new line builder configured for this document
+	 * @since 1.6.0
+	 */
+	public EpsLineBuilder createLineBuilder() {
+		final EpsLineBuilder line = _settings.isBinaryTokens() ? new EpsBinaryLineBuilder() : new EpsLineBuilder();
+		line.setCompactOperators(_settings.isCompactProlog());
+		setCoordinatePrecision(line, 1d);
+
+		return line;
+	}
+
+	/**
+	 * Sets the coordinate precision of a line builder whose coordinates are
+	 * scaled on their way to document units, as the user space coordinates
+	 * of native transform mode are by the current transform. The grid or the
+	 * number of decimals of the settings, meant for document units, is
+	 * converted to the units of the coordinates, so that the rounding stays
+	 * the same once on the page. Coordinates that do not map to document
+	 * units keep the FULL precision.
+	 * @param line The line builder to configure
+	 * @param scale The number of document units per unit of the coordinates,
+	 * as the largest scale of the transform along its axes
+	 * @since 1.6.0
+	 */
+	public void setCoordinatePrecision(final EpsLineBuilder line, final double scale) {
+		if(!(scale > 0d) || Double.isInfinite(scale)) {
+			line.setCoordinateQuantum(0d);
+			return;
+		}
+
+		switch(_settings.getCoordinatePrecision()) {
+			case DECIMALS:
+				// Each tenfold scale takes one more decimal; the small offset
+				// keeps exact powers of ten from rounding up.
+				line.setCoordinateDecimals(_settings.getCoordinateDecimals() + (int) Math.ceil(Math.log10(scale) - 1e-9));
+				break;
+			case QUANTUM:
+				line.setCoordinateQuantum(_settings.getCoordinateQuantum() / scale);
+				break;
+			case DEVICE:
+				// The page scale is not known yet for in-memory documents.
+				line.setCoordinateQuantum(_scaleFactor > 0d ? _settings.getCoordinateQuantum() / _scaleFactor / scale : 0d);
+				break;
+			default:
+				line.setCoordinateQuantum(0d);
+				break;
+		}
 	}
 
 	/**
@@ -258,7 +801,7 @@ public class EpsDocument {
 	@Deprecated
 	public synchronized void close() throws IOException {
 		// If the in-memory approach was initiated, do nothing.
-		if(_stringWriter != null) {
+		if(_memory != null) {
 			return;
 		}
 
@@ -266,7 +809,7 @@ public class EpsDocument {
 		finish();
 
 		// Close the EPS document, automatically flushing it first.
-		_writer.close();
+		_sink.close();
 	}
 
 	/**
@@ -280,7 +823,7 @@ public class EpsDocument {
 	 */
 	public synchronized void finish() throws IOException {
 		// Always write a page footer when finishing an EPS Document.
-		writeFooter(_writer);
+		writeFooter(_sink);
 	}
 
 	/**
@@ -289,7 +832,23 @@ public class EpsDocument {
 	 * @since 0.1
 	 */
 	public synchronized void flush() throws IOException {
-		_writer.flush();
+		releaseOperations();
+		flushPaint();
+		_sink.flush();
+	}
+
+	/**
+	 * Returns the graphics state of the PostScript interpreter, as far as it
+	 * is known from the commands written so far.
+	 * @return The graphics state shared by all contexts drawing on this document
+	 * @since 1.6.0
+	 */
+	public final synchronized EpsGraphicsState getGraphicsState() {
+		// The held operations are written with the state that they were
+		// recorded with, so they must precede any change to it.
+		releaseOperations();
+
+		return _graphicsState;
 	}
 
 	/**
@@ -342,6 +901,143 @@ public class EpsDocument {
 		return _outputStream;
 	}
 
+	/**
+	 * Returns the scale factor from document units to points of the output
+	 * page, which is computed with the header. In-memory documents only know it
+	 * once they are written out.
+	 * @return The page scale factor, or 0 if it is not known yet
+	 * @since 1.6.0
+	 */
+	public double getScaleFactor() {
+		return _scaleFactor;
+	}
+
+	/**
+	 * Returns whether the transforms of the graphics contexts are written as
+	 * the PostScript current transformation matrix. This is a shortcut for the
+	 * setting, which is checked by every new graphics context.
+	 * @return true if native transforms are enabled; false otherwise
+	 * @since 1.6.0
+	 */
+	public boolean isNativeTransforms() {
+		return _settings.isNativeTransforms();
+	}
+
+	/**
+	 * Returns the box of the content declared when the document was
+	 * constructed, in document units. Content outside of this box is outside
+	 * of the bounding box of the header.
+	 * @return The declared box of the content, or null for in-memory documents
+	 * whose bounds grow with the content
+	 * @since 1.6.0
+	 */
+	public Rectangle2D getPageBounds() {
+		return _pageBounds;
+	}
+
+	/**
+	 * Returns the counts of the primitives that the graphics contexts of this
+	 * document did not paint as they were given, e.g. because they were too
+	 * small to be seen.
+	 * @return The cull statistics of this document
+	 * @since 1.6.0
+	 */
+	public EpsCullStatistics getCullStatistics() {
+		return _cullStatistics;
+	}
+
+	/**
+	 * Returns how many times a path has to be drawn before it is defined as a
+	 * procedure, or 0 if paths are not cached. This is a shortcut for the
+	 * setting.
+	 * @return The number of repeats that promote a path to a procedure
+	 * @since 1.6.0
+	 */
+	public int getPathCacheRepeats() {
+		return _settings.getPathCacheRepeats();
+	}
+
+	/**
+	 * Returns how images are reduced to black and white pixels, in black and
+	 * white. This is a shortcut for the setting.
+	 * @return The dithering of images
+	 * @since 1.6.0
+	 */
+	public EpsDithering getDithering() {
+		return _settings.getDithering();
+	}
+
+	/**
+	 * Returns how the data of the images is compressed. This is a shortcut
+	 * for the setting.
+	 * @return The compression of the image data
+	 * @since 1.6.0
+	 */
+	public EpsImageCompression getImageCompression() {
+		return _settings.getImageCompression();
+	}
+
+	/**
+	 * Returns how the data of the images is written. This is a shortcut for
+	 * the setting.
+	 * @return The encoding of the image data
+	 * @since 1.6.0
+	 */
+	public EpsImageEncoding getImageEncoding() {
+		return _settings.getImageEncoding();
+	}
+
+	/**
+	 * Returns whether binary data can be written to this document. This is not
+	 * the case of a document written through a Writer, nor of an in-memory
+	 * document, which is meant to be turned into a String.
+	 * @return true if binary data can be written; false otherwise
+	 * @since 1.6.0
+	 */
+	public boolean isBinaryOutput() {
+		return _memory == null && _sink.isBinary();
+	}
+
+	/**
+	 * Returns the number of painting operations that are held back to reorder
+	 * them, or 0 if they are written right away. This is a shortcut for the
+	 * setting.
+	 * @return The size of the reordering window
+	 * @since 1.6.0
+	 */
+	public int getReorderWindow() {
+		return _settings.getReorderWindow();
+	}
+
+	/**
+	 * Returns whether color images of few colors are written with a palette.
+	 * This is a shortcut for the setting.
+	 * @return true if images may be indexed; false otherwise
+	 * @since 1.6.0
+	 */
+	public boolean isIndexedImages() {
+		return _settings.isIndexedImages();
+	}
+
+	/**
+	 * Returns whether consecutive paths painted the same way are combined into
+	 * one path. This is a shortcut for the setting.
+	 * @return true if paths are coalesced; false otherwise
+	 * @since 1.6.0
+	 */
+	public boolean isCoalescePaths() {
+		return _settings.isCoalescePaths();
+	}
+
+	/**
+	 * Returns a copy of the settings of this EPS document.
+	 * @return The settings of this EPS document
+	 * @since 1.6.0
+	 */
+	public EpsSettings getSettings() {
+		return new EpsSettings(_settings);
+	}
+
 	/**
 	 * Returns the title of this EPS document.
 	 * @return The title of this EPS document
@@ -384,23 +1080,24 @@ public class EpsDocument {
 	}
 
 	/**
-	 * Outputs the header of the EPS document to the specified Writer, complete
-	 * with bounding box, title, scale factors and page translation offsets.
-	 * @param writer The wrapped @Writer to channel the EPS content to
+	 * Outputs the header of the EPS document to the specified EPS sink,
+	 * complete with bounding box, title, scale factors and page translation
+	 * offsets.
+	 * @param sink The @EpsSink to channel the EPS content to
 	 * @throws IOException
-	 * @since 0.1
+	 * @since 1.6.0
 	 */
-	public synchronized void write(final Writer writer) throws IOException {
+	public synchronized void write(final EpsSink sink) throws IOException {
 		// Calculate the bounding box from the original mix/max values.
 		final double originalWidth = Math.abs(_maxX - _minX);
 		final double originalHeight = Math.abs(_maxY - _minY);
 
 		// Write the header directly to the EPS Document.
-		writeHeader(writer, originalWidth, originalHeight);
+		writeHeader(sink, originalWidth, originalHeight);
 
 		// If we are writing to memory, copy the in-memory buffer to the
-		// provided writer so that it can be saved to disc.
-		if(_stringWriter != null) {
+		// provided sink so that it can be saved to disc.
+		if(_memory != null) {
 			final float offsetX = (float) -_minX;
 			final float offsetY = (float) -_minY;
 
@@ -409,19 +1106,20 @@ public class EpsDocument {
 			// constructor. Also, this older approach does not set the scale.
 			// The translation factor may different due to differences in
 			// how, where, and when the header is placed on the page?
-			writer.write(offsetX + " " + offsetY + " translate\n");
+			final EpsLineBuilder line = new EpsLineBuilder();
+			line.number(offsetX).number(offsetY).token("translate").append('\n');
+			appendBaseMatrix(line);
+			line.writeTo(sink);
 
-			_writer.flush();
+			releaseOperations();
+			flushPaint();
+			_sink.flush();
 
-			final StringBuffer buffer = _stringWriter.getBuffer();
+			_memory.writeTo(sink);
 
-			for(int i = 0; i < buffer.length(); i++) {
-				writer.write(buffer.charAt(i));
-			}
+			writeFooter(sink);
 
-			writeFooter(writer);
-
-			writer.flush();
+			sink.flush();
 
 			// It is safer to return now that we are done, than to use an
 			// if-else clause and potentially have bugs or unintended side
@@ -447,58 +1145,99 @@ public class EpsDocument {
 		final float pageWidth = 8.5f * 72f;
 		final float pageHeight = 11f * 72f;
 		final float scaleFactor = (float) Math.min(pageWidth / originalWidth, pageHeight / originalHeight);
+		_scaleFactor = scaleFactor;
 		final float adjustedMinX = (float) Math.max(_minX * scaleFactor, 0d);
 		final float adjustedMinY = (float) Math.max(_minY * scaleFactor, 0d);
 		// final float adjustedMaxY = ( float ) Math.min( ( originalHeight *
 		// scaleFactor ), pageHeight );
 
 		// Write the scale factor and translation offsets for the overall page.
-		writer.write(scaleFactor + " " + scaleFactor + " scale\n");
-		writer.write(adjustedMinX + " " + (pageHeight - adjustedMinY) + " translate\n");
+		final EpsLineBuilder line = new EpsLineBuilder();
+		line.number(scaleFactor).number(scaleFactor).token("scale").append('\n');
+		line.number(adjustedMinX).number(pageHeight - adjustedMinY).token("translate").append('\n');
+		appendBaseMatrix(line);
+		line.writeTo(sink);
 
 		// In order to ensure that the header, scale factor, and translation
 		// offsets, appear before the content, we must flush the buffer now.
-		writer.flush();
+		sink.flush();
 	}
 
 	/**
-	 * Write the footer for the current EPS document.
+	 * Outputs the header of the EPS document to the specified Writer, complete
+	 * with bounding box, title, scale factors and page translation offsets.
 	 * @param writer The wrapped @Writer to channel the EPS content to
 	 * @throws IOException
 	 * @since 0.1
 	 */
-	public synchronized void writeFooter(final Writer writer) throws IOException {
+	public synchronized void write(final Writer writer) throws IOException {
+		write(EpsSink.forWriter(writer));
+	}
+
+	/**
+	 * Write the footer for the current EPS document to the specified EPS sink.
+	 * @param sink The @EpsSink to channel the EPS content to
+	 * @throws IOException
+	 * @since 1.6.0
+	 */
+	public synchronized void writeFooter(final EpsSink sink) throws IOException {
+		releaseOperations();
+		flushPaint();
+
+		// Terminate the compressed body, if any, so that the interpreter gets
+		// back to reading the file itself.
+		if(sink.isEncoding()) {
+			sink.endEncoding();
+			sink.write('\n');
+		}
+
 		// Close the PostScript encapsulation of the main content before writing
 		// the footer, using the PostScript "grestore" command.
-		writer.write("grestore\n");
+		sink.write("grestore\n");
 
 		// If we had set a clipping rectangle, that had its own PostScript
 		// encapsulation that needs its graphics context to be taken off the
 		// stack via the PostScript "grestore" command, then do so now.
 		if(isClipSet()) {
-			writer.write("grestore\n");
+			sink.write("grestore\n");
+		}
+
+		// Leave the dictionary of the prolog, which the setup had opened.
+		if(_settings.isCompactProlog()) {
+			sink.write("end\n");
 		}
 
 		// EPS Footers are mostly just "EOF" as the format is single-page only.
-		writer.write("showpage\n");
-		writer.write("\n");
-		writer.write("%%EOF");
+		sink.write("showpage\n");
+		sink.write("\n");
+		sink.write("%%EOF");
 
 		// Not strictly necessary, it does no harm to flush a writer "just in
 		// case". This protects against any writes done on deferred threads.
-		writer.flush();
+		sink.flush();
 	}
 
 	/**
-	 * Outputs the header of the EPS document to the specified Writer, complete
-	 * with bounding box, title, scale factors and page translation offsets.
+	 * Write the footer for the current EPS document.
 	 * @param writer The wrapped @Writer to channel the EPS content to
+	 * @throws IOException
+	 * @since 0.1
+	 */
+	public synchronized void writeFooter(final Writer writer) throws IOException {
+		writeFooter(EpsSink.forWriter(writer));
+	}
+
+	/**
+	 * Outputs the header of the EPS document to the specified EPS sink,
+	 * complete with bounding box, title, scale factors and page translation
+	 * offsets.
+	 * @param sink The @EpsSink to channel the EPS content to
 	 * @param width The width of the desired bounding box for the EPS content
 	 * @param height The height of the desired bounding box for the EPS content
 	 * @throws IOException
-	 * @since 0.1
+	 * @since 1.6.0
 	 */
-	public synchronized void writeHeader(final Writer writer, final double width, final double height) throws IOException {
+	public synchronized void writeHeader(final EpsSink sink, final double width, final double height) throws IOException {
 		// Grab the current date and time in ISO format so we can extract an
 		// ISO-compatible locale-sensitive date at the level of resolution we
 		// care about, which is probably just to the year/month/day.
@@ -510,24 +1249,75 @@ public class EpsDocument {
 		final int heightAdjusted = (int) Math.ceil(height);
 
 		// Write the header directly to the EPS Document.
-		writer.write("%!PS-Adobe-3.0 EPSF-3.0\n");
-		writer.write("%%Creator: jlibeps " + EpsGraphics2D.VERSION + ", https://sourceforge.net/projects/jlibeps/" + "\n");
-		writer.write("%%Title: " + _title + "\n");
-		writer.write("%%CreationDate: " + timeStamp + "\n");
-		writer.write("%%BoundingBox: 0 0 " + widthAdjusted + " " + heightAdjusted + "\n");
-		writer.write("%%DocumentData: Clean7Bit\n");
-		writer.write("%%LanguageLevel: 2\n");
-		writer.write("%%DocumentProcessColors: Black\n");
-		writer.write("%%ColorUsage: Color\n");
-		writer.write("%%Origin: 0 0\n");
-		writer.write("%%Pages: 1\n");
-		writer.write("%%Page: 1 1\n");
-		writer.write("%%EndComments\n\n");
+		sink.write("%!PS-Adobe-3.0 EPSF-3.0\n");
+		sink.write("%%Creator: jlibeps " + EpsGraphics2D.VERSION + ", https://sourceforge.net/projects/jlibeps/" + "\n");
+		sink.write("%%Title: " + _title + "\n");
+		sink.write("%%CreationDate: " + timeStamp + "\n");
+		sink.write("%%BoundingBox: 0 0 " + widthAdjusted + " " + heightAdjusted + "\n");
+		// A Writer cannot carry a compressed body nor any other binary data.
+		final EpsCompression compression = sink.isBinary() ? _settings.getCompression() : EpsCompression.NONE;
+		final boolean binary = sink.isBinary() && (_settings.isBinaryTokens() || compression != EpsCompression.NONE || _settings.getImageEncoding() ==
+				EpsImageEncoding.BINARY);
+		sink.write(binary ? "%%DocumentData: Binary\n" : "%%DocumentData: Clean7Bit\n");
+		final int languageLevel = Math.max(compression.getLanguageLevel(),
+				Math.max(_settings.getImageEncoding().getLanguageLevel(), _settings.getImageCompression().getLanguageLevel()));
+		sink.write("%%LanguageLevel: " + languageLevel + "\n");
+		sink.write("%%DocumentProcessColors: Black\n");
+		sink.write("%%ColorUsage: Color\n");
+		sink.write("%%Origin: 0 0\n");
+		sink.write("%%Pages: 1\n");
+		sink.write("%%Page: 1 1\n");
+		sink.write("%%EndComments\n\n");
+
+		// Bind the operator aliases in a dictionary of our own, so that the
+		// short names cannot clash with those of an including document.
+		if(_settings.isCompactProlog()) {
+			final EpsOperator[] operators = EpsOperator.values();
+			final EpsLineBuilder line = new EpsLineBuilder();
+			line.append("%%BeginProlog\n");
+			line.token("/jlibeps").integer(operators.length).token("dict def jlibeps begin\n");
+
+			for(final EpsOperator operator : operators) {
+				line.append('/').append(operator.getAlias()).token("{").append(operator.getName()).append('}').token("bind def\n");
+			}
+
+			line.append("end\n");
+			line.append("%%EndProlog\n");
+			line.append("%%BeginSetup\n");
+			line.append("jlibeps begin\n");
+			line.append("%%EndSetup\n");
+			line.writeTo(sink);
+		}
 
 		// Set up a global PostScript graphics context to wrap the overall
 		// document contents. We do this here, as this is also where we need to
 		// set up the page scaling and translation factors.
-		writer.write("gsave\n");
+		sink.write("gsave\n");
+
+		// Everything up to the footer is read back through a decode filter.
+		// The single new line after exec is consumed along with it, so the
+		// compressed bytes must follow right away.
+		if(compression != EpsCompression.NONE) {
+			sink.write("currentfile /" + compression.getFilterName() + " filter cvx exec\n");
+			sink.beginEncoding(compression);
+		}
+	}
+
+	/**
+	 * Outputs the header of the EPS document to the specified Writer, complete
+	 * with bounding box, title, scale factors and page translation offsets.
+	 * A Writer cannot carry binary data, so no decode filter is set up for the
+	 * body, even if compression is set, and the header declares 7-bit data.
+	 * @param writer The wrapped @Writer to channel the EPS content to
+	 * @param width The width of the desired bounding box for the EPS content
+	 * @param height The height of the desired bounding box for the EPS content
+	 * @throws IOException
+	 * @since 0.1
+	 */
+	public synchronized void writeHeader(final Writer writer, final double width, final double height) throws IOException {
+		final EpsSink sink = EpsSink.forWriter(writer);
+		writeHeader(sink, width, height);
+		sink.flush();
 	}
 
 }// class EpsDocument
@@ -43,8 +43,6 @@ import java.awt.geom.AffineTransform;
 import java.awt.geom.Arc2D;
 import java.awt.geom.Area;
 import java.awt.geom.Ellipse2D;
-import java.awt.geom.GeneralPath;
-import java.awt.geom.Line2D;
 import java.awt.geom.NoninvertibleTransformException;
 import java.awt.geom.PathIterator;
 import java.awt.geom.Point2D;
@@ -54,7 +52,6 @@ import java.awt.image.BufferedImage;
 import java.awt.image.BufferedImageOp;
 import java.awt.image.ColorModel;
 import java.awt.image.ImageObserver;
-import java.awt.image.PixelGrabber;
 import java.awt.image.RenderedImage;
 import java.awt.image.WritableRaster;
 import java.awt.image.renderable.RenderableImage;
@@ -64,11 +61,13 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.nio.channels.WritableByteChannel;
 import java.text.AttributedCharacterIterator;
 import java.text.AttributedString;
 import java.text.CharacterIterator;
 import java.util.Hashtable;
 import java.util.Map;
+import java.util.PrimitiveIterator;
 import net.sf.epsgraphics.ColorMode;
 
 /**
@@ -114,6 +113,44 @@ public class EpsGraphics2D extends Graphics2D {
 
 	private static final FontRenderContext FONT_RENDER_CONTEXT = new FontRenderContext(null, false, true);
 
+	/**
+	 * The coordinate transform of native transform mode, which must never be
+	 * modified.
+	 */
+	private static final AffineTransform IDENTITY = new AffineTransform();
+
+	/**
+	 * The maximum number of rectangles passed in one array to the rectangle
+	 * operators, so that building the array stays well within the 500 entries
+	 * that the operand stack of any interpreter can hold.
+	 */
+	private static final int MAX_RECTS_PER_ARRAY = 100;
+
+	/**
+	 * The number of rectangles per text line of an array, which keeps the
+	 * lines of the document shorter than the 255 characters required by DSC.
+	 */
+	private static final int RECTS_PER_LINE = 5;
+
+	/**
+	 * The size above which the image data composed so far is written to the
+	 * document.
+	 */
+	private static final int IMAGE_CHUNK_SIZE = 1 << 16;
+
+	/**
+	 * The number of colors per text line of the palette of an indexed image,
+	 * which keeps the lines as long as those of the image data.
+	 */
+	private static final int PALETTE_COLORS_PER_LINE = EpsImageEncoder.HEX_LINE_LENGTH / 6;
+
+	/**
+	 * The relative tolerance on the radii and the right angle of an ellipse in
+	 * device space, within which it is written as a circle. It only absorbs
+	 * the rounding of the sine and cosine of a rotation.
+	 */
+	private static final double CIRCLE_TOLERANCE = 1e-12;
+
 	/**
 	 * This method is called to indicate that a particular method is not
 	 * supported yet. The stack trace is printed to the standard output.
@@ -128,20 +165,6 @@ public class EpsGraphics2D extends Graphics2D {
 		e.printStackTrace();
 	}
 
-	/**
-	 * Returns a hex string that always contains two characters.
-	 * @since 0.1
-	 */
-	private static String toHexString(final int n) {
-		String result = Integer.toString(n, 16);
-
-		while(result.length() < 2) {
-			result = "0" + result;
-		}
-
-		return result;
-	}
-
 	private Color _color;
 	private Color _backgroundColor;
 	private Paint _paint;
@@ -149,6 +172,12 @@ public class EpsGraphics2D extends Graphics2D {
 	private BasicStroke _stroke;
 	private Font _font;
 	private Shape _clip;
+
+	/**
+	 * The bounds of the clip in device space, kept with it so that the
+	 * bounding box can be updated without allocating.
+	 */
+	private Rectangle2D _clipBounds;
 	private AffineTransform _clipTransform;
 	private AffineTransform _transform;
 	private boolean _accurateTextMode;
@@ -156,6 +185,131 @@ public class EpsGraphics2D extends Graphics2D {
 
 	private EpsDocument _document;
 
+	/**
+	 * The reusable buffer for composing the content lines of this context, so
+	 * that emitting coordinates does not allocate Strings. It is created by the
+	 * document, which configures it to match its settings.
+	 */
+	private EpsLineBuilder _line;
+
+	/**
+	 * The encoder of the path segments of this context, which keeps track of
+	 * the current point to write relative segments where they are shorter.
+	 */
+	private EpsPathEncoder _path;
+
+	/**
+	 * Whether the transform is written as the PostScript matrix, rather than
+	 * being applied to the coordinates. This is the case in native transform
+	 * mode, unless the transform cannot be inverted.
+	 */
+	private boolean _nativeTransforms;
+
+	/**
+	 * The number of document units per unit of the written coordinates that
+	 * the coordinate precision of the line builders is set for. It follows the
+	 * scale of the transform in native transform mode, and is 1 otherwise.
+	 */
+	private double _coordinateScale = 1d;
+
+	/**
+	 * The reusable buffer of the segment coordinates of the shapes drawn as
+	 * paths.
+	 */
+	private final float[] _coords = new float[6];
+
+	/**
+	 * The bounds of the vertices appended since the last call to
+	 * beginVertices, in device space, as minimum x, minimum y, maximum x and
+	 * maximum y.
+	 */
+	private final double[] _vertexBounds = new double[4];
+
+	/**
+	 * The number of vertices written since the last call to beginVertices.
+	 */
+	private int _vertexCount;
+
+	/**
+	 * The reduction applied to the dense polylines of this context, and its
+	 * tolerance in points of the output page.
+	 */
+	private EpsDecimation _decimation = EpsDecimation.NONE;
+	private double _decimationTolerance;
+
+	/**
+	 * The decimator that applies the reduction, created on first use.
+	 */
+	private EpsDecimator _decimator;
+
+	/**
+	 * How the primitives too small to be seen are handled, and the size below
+	 * which they are, in points of the output page.
+	 */
+	private EpsDetailPolicy _detailPolicy = EpsDetailPolicy.KEEP;
+	private double _detailThreshold;
+
+	/**
+	 * Whether the primitives that are entirely outside of the clip or of the
+	 * declared box of the document are skipped, and whether the polylines are
+	 * trimmed to their visible segments.
+	 */
+	private boolean _cullInvisible;
+	private boolean _trimPolylines;
+
+	/**
+	 * The encoding and the compression of the image data, or null to use
+	 * those of the document.
+	 */
+	private EpsImageEncoding _imageEncoding;
+	private EpsImageCompression _imageCompression;
+
+	/**
+	 * How images are reduced to black and white pixels, or null to use the
+	 * dithering of the document.
+	 */
+	private EpsDithering _dithering;
+
+	/**
+	 * The reusable bounds of an area mapped to device space, and of the
+	 * visible area of the page, as minimum x, minimum y, maximum x and
+	 * maximum y.
+	 */
+	private final double[] _deviceBounds = new double[4];
+	private final double[] _windowBounds = new double[4];
+
+	/**
+	 * The state of the trimming of the current polyline: whether it is
+	 * trimmed, the last vertex if any and whether it has been written, and
+	 * the number of vertices left out so far.
+	 */
+	private boolean _trimming;
+	private boolean _trimStarted;
+	private double _trimX;
+	private double _trimY;
+	private boolean _trimWritten;
+	private long _trimmedVertices;
+
+	/**
+	 * The reusable buffer for composing the body of the procedures that this
+	 * context defines in the document, created on first use.
+	 */
+	private EpsLineBuilder _procedure;
+
+	/**
+	 * The reusable transform that moves a cached path to its first point.
+	 */
+	private final AffineTransform _anchorTransform = new AffineTransform();
+
+	/**
+	 * The painting operations that this context holds back to reorder them,
+	 * created on first use, and whether the lines are currently recorded into
+	 * it rather than written.
+	 */
+	private EpsReorderBuffer _reorder;
+	private boolean _recording;
+	private final double[] _operationBounds = new double[4];
+
 	/**
 	 * Default constructor, for in-memory usage.
 	 * Constructs a new EPS document that is initially empty and can be drawn on
@@ -177,13 +331,27 @@ public class EpsGraphics2D extends Graphics2D {
 	 */
 	private EpsGraphics2D(final EpsGraphics2D epsGraphics) {
 		_document = epsGraphics._document;
+		_line = _document.createLineBuilder();
+		_path = _document.createPathEncoder();
+		_nativeTransforms = _document.isNativeTransforms();
 
 		_backgroundColor = epsGraphics._backgroundColor;
 		_clip = epsGraphics._clip;
+		_clipBounds = epsGraphics._clipBounds;
 		_clipTransform = (AffineTransform) epsGraphics._clipTransform.clone();
 		_transform = (AffineTransform) epsGraphics._transform.clone();
+		updateNativeTransform();
 		_accurateTextMode = epsGraphics._accurateTextMode;
 		_colorMode = epsGraphics._colorMode;
+		_decimation = epsGraphics._decimation;
+		_decimationTolerance = epsGraphics._decimationTolerance;
+		_detailPolicy = epsGraphics._detailPolicy;
+		_detailThreshold = epsGraphics._detailThreshold;
+		_cullInvisible = epsGraphics._cullInvisible;
+		_trimPolylines = epsGraphics._trimPolylines;
+		_imageEncoding = epsGraphics._imageEncoding;
+		_imageCompression = epsGraphics._imageCompression;
+		_dithering = epsGraphics._dithering;
 
 		setStroke(epsGraphics.getStroke());
 		setColor(epsGraphics.getColor());
@@ -209,6 +377,9 @@ public class EpsGraphics2D extends Graphics2D {
 	@Deprecated
 	public EpsGraphics2D(final String title) {
 		_document = new EpsDocument(title);
+		_line = _document.createLineBuilder();
+		_path = _document.createPathEncoder();
+		_nativeTransforms = _document.isNativeTransforms();
 
 		_colorMode = ColorMode.defaultValue();
 
@@ -287,98 +458,1672 @@ public class EpsGraphics2D extends Graphics2D {
 	 * @throws IOException
 	 * @since 0.1
 	 */
-	@Deprecated
-	public EpsGraphics2D(final String title, final OutputStream outputStream, final double minX, final double minY, final double maxX, final double maxY,
-						 final ColorMode colorMode) throws IOException {
-		_document = new EpsDocument(title, outputStream, minX, minY, maxX, maxY);
+	@Deprecated
+	public EpsGraphics2D(final String title, final OutputStream outputStream, final double minX, final double minY, final double maxX, final double maxY,
+						 final ColorMode colorMode) throws IOException {
+		_document = new EpsDocument(title, outputStream, minX, minY, maxX, maxY);
+		_line = _document.createLineBuilder();
+		_path = _document.createPathEncoder();
+		_nativeTransforms = _document.isNativeTransforms();
+
+		_colorMode = colorMode;
+
+		setDefaults();
+	}
+
+	/**
+	 * Partially qualified constructor.
+	 * Constructs a new EPS document that is initially empty and can be drawn on
+	 * like a Graphics2D object. The EPS document is written to the writer as it
+	 * goes, which reduces memory usage. The bounding box of the document is
+	 * fixed and specified at construction time by minX, minY, maxX, maxY. The
+	 * writer is flushed when the finish() method is called.
+	 * @param writer The wrapped @Writer to channel the EPS content to
+	 * @param title The title of the EPS Document
+	 * @param minX The x-coordinate of the EPS content top left corner
+	 * @param minY The y-coordinate of the EPS content top left corner
+	 * @param maxX The x-coordinate of the EPS content bottom right corner
+	 * @param maxY The y-coordinate of the EPS content bottom right corner
+	 * @param colorMode The color mode to be used for all EPS graphics
+	 * @throws IOException
+	 * @since 1.1.5
+	 */
+	public EpsGraphics2D(final Writer writer, final String title, final double minX, final double minY, final double maxX, final double maxY, final ColorMode
+		colorMode) throws IOException {
+		_document = new EpsDocument(writer, title, minX, minY, maxX, maxY);
+		_line = _document.createLineBuilder();
+		_path = _document.createPathEncoder();
+		_nativeTransforms = _document.isNativeTransforms();
+
+		_colorMode = colorMode;
+
+		setDefaults();
+	}
+
+	/**
+	 * Partially qualified constructor.
+	 * Constructs a new EPS document that is initially empty and can be drawn on
+	 * like a Graphics2D object. The EPS document is written to the output
+	 * stream as it goes, as ASCII bytes without any charset encoding. The
+	 * bounding box of the document is fixed and specified at construction time
+	 * by minX, minY, maxX, maxY. The output stream is flushed when the finish()
+	 * method is called, but it is left to the client to close it.
+	 * @param outputStream The @OutputStream to channel the EPS content to
+	 * @param title The title of the EPS Document
+	 * @param minX The x-coordinate of the EPS content top left corner
+	 * @param minY The y-coordinate of the EPS content top left corner
+	 * @param maxX The x-coordinate of the EPS content bottom right corner
+	 * @param maxY The y-coordinate of the EPS content bottom right corner
+	 * @param colorMode The color mode to be used for all EPS graphics
+	 * @throws IOException
+	 * @since 1.6.0
+	 */
+	public EpsGraphics2D(final OutputStream outputStream, final String title, final double minX, final double minY, final double maxX, final double maxY,
+						 final ColorMode colorMode) throws IOException {
+		_document = new EpsDocument(outputStream, title, minX, minY, maxX, maxY);
+		_line = _document.createLineBuilder();
+		_path = _document.createPathEncoder();
+		_nativeTransforms = _document.isNativeTransforms();
+
+		_colorMode = colorMode;
+
+		setDefaults();
+	}
+
+	/**
+	 * Partially qualified constructor.
+	 * Constructs a new EPS document that is initially empty and can be drawn on
+	 * like a Graphics2D object. The EPS document is written to the channel as
+	 * it goes, as ASCII bytes without any charset encoding. The bounding box of
+	 * the document is fixed and specified at construction time by minX, minY,
+	 * maxX, maxY. The buffered content is written to the channel when the
+	 * finish() method is called, but it is left to the client to close it.
+	 * @param channel The @WritableByteChannel to channel the EPS content to
+	 * @param title The title of the EPS Document
+	 * @param minX The x-coordinate of the EPS content top left corner
+	 * @param minY The y-coordinate of the EPS content top left corner
+	 * @param maxX The x-coordinate of the EPS content bottom right corner
+	 * @param maxY The y-coordinate of the EPS content bottom right corner
+	 * @param colorMode The color mode to be used for all EPS graphics
+	 * @throws IOException
+	 * @since 1.6.0
+	 */
+	public EpsGraphics2D(final WritableByteChannel channel, final String title, final double minX, final double minY, final double maxX, final double maxY,
+						 final ColorMode colorMode) throws IOException {
+		_document = new EpsDocument(channel, title, minX, minY, maxX, maxY);
+		_line = _document.createLineBuilder();
+		_path = _document.createPathEncoder();
+		_nativeTransforms = _document.isNativeTransforms();
+
+		_colorMode = colorMode;
+
+		setDefaults();
+	}
+
+	/**
+	 * Fully qualified constructor.
+	 * Constructs a new EpsGraphics2D drawing on an existing EPS document, which
+	 * allows the client to choose the output target and the @EpsSettings of
+	 * the document. The document is flushed when the finish() method is called.
+	 * @param document The @EpsDocument to draw on
+	 * @param colorMode The color mode to be used for all EPS graphics
+	 * @since 1.6.0
+	 */
+	public EpsGraphics2D(final EpsDocument document, final ColorMode colorMode) {
+		_document = document;
+		_line = _document.createLineBuilder();
+		_path = _document.createPathEncoder();
+		_nativeTransforms = _document.isNativeTransforms();
+
+		_colorMode = colorMode;
+
+		setDefaults();
+	}
+
+	/**
+	 * Adds rendering hints. These are ignored by EpsGraphics2D.
+	 * @since 0.1
+	 */
+	@Override
+	public void addRenderingHints(final Map<?, ?> hints) {
+		// Do nothing.
+	}
+
+	/**
+	 * Appends a line to the EpsDocument.
+	 * @param line The new content line to write to the EPS document
+	 * @see org.sourceforge.jlibeps.epsgraphics.EpsDocument
+	 * @since 0.1
+	 */
+	private void append(final String line) {
+		try {
+			_document.append(this, line);
+		}catch(final Exception e) {
+			// Re-cast the exception using library encapsulation, but let the
+			// client choose whether to print the stack trace or not.
+			throw new EpsException(OUTPUT_ERROR_MSG + e.getLocalizedMessage());
+		}
+	}
+
+	/**
+	 * Appends a grestore command to the EpsDocument, and reinstates the
+	 * graphics state that the interpreter saved with the matching gsave.
+	 * @since 1.6.0
+	 */
+	private void appendGrestore() {
+		appendOperator(EpsOperator.GRESTORE);
+		_document.getGraphicsState().restore();
+	}
+
+	/**
+	 * Appends a gsave command to the EpsDocument, and saves the graphics state
+	 * that the interpreter will reinstate with the matching grestore.
+	 * @since 1.6.0
+	 */
+	private void appendGsave() {
+		appendOperator(EpsOperator.GSAVE);
+		_document.getGraphicsState().save();
+	}
+
+	/**
+	 * Appends the Indexed color space of an image and the start of its image
+	 * dictionary, up to the DataSource key, as the five-operand form of the
+	 * image operator only paints in gray.
+	 * @param encoder The encoder of the indexed image
+	 * @param width The number of pixels in a row of the image
+	 * @param height The number of rows of the image
+	 * @param m The image matrix
+	 * @since 1.6.0
+	 */
+	private void appendIndexedImage(final EpsImageEncoder encoder, final int width, final int height, final double[] m) {
+		final int[] palette = encoder.getPalette();
+		final int bits = encoder.getBitsPerSample();
+		line().token("[/Indexed /DeviceRGB").integer(palette.length - 1).token("<");
+		appendLine();
+
+		for(int i = 0; i < palette.length; i += PALETTE_COLORS_PER_LINE) {
+			final EpsLineBuilder line = line();
+
+			for(int j = i, end = Math.min(palette.length, i + PALETTE_COLORS_PER_LINE); j < end; j++) {
+				line.appendHex(palette[j] >> 16 & 0xff).appendHex(palette[j] >> 8 & 0xff).appendHex(palette[j] & 0xff);
+			}
+
+			appendLine();
+		}
+
+		line().token(">] setcolorspace");
+		appendLine();
+		line().token("<< /ImageType 1 /Width").integer(width).token("/Height").integer(height).token("/BitsPerComponent").integer(bits).token("/Decode [0")
+				.integer((1 << bits) - 1).append(']');
+		appendLine();
+		final EpsLineBuilder matrixLine = line().token("/ImageMatrix [");
+
+		for(final double element : m) {
+			matrixLine.number(element);
+		}
+
+		matrixLine.append(']').token("/DataSource");
+		appendLine();
+	}
+
+	/**
+	 * Appends the image operator, along with its data source operand, and the
+	 * image data that follows it to the @EpsDocument. The data is written
+	 * in large chunks rather than line by line, as it is encoded, unless its
+	 * length has to be known beforehand.
+	 * @param encoder The encoder of the image
+	 * @param height The number of rows of the image
+	 * @param operator The image operator, with the operands that follow the
+	 * data source
+	 * @since 1.6.0
+	 */
+	private void appendImage(final EpsImageEncoder encoder, final int height, final String operator) {
+		final EpsLineBuilder data = new EpsLineBuilder();
+		final boolean buffered = encoder.isLengthRequired();
+		int lines = 0;
+
+		try {
+			if(buffered) {
+				for(int y = 0; y < height; y++) {
+					lines += encoder.encodeRow(y, data);
+				}
+
+				lines += encoder.end(data);
+			}
+
+			encoder.writeDataSource(line(), data.length());
+			appendLine();
+			append(operator);
+
+			if(!buffered) {
+				for(int y = 0; y < height; y++) {
+					lines += encoder.encodeRow(y, data);
+
+					if(data.length() >= IMAGE_CHUNK_SIZE) {
+						_document.append(this, data, 0, data.length(), lines);
+						data.clear();
+						lines = 0;
+					}
+				}
+
+				lines += encoder.end(data);
+			}
+
+			_document.append(this, data, 0, data.length(), lines);
+		}catch(final IOException e) {
+			// Re-cast the exception using library encapsulation, but let the
+			// client choose whether to print the stack trace or not.
+			throw new EpsException(OUTPUT_ERROR_MSG + e.getLocalizedMessage());
+		}
+	}
+
+	/**
+	 * Appends the line composed in the line builder of this context to the
+	 * EpsDocument.
+	 * @see #line()
+	 * @see org.sourceforge.jlibeps.epsgraphics.EpsDocument
+	 * @since 1.6.0
+	 */
+	private void appendLine() {
+		if(_recording) {
+			_reorder.append(_line);
+			return;
+		}
+
+		try {
+			_document.append(this, _line);
+		}catch(final Exception e) {
+			// Re-cast the exception using library encapsulation, but let the
+			// client choose whether to print the stack trace or not.
+			throw new EpsException(OUTPUT_ERROR_MSG + e.getLocalizedMessage());
+		}
+	}
+
+	/**
+	 * Appends the current color to the @EpsDocument, unless the interpreter
+	 * already uses it, as the color is only emitted when something is painted.
+	 * @see org.sourceforge.jlibeps.epsgraphics.EpsGraphicsState
+	 * @since 1.6.0
+	 */
+	private void appendColor() {
+		final ColorMode colorMode = getColorMode();
+
+		if(!_document.getGraphicsState().setColor(_color, colorMode)) {
+			return;
+		}
+
+		switch(colorMode) {
+			case BLACK_AND_WHITE:
+				float bwValue = 0;
+
+				if(_color.getRed() + _color.getGreen() + _color.getBlue() > 255 * 1.5 - 1) {
+					bwValue = 1;
+				}
+
+				line().number(bwValue).operator(EpsOperator.SETGRAY);
+				appendLine();
+
+				break;
+			case GRAYSCALE:
+				final float grayValue = (_color.getRed() + _color.getGreen() + _color.getBlue()) / (3 * 255f);
+
+				line().number(grayValue).operator(EpsOperator.SETGRAY);
+				appendLine();
+
+				break;
+			case COLOR_RGB:
+				line().number(_color.getRed() / 255f).number(_color.getGreen() / 255f).number(_color.getBlue() / 255f).operator(EpsOperator.SETRGBCOLOR);
+				appendLine();
+
+				break;
+			case COLOR_CMYK:
+				if(Color.BLACK.equals(_color)) {
+					line().integer(0).integer(0).integer(0).integer(1).operator(EpsOperator.SETCMYKCOLOR);
+					appendLine();
+				}else {
+					final double c = 1 - _color.getRed() / 255f;
+					final double m = 1 - _color.getGreen() / 255f;
+					final double y = 1 - _color.getBlue() / 255f;
+					final double k = Math.min(Math.min(c, y), m);
+
+					line().number((c - k) / (1 - k)).number((m - k) / (1 - k)).number((y - k) / (1 - k)).number(k).operator(EpsOperator.SETCMYKCOLOR);
+					appendLine();
+				}
+
+				break;
+			default:
+				break;
+		}
+	}
+
+	/**
+	 * Appends the current font to the @EpsDocument, unless the interpreter
+	 * already uses it, as the font is only emitted when text is shown.
+	 * @see org.sourceforge.jlibeps.epsgraphics.EpsGraphicsState
+	 * @since 1.6.0
+	 */
+	private void appendFont() {
+		if(_document.getGraphicsState().setFont(_font)) {
+			line().append('/').append(_font.getPSName()).token("findfont").integer(_font.getSize()).token("scalefont setfont");
+			appendLine();
+		}
+	}
+
+	/**
+	 * Appends the commands that bring the interpreter matrix up to date with
+	 * the transform, in native transform mode. The base matrix of the document
+	 * is reinstated, and the transform is concatenated to it unless it is the
+	 * identity. The transform is conjugated by the flip of the y axis, as the
+	 * coordinates are still written with their y negated.
+	 * @since 1.6.0
+	 */
+	private void appendMatrix() {
+		if(!_document.isNativeTransforms()) {
+			return;
+		}
+
+		// A transform that cannot be inverted is applied to the coordinates,
+		// which are then written under the base matrix.
+		final AffineTransform transform = _nativeTransforms ? _transform : IDENTITY;
+		final double m00 = transform.getScaleX();
+		final double m10 = -transform.getShearY();
+		final double m01 = -transform.getShearX();
+		final double m11 = transform.getScaleY();
+		final double m02 = transform.getTranslateX();
+		final double m12 = -transform.getTranslateY();
+
+		if(_document.getGraphicsState().setMatrix(m00, m10, m01, m11, m02, m12)) {
+			final EpsLineBuilder line = line().token(EpsDocument.BASE_MATRIX_NAME).token("setmatrix");
+
+			if(!transform.isIdentity()) {
+				line.token("[").number(m00).number(m10).number(m01).number(m11).number(m02).number(m12).append(']').token("concat");
+			}
+
+			appendLine();
+		}
+	}
+
+	/**
+	 * Appends a line made of a single operator to the EpsDocument.
+	 * @param operator The operator to append
+	 * @since 1.6.0
+	 */
+	private void appendOperator(final EpsOperator operator) {
+		line().operator(operator);
+		appendLine();
+	}
+
+	/**
+	 * Starts a painting operation. If operations are reordered, the lines of
+	 * the operation are recorded until endOperation, along with the graphics
+	 * state that they need, which is only appended when they are written.
+	 * Otherwise the graphics state is appended right away.
+	 * @param action The painting action, as FILL, STROKE or CLIP
+	 * @see #endOperation(EpsOperator, double, double, double, double)
+	 * @since 1.6.0
+	 */
+	private void beginOperation(final EpsOperator action) {
+		if(action == EpsOperator.CLIP || _document.getReorderWindow() <= 0) {
+			appendPaintState(action);
+			return;
+		}
+
+		if(_reorder == null) {
+			_reorder = new EpsReorderBuffer();
+		}
+
+		_reorder.begin();
+		_recording = true;
+	}
+
+	/**
+	 * Ends a painting operation started by beginOperation. If its lines have
+	 * been recorded, the operation is held back with its bounds, widened by
+	 * the extent of the stroke and by a point of the output page, so that
+	 * operations that merely touch keep their order. The held operations are
+	 * written once the window is full.
+	 * @param action The painting action, as FILL, STROKE or CLIP
+	 * @since 1.6.0
+	 */
+	private void endOperation(final EpsOperator action, final double minX, final double minY, final double maxX, final double maxY) {
+		if(!_recording) {
+			return;
+		}
+
+		_recording = false;
+
+		final double scaleFactor = _document.getScaleFactor();
+		final double margin = (action == EpsOperator.STROKE ? getDeviceStrokeMargin() : 0d) + (scaleFactor > 0d ? 1d / scaleFactor : 1d);
+		mapBounds(minX, minY, maxX, maxY);
+		_deviceBounds[0] -= margin;
+		_deviceBounds[1] -= margin;
+		_deviceBounds[2] += margin;
+		_deviceBounds[3] += margin;
+		_operationBounds[0] = minX;
+		_operationBounds[1] = minY;
+		_operationBounds[2] = maxX;
+		_operationBounds[3] = maxY;
+
+		_reorder.end(action, _color, action == EpsOperator.STROKE ? _stroke : null, _nativeTransforms ? _transform : null, _operationBounds,
+				_deviceBounds);
+		_document.holdOperations(this);
+
+		if(_reorder.size() >= _document.getReorderWindow() || _reorder.getBodyLength() >= EpsReorderBuffer.BODY_LIMIT) {
+			_document.releaseOperations();
+		}
+	}
+
+	/**
+	 * Writes the painting operations held back by this context, in the order
+	 * that changes the graphics state the least while keeping the overlapping
+	 * operations in order. Each operation is written with the graphics state
+	 * that it was recorded with. This is called back by the document before
+	 * anything else is written.
+	 * @see org.sourceforge.jlibeps.epsgraphics.EpsDocument#releaseOperations()
+	 * @since 1.6.0
+	 */
+	void writeOperations() {
+		if(_reorder == null || _reorder.size() == 0) {
+			return;
+		}
+
+		// The operations may be written while another one is being recorded,
+		// when the latter defines a procedure.
+		final boolean recording = _recording;
+		final Color color = _color;
+		final BasicStroke stroke = _stroke;
+		final AffineTransform transform = _transform;
+		_recording = false;
+
+		try {
+			final int[] order = _reorder.computeOrder();
+
+			for(int k = 0, count = _reorder.size(); k < count; k++) {
+				final int operation = order[k];
+				final EpsOperator action = _reorder.getAction(operation);
+				final boolean path = _reorder.isPath(operation);
+
+				_color = _reorder.getColor(operation);
+
+				if(_reorder.getStroke(operation) != null) {
+					_stroke = _reorder.getStroke(operation);
+				}
+
+				if(_reorder.getTransform(operation) != null) {
+					_transform = _reorder.getTransform(operation);
+				}
+
+				appendPaintState(action);
+
+				if(path) {
+					beginPaint(action, _reorder.getBound(operation, 0), _reorder.getBound(operation, 1), _reorder.getBound(operation, 2),
+							_reorder.getBound(operation, 3));
+				}
+
+				try {
+					_document.append(this, _reorder.getBody(), _reorder.getOffset(operation), _reorder.getLength(operation), _reorder.getLineCount(operation));
+				}catch(final IOException e) {
+					// Re-cast the exception using library encapsulation, but let the
+					// client choose whether to print the stack trace or not.
+					throw new EpsException(OUTPUT_ERROR_MSG + e.getLocalizedMessage());
+				}
+
+				if(path) {
+					endPaint(action, false);
+				}
+			}
+		}finally {
+			_color = color;
+			_stroke = stroke;
+			_transform = transform;
+			_recording = recording;
+			_reorder.clear();
+		}
+	}
+
+	/**
+	 * Starts the path of a shape to be painted. If paths are coalesced, the
+	 * path joins the previous one when the document allows it, and otherwise
+	 * starts with a newpath command.
+	 * @param action The painting action, as FILL, STROKE or CLIP
+	 * @see org.sourceforge.jlibeps.epsgraphics.EpsDocument#continuePaint(EpsOperator, double, double, double, double)
+	 * @since 1.6.0
+	 */
+	private void beginPaint(final EpsOperator action, final double minX, final double minY, final double maxX, final double maxY) {
+		if(_recording) {
+			_reorder.markPath();
+			return;
+		}
+
+		if(action != EpsOperator.CLIP && _document.isCoalescePaths()) {
+			// Activate this context first, as replaying its clip must not
+			// join the path.
+			_document.activate(this);
+
+			try {
+				if(_document.continuePaint(action, minX, minY, maxX, maxY)) {
+					return;
+				}
+			}catch(final IOException e) {
+				// Re-cast the exception using library encapsulation, but let the
+				// client choose whether to print the stack trace or not.
+				throw new EpsException(OUTPUT_ERROR_MSG + e.getLocalizedMessage());
+			}
+		}
+
+		appendOperator(EpsOperator.NEWPATH);
+	}
+
+	/**
+	 * Ends the path of a shape started by beginPaint, and paints it, unless
+	 * paths are coalesced, in which case it is painted along with the paths
+	 * that join it.
+	 * @param action The painting action, as FILL, STROKE or CLIP
+	 * @param newPath Whether a newpath command follows the painting operator
+	 * @since 1.6.0
+	 */
+	private void endPaint(final EpsOperator action, final boolean newPath) {
+		if(_recording) {
+			return;
+		}
+
+		if(action != EpsOperator.CLIP && _document.isCoalescePaths()) {
+			_document.deferPaint(action);
+			return;
+		}
+
+		appendOperator(action);
+
+		if(newPath) {
+			appendOperator(EpsOperator.NEWPATH);
+		}
+	}
+
+	/**
+	 * Appends a stroke to the @EpsDocument.
+	 * This function only operates @BasicStroke objects (or subclasses
+	 * of @BasicStroke); otherwise it is a no-op. Only the parameters that
+	 * differ from the current ones of the interpreter are emitted.
+	 * @see java.awt.BasicStroke
+	 * @see org.sourceforge.jlibeps.epsgraphics.EpsGraphicsState
+	 * @since 0.1
+	 */
+	public void appendStroke() {
+		final EpsGraphicsState state = _document.getGraphicsState();
+
+		if(state.isStrokeCurrent(_stroke)) {
+			return;
+		}
+
+		if(state.setLineWidth(_stroke.getLineWidth())) {
+			line().number(_stroke.getLineWidth()).operator(EpsOperator.SETLINEWIDTH);
+			appendLine();
+		}
+
+		float miterLimit = _stroke.getMiterLimit();
+
+		if(miterLimit < 1f) {
+			miterLimit = 1;
+		}
+
+		if(state.setMiterLimit(miterLimit)) {
+			line().number(miterLimit).operator(EpsOperator.SETMITERLIMIT);
+			appendLine();
+		}
+
+		if(state.setLineJoin(_stroke.getLineJoin())) {
+			line().integer(_stroke.getLineJoin()).operator(EpsOperator.SETLINEJOIN);
+			appendLine();
+		}
+
+		if(state.setLineCap(_stroke.getEndCap())) {
+			line().integer(_stroke.getEndCap()).operator(EpsOperator.SETLINECAP);
+			appendLine();
+		}
+
+		final float[] dashArray = _stroke.getDashArray();
+
+		if(state.setDash(dashArray, _stroke.getDashPhase())) {
+			final EpsLineBuilder dashes = line().append('[');
+
+			if(dashArray != null) {
+				for(final float element : dashArray) {
+					dashes.number(element);
+				}
+			}
+
+			dashes.append(']').number(_stroke.getDashPhase()).operator(EpsOperator.SETDASH);
+			appendLine();
+		}
+
+		state.setStroke(_stroke);
+	}
+
+	/**
+	 * Appends the commands that bring the interpreter stroke and color up to
+	 * date before painting. The stroke only matters when stroking, and neither
+	 * matters when clipping. Only their changes are actually appended.
+	 * @param action The painting action that follows
+	 * @since 1.6.0
+	 */
+	private void appendPaintState(final EpsOperator action) {
+		appendMatrix();
+
+		if(action == EpsOperator.STROKE) {
+			appendStroke();
+		}
+
+		if(action != EpsOperator.CLIP) {
+			appendColor();
+		}
+	}
+
+	/**
+	 * Appends the commands required to paint an elliptical arc with the arc or
+	 * arcn operators, which the interpreter draws exactly, instead of the
+	 * Bezier curves of its path. A circle is written as a single arc, and an
+	 * ellipse as an arc of the unit circle drawn under a local scale, which is
+	 * undone before painting so that strokes keep their width. A circle stays
+	 * a circle under any rotation and uniform scale, but an ellipse is only
+	 * written this way when the current transform keeps its axes aligned with
+	 * those of the page.
+	 * The frame and angles follow the conventions of Arc2D, whose angles are
+	 * relative to the frame so that 45 degrees falls on its upper right corner.
+	 * @param type The closure of the arc, as OPEN, CHORD or PIE of Arc2D
+	 * @param action The painting action, as FILL, STROKE or CLIP
+	 * @return true if the arc has been appended; false if it must be drawn as
+	 * a path
+	 * @since 1.6.0
+	 */
+	private boolean appendArc(final double x, final double y, final double width, final double height, final double start, final double extent, final int type,
+			final EpsOperator action) {
+		// Like the path of an Arc2D, a negative size means no arc.
+		if(!(width >= 0d && height >= 0d)) {
+			return true;
+		}
+
+		// The ellipse is a circle in device space if the transform maps its
+		// radii to perpendicular vectors of the same length.
+		final AffineTransform transform = getCoordinateTransform();
+		final double m00 = transform.getScaleX();
+		final double m10 = transform.getShearY();
+		final double m01 = transform.getShearX();
+		final double m11 = transform.getScaleY();
+		final double radius = Math.hypot(m00, m10) * width / 2d;
+		final double otherRadius = Math.hypot(m01, m11) * height / 2d;
+		final boolean circle = Math.abs(radius - otherRadius) <= CIRCLE_TOLERANCE * radius && Math.abs(m00 * m01 + m10 * m11) * width * height / 4d <=
+				CIRCLE_TOLERANCE * radius * otherRadius;
+
+		if(!circle && !isRectilinear() || radius == 0d || otherRadius == 0d || Double.isNaN(start) || Double.isNaN(extent)) {
+			return false;
+		}
+
+		// The center of the ellipse and the signed radii along its axes in
+		// PostScript space, where the y axis points up, and the arc itself.
+		// A circle needs no local scale: the rotation and flips of the
+		// transform only have to be applied to its angles.
+		final double centerX = m00 * (x + width / 2d) + m01 * (y + height / 2d) + transform.getTranslateX();
+		final double centerY = -(m10 * (x + width / 2d) + m11 * (y + height / 2d) + transform.getTranslateY());
+		final double sweep = Math.max(-360d, Math.min(360d, extent));
+		final boolean full = Math.abs(sweep) >= 360d;
+		final double radiusX;
+		final double radiusY;
+		final double arcStart;
+		final double arcSweep;
+
+		if(circle) {
+			final double rotation = Math.toDegrees(Math.atan2(m10, m00));
+			final boolean flip = m00 * m11 - m01 * m10 < 0d;
+			radiusX = radius;
+			radiusY = radius;
+			arcStart = flip ? -start - rotation : start - rotation;
+			arcSweep = flip ? -sweep : sweep;
+		}else {
+			radiusX = m00 * width / 2d;
+			radiusY = m11 * height / 2d;
+			arcStart = start;
+			arcSweep = sweep;
+		}
+
+		if(action != EpsOperator.CLIP) {
+			// The extremes of the cosine and sine over the sweep bound the arc on
+			// the unit circle. They are reached at its ends or on the axes.
+			double cosMin = -1d;
+			double cosMax = 1d;
+			double sinMin = -1d;
+			double sinMax = 1d;
+
+			if(!full) {
+				final double from = Math.min(arcStart, arcStart + arcSweep);
+				final double to = Math.max(arcStart, arcStart + arcSweep);
+				cosMin = Math.min(Math.cos(Math.toRadians(from)), Math.cos(Math.toRadians(to)));
+				cosMax = Math.max(Math.cos(Math.toRadians(from)), Math.cos(Math.toRadians(to)));
+				sinMin = Math.min(Math.sin(Math.toRadians(from)), Math.sin(Math.toRadians(to)));
+				sinMax = Math.max(Math.sin(Math.toRadians(from)), Math.sin(Math.toRadians(to)));
+
+				for(double axis = Math.ceil(from / 90d) * 90d; axis <= to; axis += 90d) {
+					switch(((int) Math.round(axis / 90d) % 4 + 4) % 4) {
+						case 0:
+							cosMax = 1d;
+							break;
+						case 1:
+							sinMax = 1d;
+							break;
+						case 2:
+							cosMin = -1d;
+							break;
+						default:
+							sinMin = -1d;
+							break;
+					}
+				}
+
+				if(type == Arc2D.PIE) {
+					cosMin = Math.min(cosMin, 0d);
+					cosMax = Math.max(cosMax, 0d);
+					sinMin = Math.min(sinMin, 0d);
+					sinMax = Math.max(sinMax, 0d);
+				}
+			}
+
+			final double x1 = centerX + radiusX * cosMin;
+			final double x2 = centerX + radiusX * cosMax;
+			final double y1 = -(centerY + radiusY * sinMin);
+			final double y2 = -(centerY + radiusY * sinMax);
+
+			if(cull(Math.min(x1, x2), Math.min(y1, y2), Math.max(x1, x2), Math.max(y1, y2), action)) {
+				return true;
+			}
+
+			updateBounds(Math.min(x1, x2), Math.min(y1, y2), Math.max(x1, x2), Math.max(y1, y2));
+			_vertexBounds[0] = Math.min(x1, x2);
+			_vertexBounds[1] = Math.min(y1, y2);
+			_vertexBounds[2] = Math.max(x1, x2);
+			_vertexBounds[3] = Math.max(y1, y2);
+		}
+
+		beginOperation(action);
+
+		final EpsLineBuilder line = line();
+		line.operator(EpsOperator.NEWPATH);
+
+		if(type == Arc2D.PIE) {
+			line.coordinate(centerX).coordinate(centerY).operator(EpsOperator.MOVETO);
+		}
+
+		if(circle) {
+			line.coordinate(centerX).coordinate(centerY).delta(radius).number(arcStart).number(arcStart + arcSweep);
+			line.operator(arcSweep < 0d ? EpsOperator.ARCN : EpsOperator.ARC);
+		}else {
+			// The path is kept in device space, so restoring the matrix after
+			// the arc leaves an elliptical path that is painted normally.
+			line.token("matrix currentmatrix").coordinate(centerX).coordinate(centerY).token("translate").number(radiusX).number(radiusY).token("scale");
+			line.integer(0).integer(0).integer(1).number(start).number(start + sweep).operator(sweep < 0d ? EpsOperator.ARCN : EpsOperator.ARC);
+			line.token("setmatrix");
+		}
+
+		if(type != Arc2D.OPEN) {
+			line.operator(EpsOperator.CLOSEPATH);
+		}
+
+		line.operator(action);
+
+		if(action == EpsOperator.CLIP) {
+			line.operator(EpsOperator.NEWPATH);
+		}
+
+		appendLine();
+		endOperation(action, _vertexBounds[0], _vertexBounds[1], _vertexBounds[2], _vertexBounds[3]);
+		return true;
+	}
+
+	/**
+	 * Appends the commands required to paint the same marker at many points.
+	 * The marker is defined once as a procedure, which translates the matrix
+	 * to the point on the stack, and scales it by the size if any, before
+	 * appending the path and reinstating the matrix so that strokes keep
+	 * their width. Each point then only costs its coordinates and the name of
+	 * the procedure. Points with a non-finite coordinate or size are skipped.
+	 * @param marker The marker, centered on the origin of its coordinates
+	 * @param sizes The scale factor of the marker at each point, or null
+	 * @param colors The color of the marker at each point, or null to use
+	 * the current color
+	 * @param action The painting action, as FILL or STROKE
+	 * @since 1.6.0
+	 */
+	private void appendMarkers(final Shape marker, final double[] xPoints, final double[] yPoints, final double[] sizes, final Color[] colors,
+			final int offset, final int count, final EpsOperator action) {
+		if(marker == null || count <= 0 || marker.getPathIterator(null).isDone()) {
+			return;
+		}
+
+		appendPaintState(action);
+
+		// The marker is only transformed by the linear part of the transform,
+		// as the procedure translates it to each point.
+		final AffineTransform transform = getCoordinateTransform();
+		final double m00 = transform.getScaleX();
+		final double m10 = transform.getShearY();
+		final double m01 = transform.getShearX();
+		final double m11 = transform.getScaleY();
+		final double m02 = transform.getTranslateX();
+		final double m12 = transform.getTranslateY();
+		final AffineTransform linear = new AffineTransform(m00, m10, m01, m11, 0d, 0d);
+		final Rectangle2D markerBounds = linear.createTransformedShape(marker).getBounds2D();
+
+		composeProcedure(marker.getPathIterator(linear), sizes != null, action);
+		final String name = defineProcedure(1);
+
+		final Color color = _color;
+		double minX = Double.POSITIVE_INFINITY;
+		double minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY;
+		double maxY = Double.NEGATIVE_INFINITY;
+
+		try {
+			for(int i = offset, end = offset + count; i < end; i++) {
+				final double x = xPoints[i];
+				final double y = yPoints[i];
+				final double size = sizes != null ? sizes[i] : 1d;
+
+				if(!Double.isFinite(x) || !Double.isFinite(y) || !Double.isFinite(size)) {
+					continue;
+				}
+
+				if(colors != null) {
+					_color = colors[i] != null ? colors[i] : color;
+				}
+
+				final double deviceX = m00 * x + m01 * y + m02;
+				final double deviceY = m10 * x + m11 * y + m12;
+				final double markerMinX = deviceX + Math.min(size * markerBounds.getMinX(), size * markerBounds.getMaxX());
+				final double markerMinY = deviceY + Math.min(size * markerBounds.getMinY(), size * markerBounds.getMaxY());
+				final double markerMaxX = deviceX + Math.max(size * markerBounds.getMinX(), size * markerBounds.getMaxX());
+				final double markerMaxY = deviceY + Math.max(size * markerBounds.getMinY(), size * markerBounds.getMaxY());
+
+				if(cull(markerMinX, markerMinY, markerMaxX, markerMaxY, action)) {
+					continue;
+				}
+
+				if(colors != null) {
+					appendColor();
+				}
+
+				final EpsLineBuilder line = line().coordinate(deviceX).coordinate(-deviceY);
+
+				if(sizes != null) {
+					line.number(size);
+				}
+
+				line.token(name);
+				appendLine();
+
+				minX = Math.min(minX, markerMinX);
+				minY = Math.min(minY, markerMinY);
+				maxX = Math.max(maxX, markerMaxX);
+				maxY = Math.max(maxY, markerMaxY);
+			}
+		}finally {
+			_color = color;
+		}
+
+		if(minX <= maxX) {
+			updateBounds(minX, minY, maxX, maxY);
+		}
+	}
+
+	/**
+	 * Appends the commands required to paint a path through a procedure, if
+	 * the path has been drawn often enough. The path is moved to its first
+	 * point, so that the same shape drawn at other places is recognised, and
+	 * the procedure is invoked with that point. The first point is rounded
+	 * like any coordinate beforehand, so that the shape is painted exactly
+	 * where it would be otherwise.
+	 * @param shape The shape to paint, in device space
+	 * @param action The painting action, as FILL or STROKE
+	 * @return true if the path has been appended; false if it must be written
+	 * as usual
+	 * @since 1.6.0
+	 */
+	private boolean appendCachedPath(final Shape shape, final EpsOperator action) {
+		final PathIterator pathIterator = shape.getPathIterator(null);
+
+		if(pathIterator.isDone() || pathIterator.currentSegment(_coords) != PathIterator.SEG_MOVETO) {
+			return false;
+		}
+
+		final double anchorX = _line.roundCoordinate(_coords[0]);
+		final double anchorY = _line.roundCoordinate(-_coords[1]);
+
+		_anchorTransform.setToTranslation(-anchorX, anchorY);
+		composeProcedure(shape.getPathIterator(_anchorTransform), false, action);
+		final String name = defineProcedure(_document.getPathCacheRepeats());
+
+		if(name == null) {
+			return false;
+		}
+
+		line().coordinate(anchorX).coordinate(anchorY).token(name);
+		appendLine();
+		return true;
+	}
+
+	/**
+	 * Appends the segments of a path, one line per segment. The coordinates
+	 * are taken as they are, except for the y axis that is flipped.
+	 * @param pathIterator The iterator over the segments of the path
+	 * @param procedure The line builder to collect the segments in, as the
+	 * body of a procedure, or null to append them to the document
+	 * @since 1.6.0
+	 */
+	private void appendPath(final PathIterator pathIterator, final EpsLineBuilder procedure) {
+		final float[] coords = _coords;
+		float x0 = 0;
+		float y0 = 0;
+		// int count = 0;
+
+		// The runs of straight segments that follow a moveto go through the
+		// decimator, if the polylines are reduced.
+		final boolean decimate = procedure == null && _decimation != EpsDecimation.NONE;
+		boolean decimating = false;
+
+		while(!pathIterator.isDone()) {
+			final int segmentType = pathIterator.currentSegment(coords);
+			final float x1 = coords[0];
+			final float y1 = -coords[1];
+			final float x2 = coords[2];
+			final float y2 = -coords[3];
+			final float x3 = coords[4];
+			final float y3 = -coords[5];
+
+			if(decimating && segmentType != PathIterator.SEG_LINETO) {
+				endDecimation();
+				decimating = false;
+			}
+
+			switch(segmentType) {
+				case PathIterator.SEG_MOVETO:
+					if(decimate) {
+						beginDecimation();
+						_decimator.add(x1, y1);
+						decimating = true;
+					}else {
+						_path.moveTo(line(), x1, y1);
+						appendSegment(procedure);
+					}
+
+					// count++;
+					x0 = x1;
+					y0 = y1;
+					break;
+				case PathIterator.SEG_LINETO:
+					if(decimating) {
+						_decimator.add(x1, y1);
+						writeDecimatedVertices();
+					}else {
+						_path.lineTo(line(), x1, y1);
+						appendSegment(procedure);
+					}
+
+					// count++;
+					x0 = x1;
+					y0 = y1;
+					break;
+				case PathIterator.SEG_CUBICTO:
+					_path.curveTo(line(), x1, y1, x2, y2, x3, y3);
+					appendSegment(procedure);
+					// count++;
+					x0 = x3;
+					y0 = y3;
+					break;
+				case PathIterator.SEG_QUADTO:
+					// Convert the quad curve into a cubic.
+					final float _x1 = x0 + 2 / 3f * (x1 - x0);
+					final float _y1 = y0 + 2 / 3f * (y1 - y0);
+					final float _x2 = x1 + 1 / 3f * (x2 - x1);
+					final float _y2 = y1 + 1 / 3f * (y2 - y1);
+					final float _x3 = x2;
+					final float _y3 = y2;
+					_path.curveTo(line(), _x1, _y1, _x2, _y2, _x3, _y3);
+					appendSegment(procedure);
+					// count++;
+					x0 = _x3;
+					y0 = _y3;
+					break;
+				case PathIterator.SEG_CLOSE:
+					_path.closePath(line());
+					appendSegment(procedure);
+					// count++;
+					break;
+				default:
+					break;
+			}
+
+			pathIterator.next();
+		}
+
+		if(decimating) {
+			endDecimation();
+		}
+	}
+
+	/**
+	 * Appends the segment composed in the line builder of this context,
+	 * either to the document or to the body of a procedure.
+	 * @param procedure The line builder holding the body of the procedure,
+	 * or null to append the segment to the document
+	 * @since 1.6.0
+	 */
+	private void appendSegment(final EpsLineBuilder procedure) {
+		if(procedure == null) {
+			appendLine();
+		}else {
+			procedure.append(_line).append('\n');
+		}
+	}
+
+	/**
+	 * Culls a primitive about to be painted, given the bounds of its geometry
+	 * in the units of the written coordinates, if it is outside of the visible
+	 * area or too small to be seen.
+	 * @param action The painting action, as FILL, STROKE or CLIP
+	 * @return true if the primitive has been culled; false if it must be
+	 * painted as usual
+	 * @since 1.6.0
+	 */
+	private boolean cull(final double minX, final double minY, final double maxX, final double maxY, final EpsOperator action) {
+		if(action == EpsOperator.CLIP) {
+			return false;
+		}
+
+		if(_cullInvisible && !isVisible(minX, minY, maxX, maxY, action)) {
+			_document.getCullStatistics().addInvisible();
+			return true;
+		}
+
+		return cullDetail(minX, minY, maxX, maxY, action);
+	}
+
+	/**
+	 * Applies the detail policy to a primitive about to be painted, given the
+	 * bounds of its geometry in device space. The primitive is culled if its
+	 * painted extent, which includes the line width for strokes, is below
+	 * the detail threshold. It is then either dropped, or painted as a filled
+	 * rectangle over that extent, and counted in the cull statistics of the
+	 * document.
+	 * @param action The painting action, as FILL or STROKE
+	 * @return true if the primitive has been culled; false if it must be
+	 * painted as usual
+	 * @since 1.6.0
+	 */
+	private boolean cullDetail(final double minX, final double minY, final double maxX, final double maxY, final EpsOperator action) {
+		if(!isBelowDetail(minX, minY, maxX, maxY, action)) {
+			return false;
+		}
+
+		final double lineWidth = action == EpsOperator.STROKE ? _stroke.getLineWidth() : 0d;
+
+		if(_detailPolicy == EpsDetailPolicy.DROP) {
+			_document.getCullStatistics().addDropped();
+			return true;
+		}
+
+		_document.getCullStatistics().addCollapsed();
+		appendPaintState(EpsOperator.FILL);
+
+		final double lineRadius = lineWidth / 2d;
+		final EpsLineBuilder line = line();
+		appendRectOperands(line, minX - lineRadius, minY - lineRadius, maxX + lineRadius, maxY + lineRadius);
+		line.operator(EpsOperator.RECTFILL);
+		appendLine();
+		updateBounds(minX, minY, maxX, maxY);
+		return true;
+	}
+
+	/**
+	 * Composes the body of a procedure that paints a path at the point on the
+	 * operand stack, scaled by the size above it if any. The matrix is
+	 * translated and scaled while the path is built, and reinstated before it
+	 * is painted so that strokes keep their width.
+	 * @param pathIterator The iterator over the segments of the path, around
+	 * the origin of device space
+	 * @param sized Whether the procedure takes a size operand
+	 * @param action The painting action, as FILL or STROKE
+	 * @since 1.6.0
+	 */
+	private void composeProcedure(final PathIterator pathIterator, final boolean sized, final EpsOperator action) {
+		if(_procedure == null) {
+			_procedure = _document.createLineBuilder();
+			_document.setCoordinatePrecision(_procedure, _coordinateScale);
+		}
+
+		_procedure.clear().token("matrix currentmatrix");
+		_procedure.integer(sized ? 4 : 3).integer(1).token("roll");
+
+		if(sized) {
+			_procedure.integer(3).integer(1).token("roll translate dup scale\n");
+		}else {
+			_procedure.token("translate\n");
+		}
+
+		_path.newPath();
+		appendPath(pathIterator, _procedure);
+		_procedure.token("setmatrix").operator(action);
+	}
+
+	/**
+	 * Defines the procedure composed by composeProcedure in the document, once
+	 * it has been asked for a number of times.
+	 * @param uses The number of times that the procedure has to be asked for
+	 * before it is defined
+	 * @return The name of the procedure, or null if it is not defined yet
+	 * @since 1.6.0
+	 */
+	private String defineProcedure(final int uses) {
+		try {
+			return _document.defineProcedure(this, _procedure, uses);
+		}catch(final IOException e) {
+			throw new EpsException(OUTPUT_ERROR_MSG + e.getLocalizedMessage());
+		}
+	}
+
+	/**
+	 * Appends the path of a polyline or polygon given by the integer
+	 * coordinates of its vertices, and paints it.
+	 * @param close Whether the path is closed back to its first vertex
+	 * @param action The painting action, as FILL or STROKE
+	 * @since 1.6.0
+	 */
+	private void appendPolyline(final int[] xPoints, final int[] yPoints, final int nPoints, final boolean close, final EpsOperator action) {
+		if(nPoints <= 0) {
+			return;
+		}
+
+		if(isCulling() || action == EpsOperator.FILL && _document.isCoalescePaths()) {
+			final AffineTransform transform = getCoordinateTransform();
+			beginVertexBounds();
+
+			for(int i = 0; i < nPoints; i++) {
+				addVertexBounds(transform, xPoints[i], yPoints[i]);
+			}
+
+			if(cull(_vertexBounds[0], _vertexBounds[1], _vertexBounds[2], _vertexBounds[3], action)) {
+				return;
+			}
+		}
+
+		beginVertices(action, close);
+
+		for(int i = 0; i < nPoints; i++) {
+			appendVertex(xPoints[i], yPoints[i]);
+		}
+
+		endVertices(close, action);
+	}
+
+	/**
+	 * Appends the path of a polyline or polygon given by the coordinates of
+	 * its vertices in two arrays, and paints it.
+	 * @param offset The index of the first vertex in both arrays
+	 * @param count The number of vertices
+	 * @param close Whether the path is closed back to its first vertex
+	 * @param action The painting action, as FILL or STROKE
+	 * @since 1.6.0
+	 */
+	private void appendPolyline(final double[] xPoints, final double[] yPoints, final int offset, final int count, final boolean close,
+			final EpsOperator action) {
+		if(count <= 0) {
+			return;
+		}
+
+		if(isCulling() || action == EpsOperator.FILL && _document.isCoalescePaths()) {
+			final AffineTransform transform = getCoordinateTransform();
+			beginVertexBounds();
+
+			for(int i = offset, end = offset + count; i < end; i++) {
+				addVertexBounds(transform, xPoints[i], yPoints[i]);
+			}
+
+			if(cull(_vertexBounds[0], _vertexBounds[1], _vertexBounds[2], _vertexBounds[3], action)) {
+				return;
+			}
+		}
+
+		beginVertices(action, close);
+
+		for(int i = offset, end = offset + count; i < end; i++) {
+			appendVertex(xPoints[i], yPoints[i]);
+		}
+
+		endVertices(close, action);
+	}
+
+	/**
+	 * Appends a vertex of the path started by beginVertices. The vertex is
+	 * transformed with primitive arithmetic and accumulated into the bounds,
+	 * so that no shape, path iterator or bounding rectangle is created. It
+	 * then goes through the decimator, if the polylines are reduced.
+	 * @since 1.6.0
+	 */
+	private void appendVertex(final double x, final double y) {
+		final AffineTransform transform = getCoordinateTransform();
+		final double deviceX = transform.getScaleX() * x + transform.getShearX() * y + transform.getTranslateX();
+		final double deviceY = transform.getShearY() * x + transform.getScaleY() * y + transform.getTranslateY();
+
+		if(!_trimming || trimVertex(deviceX, deviceY)) {
+			emitVertex(deviceX, deviceY);
+		}
+
+		_vertexBounds[0] = Math.min(_vertexBounds[0], deviceX);
+		_vertexBounds[1] = Math.min(_vertexBounds[1], deviceY);
+		_vertexBounds[2] = Math.max(_vertexBounds[2], deviceX);
+		_vertexBounds[3] = Math.max(_vertexBounds[3], deviceY);
+	}
+
+	/**
+	 * Passes a vertex on to be written, through the decimator if the
+	 * polylines are reduced.
+	 * @since 1.6.0
+	 */
+	private void emitVertex(final double deviceX, final double deviceY) {
+		if(_decimation == EpsDecimation.NONE) {
+			writeVertex(deviceX, -deviceY);
+		}else {
+			_decimator.add(deviceX, -deviceY);
+			writeDecimatedVertices();
+		}
+	}
+
+	/**
+	 * Decides whether a vertex of a trimmed polyline is written. Only the
+	 * segments that may cross the visible area are kept. A vertex is held back
+	 * until the segment that follows it turns out to be visible, in which
+	 * case it starts a new subpath, so that the invisible stretches of the
+	 * polyline are left out entirely.
+	 * @return true if the vertex must be written; false otherwise
+	 * @since 1.6.0
+	 */
+	private boolean trimVertex(final double x, final double y) {
+		final boolean started = _trimStarted;
+		final boolean previousWritten = _trimWritten;
+		final double previousX = _trimX;
+		final double previousY = _trimY;
+		_trimStarted = true;
+		_trimX = x;
+		_trimY = y;
+		_trimWritten = false;
+
+		if(!started) {
+			return false;
+		}
+
+		if(Math.max(previousX, x) < _windowBounds[0] || Math.min(previousX, x) > _windowBounds[2] || Math.max(previousY, y) < _windowBounds[1] ||
+				Math.min(previousY, y) > _windowBounds[3]) {
+			if(!previousWritten) {
+				_trimmedVertices++;
+			}
+
+			return false;
+		}
+
+		if(!previousWritten) {
+			endDecimation();
+			beginDecimation();
+			emitVertex(previousX, previousY);
+		}
+
+		_trimWritten = true;
+		return true;
+	}
+
+	/**
+	 * Accumulates a vertex into the bounds started by beginVertexBounds,
+	 * without writing it.
+	 * @param transform The coordinate transform
+	 * @since 1.6.0
+	 */
+	private void addVertexBounds(final AffineTransform transform, final double x, final double y) {
+		final double deviceX = transform.getScaleX() * x + transform.getShearX() * y + transform.getTranslateX();
+		final double deviceY = transform.getShearY() * x + transform.getScaleY() * y + transform.getTranslateY();
+		_vertexBounds[0] = Math.min(_vertexBounds[0], deviceX);
+		_vertexBounds[1] = Math.min(_vertexBounds[1], deviceY);
+		_vertexBounds[2] = Math.max(_vertexBounds[2], deviceX);
+		_vertexBounds[3] = Math.max(_vertexBounds[3], deviceY);
+	}
+
+	/**
+	 * Starts a new run of vertices for writeVertex, which first goes through
+	 * the decimator if the polylines are reduced. The tolerance is converted
+	 * from points of the output page to the units of the written coordinates.
+	 * @since 1.6.0
+	 */
+	private void beginDecimation() {
+		_vertexCount = 0;
+
+		if(_decimation == EpsDecimation.NONE) {
+			return;
+		}
+
+		if(_decimator == null) {
+			_decimator = new EpsDecimator(_decimation);
+		}
+
+		_decimator.begin(toCoordinateUnits(_decimationTolerance));
+	}
+
+	/**
+	 * Starts a path made of straight segments, to be followed by calls to
+	 * appendVertex and endVertices.
+	 * @param action The painting action, as FILL or STROKE
+	 * @param close Whether the path will be closed back to its first vertex
+	 * @since 1.6.0
+	 */
+	private void beginVertices(final EpsOperator action, final boolean close) {
+		beginOperation(action);
+
+		// The callers that fill compute the bounds of the vertices beforehand
+		// whenever paths are coalesced, and the bounds of strokes are ignored.
+		beginPaint(action, _vertexBounds[0], _vertexBounds[1], _vertexBounds[2], _vertexBounds[3]);
+		_path.newPath();
+		beginDecimation();
+		beginVertexBounds();
+
+		// Breaking a polyline into subpaths would restart its dashes, and
+		// change the shape of closed ones.
+		_trimming = _trimPolylines && action == EpsOperator.STROKE && !close && _stroke.getDashArray() == null && computeTrimWindow();
+		_trimStarted = false;
+		_trimmedVertices = 0L;
+	}
+
+	/**
+	 * Empties the bounds of the vertices.
+	 * @since 1.6.0
+	 */
+	private void beginVertexBounds() {
+		_vertexBounds[0] = Double.POSITIVE_INFINITY;
+		_vertexBounds[1] = Double.POSITIVE_INFINITY;
+		_vertexBounds[2] = Double.NEGATIVE_INFINITY;
+		_vertexBounds[3] = Double.NEGATIVE_INFINITY;
+	}
+
+	/**
+	 * Ends a run of vertices started by beginDecimation, and writes the
+	 * vertices that the decimator kept last.
+	 * @since 1.6.0
+	 */
+	private void endDecimation() {
+		if(_decimation != EpsDecimation.NONE) {
+			_decimator.end();
+			writeDecimatedVertices();
+		}
+	}
+
+	/**
+	 * Ends a path started by beginVertices, paints it and extends the
+	 * bounding box of the document to its vertices.
+	 * @param close Whether the path is closed back to its first vertex
+	 * @param action The painting action, as FILL or STROKE
+	 * @since 1.6.0
+	 */
+	private void endVertices(final boolean close, final EpsOperator action) {
+		endDecimation();
+
+		if(_trimming) {
+			if(_trimStarted && !_trimWritten) {
+				_trimmedVertices++;
+			}
+
+			if(_trimmedVertices > 0L) {
+				_document.getCullStatistics().addTrimmed(_trimmedVertices);
+			}
+
+			_trimming = false;
+		}
+
+		if(close) {
+			_path.closePath(line());
+			appendLine();
+		}
+
+		endPaint(action, false);
+
+		if(_vertexBounds[0] <= _vertexBounds[2]) {
+			updateBounds(_vertexBounds[0], _vertexBounds[1], _vertexBounds[2], _vertexBounds[3]);
+		}
+
+		endOperation(action, _vertexBounds[0], _vertexBounds[1], _vertexBounds[2], _vertexBounds[3]);
+	}
+
+	/**
+	 * Writes the vertices that the decimator has kept so far.
+	 * @since 1.6.0
+	 */
+	private void writeDecimatedVertices() {
+		final int count = _decimator.getOutputCount();
 
-		_colorMode = colorMode;
+		if(count > 0) {
+			for(int i = 0; i < count; i++) {
+				writeVertex(_decimator.getOutputX(i), _decimator.getOutputY(i));
+			}
 
-		setDefaults();
+			_decimator.clearOutput();
+		}
 	}
 
 	/**
-	 * Partially qualified constructor.
-	 * Constructs a new EPS document that is initially empty and can be drawn on
-	 * like a Graphics2D object. The EPS document is written to the writer as it
-	 * goes, which reduces memory usage. The bounding box of the document is
-	 * fixed and specified at construction time by minX, minY, maxX, maxY. The
-	 * writer is flushed when the finish() method is called.
-	 * @param writer The wrapped @Writer to channel the EPS content to
-	 * @param title The title of the EPS Document
-	 * @param minX The x-coordinate of the EPS content top left corner
-	 * @param minY The y-coordinate of the EPS content top left corner
-	 * @param maxX The x-coordinate of the EPS content bottom right corner
-	 * @param maxY The y-coordinate of the EPS content bottom right corner
-	 * @param colorMode The color mode to be used for all EPS graphics
-	 * @throws IOException
-	 * @since 1.1.5
+	 * Writes a vertex of the current run, as a moveto for the first one and
+	 * as a lineto for the others.
+	 * @param x The x coordinate of the vertex, in PostScript space
+	 * @param y The y coordinate of the vertex, in PostScript space
+	 * @since 1.6.0
 	 */
-	public EpsGraphics2D(final Writer writer, final String title, final double minX, final double minY, final double maxX, final double maxY, final ColorMode
-		colorMode) throws IOException {
-		_document = new EpsDocument(writer, title, minX, minY, maxX, maxY);
+	private void writeVertex(final double x, final double y) {
+		if(_vertexCount++ == 0) {
+			_path.moveTo(line(), x, y);
+		}else {
+			_path.lineTo(line(), x, y);
+		}
 
-		_colorMode = colorMode;
+		appendLine();
+	}
 
-		setDefaults();
+	/**
+	 * Appends the operands of an axis-aligned rectangle given by two opposite
+	 * corners in device space, as the lower-left corner, width and height
+	 * expected by the PostScript rectangle operators. The width and height are
+	 * taken between the rounded corners, so that the edges stay on the grid of
+	 * the coordinate precision.
+	 * @since 1.6.0
+	 */
+	private static void appendRectOperands(final EpsLineBuilder line, final double x1, final double y1, final double x2, final double y2) {
+		final double left = line.roundCoordinate(Math.min(x1, x2));
+		final double right = line.roundCoordinate(Math.max(x1, x2));
+		final double bottom = line.roundCoordinate(-Math.max(y1, y2));
+		final double top = line.roundCoordinate(-Math.min(y1, y2));
+		line.coordinate(left).coordinate(bottom).delta(right - left).delta(top - bottom);
 	}
 
 	/**
-	 * Adds rendering hints. These are ignored by EpsGraphics2D.
-	 * @since 0.1
+	 * Appends the commands required to paint an axis-aligned rectangle with
+	 * the rectfill, rectstroke or rectclip operators of Level 2, which is much
+	 * shorter than the equivalent path. This is only possible when the current
+	 * transform keeps rectangles axis-aligned.
+	 * @param action The painting action, as FILL, STROKE or CLIP
+	 * @return true if the rectangle has been appended; false if it must be
+	 * drawn as a path
+	 * @since 1.6.0
 	 */
-	@Override
-	public void addRenderingHints(final Map<?, ?> hints) {
-		// Do nothing.
+	private boolean appendRect(final double x, final double y, final double width, final double height, final EpsOperator action) {
+		if(!isRectilinear()) {
+			return false;
+		}
+
+		// Like the path of a Rectangle2D, a negative size means no rectangle.
+		if(!(width >= 0d && height >= 0d)) {
+			return true;
+		}
+
+		final AffineTransform transform = getCoordinateTransform();
+		final double x1 = transform.getScaleX() * x + transform.getTranslateX();
+		final double y1 = transform.getScaleY() * y + transform.getTranslateY();
+		final double x2 = transform.getScaleX() * (x + width) + transform.getTranslateX();
+		final double y2 = transform.getScaleY() * (y + height) + transform.getTranslateY();
+
+		if(action != EpsOperator.CLIP) {
+			if(cull(Math.min(x1, x2), Math.min(y1, y2), Math.max(x1, x2), Math.max(y1, y2), action)) {
+				return true;
+			}
+
+			updateBounds(Math.min(x1, x2), Math.min(y1, y2), Math.max(x1, x2), Math.max(y1, y2));
+		}
+
+		beginOperation(action);
+
+		final EpsLineBuilder line = line();
+		appendRectOperands(line, x1, y1, x2, y2);
+		line.operator(getRectOperator(action));
+		appendLine();
+		endOperation(action, Math.min(x1, x2), Math.min(y1, y2), Math.max(x1, x2), Math.max(y1, y2));
+		return true;
 	}
 
 	/**
-	 * Appends a line to the EpsDocument.
-	 * @param line The new content line to write to the EPS document
-	 * @see org.sourceforge.jlibeps.epsgraphics.EpsDocument
-	 * @since 0.1
+	 * Appends the path of a rectangle as a closed polygon of its four corners,
+	 * and paints it. This is how rectangles are painted under a transform that
+	 * does not keep them axis-aligned, as it creates no shape. Like the path of
+	 * a Rectangle2D, a negative size means no rectangle.
+	 * @param action The painting action, as FILL or STROKE
+	 * @since 1.6.0
 	 */
-	private void append(final String line) {
-		try {
-			_document.append(this, line);
-		}catch(final Exception e) {
-			// Re-cast the exception using library encapsulation, but let the
-			// client choose whether to print the stack trace or not.
-			throw new EpsException(OUTPUT_ERROR_MSG + e.getLocalizedMessage());
+	private void appendRectPolygon(final double x, final double y, final double width, final double height, final EpsOperator action) {
+		if(!(width >= 0d && height >= 0d)) {
+			return;
+		}
+
+		final double right = x + width;
+		final double bottom = y + height;
+
+		if(isCulling() || action == EpsOperator.FILL && _document.isCoalescePaths()) {
+			final AffineTransform transform = getCoordinateTransform();
+			beginVertexBounds();
+			addVertexBounds(transform, x, y);
+			addVertexBounds(transform, right, y);
+			addVertexBounds(transform, right, bottom);
+			addVertexBounds(transform, x, bottom);
+
+			if(cull(_vertexBounds[0], _vertexBounds[1], _vertexBounds[2], _vertexBounds[3], action)) {
+				return;
+			}
 		}
+
+		beginVertices(action, true);
+		appendVertex(x, y);
+		appendVertex(right, y);
+		appendVertex(right, bottom);
+		appendVertex(x, bottom);
+		endVertices(true, action);
 	}
 
 	/**
-	 * Appends a stroke to the @EpsDocument.
-	 * This function only operates @BasicStroke objects (or subclasses
-	 * of @BasicStroke); otherwise it is a no-op.
-	 * @see java.awt.BasicStroke
-	 * @since 0.1
+	 * Appends the commands required to paint a batch of rectangles, passed
+	 * as consecutive x, y, width and height values. Under a transform that
+	 * keeps rectangles axis-aligned, the rectangles are passed to the rectfill
+	 * or rectstroke operator as arrays of numbers, so that each rectangle
+	 * only costs its four numbers. Otherwise, each rectangle is painted as a
+	 * polygon. Each rectangle is culled on its own, and those with a negative
+	 * size are skipped.
+	 * @since 1.6.0
 	 */
-	public void appendStroke() {
-		append(_stroke.getLineWidth() + " setlinewidth");
-		float miterLimit = _stroke.getMiterLimit();
+	private void appendRects(final double[] xywh, final int offset, final int count, final EpsOperator action) {
+		if(count <= 0) {
+			return;
+		}
 
-		if(miterLimit < 1f) {
-			miterLimit = 1;
+		if(!isRectilinear()) {
+			for(int i = offset, end = offset + 4 * count; i < end; i += 4) {
+				appendRectPolygon(xywh[i], xywh[i + 1], xywh[i + 2], xywh[i + 3], action);
+			}
+
+			return;
 		}
 
-		append(miterLimit + " setmiterlimit");
-		append(_stroke.getLineJoin() + " setlinejoin");
-		append(_stroke.getEndCap() + " setlinecap");
+		final AffineTransform transform = getCoordinateTransform();
+		final boolean culling = isCulling();
+		final double scaleX = transform.getScaleX();
+		final double scaleY = transform.getScaleY();
+		final double translateX = transform.getTranslateX();
+		final double translateY = transform.getTranslateY();
+		double minX = Double.POSITIVE_INFINITY;
+		double minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY;
+		double maxY = Double.NEGATIVE_INFINITY;
+		int inBatch = 0;
+		EpsLineBuilder line = null;
+
+		for(int i = offset, end = offset + 4 * count; i < end; i += 4) {
+			final double width = xywh[i + 2];
+			final double height = xywh[i + 3];
+
+			if(!(width >= 0d && height >= 0d)) {
+				continue;
+			}
+
+			final double x1 = scaleX * xywh[i] + translateX;
+			final double y1 = scaleY * xywh[i + 1] + translateY;
+			final double x2 = scaleX * (xywh[i] + width) + translateX;
+			final double y2 = scaleY * (xywh[i + 1] + height) + translateY;
+
+			if(culling) {
+				final double rectMinX = Math.min(x1, x2);
+				final double rectMinY = Math.min(y1, y2);
+				final double rectMaxX = Math.max(x1, x2);
+				final double rectMaxY = Math.max(y1, y2);
+
+				// A collapsed rectangle is painted on a line of its own, so the
+				// array has to be painted first.
+				if(inBatch > 0 && _detailPolicy == EpsDetailPolicy.DOT && isBelowDetail(rectMinX, rectMinY, rectMaxX, rectMaxY, action)) {
+					line.append(']').operator(getRectOperator(action));
+					appendLine();
+					inBatch = 0;
+				}
 
-		final StringBuilder dashes = new StringBuilder();
-		dashes.append("[ ");
-		final float[] dashArray = _stroke.getDashArray();
+				if(cull(rectMinX, rectMinY, rectMaxX, rectMaxY, action)) {
+					continue;
+				}
+			}
+
+			minX = Math.min(minX, Math.min(x1, x2));
+			minY = Math.min(minY, Math.min(y1, y2));
+			maxX = Math.max(maxX, Math.max(x1, x2));
+			maxY = Math.max(maxY, Math.max(y1, y2));
+
+			if(inBatch == 0) {
+				// A collapsed rectangle may have changed the paint state.
+				appendPaintState(action);
+				line = line();
+				line.append('[');
+			}else if(inBatch % RECTS_PER_LINE == 0) {
+				line.append('\n');
+			}
+
+			appendRectOperands(line, x1, y1, x2, y2);
+			inBatch++;
 
-		if(dashArray != null) {
-			for(final float element : dashArray) {
-				dashes.append(element).append(" ");
+			if(inBatch == MAX_RECTS_PER_ARRAY) {
+				line.append(']').operator(getRectOperator(action));
+				appendLine();
+				inBatch = 0;
 			}
 		}
 
-		dashes.append("]");
-		append(dashes.toString() + " 0 setdash");
+		if(inBatch > 0) {
+			line.append(']').operator(getRectOperator(action));
+			appendLine();
+		}
+
+		if(minX <= maxX) {
+			updateBounds(minX, minY, maxX, maxY);
+		}
 	}
 
 	/**
@@ -391,8 +2136,10 @@ public class EpsGraphics2D extends Graphics2D {
 		final Color originalColor = getColor();
 
 		setColor(getBackground());
-		final Shape shape = new Rectangle(x, y, width, height);
-		draw(shape, "fill");
+
+		if(!appendRect(x, y, width, height, EpsOperator.FILL)) {
+			appendRectPolygon(x, y, width, height, EpsOperator.FILL);
+		}
 
 		setColor(originalColor);
 	}
@@ -485,6 +2232,10 @@ public class EpsGraphics2D extends Graphics2D {
 	 */
 	@Override
 	public void dispose() {
+		if(_document != null) {
+			_document.releaseOperations();
+		}
+
 		_document = null;
 	}
 
@@ -494,7 +2245,7 @@ public class EpsGraphics2D extends Graphics2D {
 	 */
 	@Override
 	public void draw(final Shape shape) {
-		draw(shape, "stroke");
+		draw(shape, EpsOperator.STROKE);
 	}
 
 	/**
@@ -502,97 +2253,71 @@ public class EpsGraphics2D extends Graphics2D {
 	 * @see org.sourceforge.jlibeps.epsgraphics.EpsDocument
 	 * @since 0.1
 	 */
-	private void draw(final Shape shape, final String action) {
+	private void draw(final Shape shape, final EpsOperator action) {
 		if(shape == null) {
 			return;
 		}
 
-		// The Stroke needs to be appended each time we draw a shape.
-		appendStroke();
-
-		// Avoid creeping numeric inaccuracy if identity transform.
-		final Shape transformedShape = _transform.isIdentity() ? shape : _transform.createTransformedShape(shape);
+		if(shape instanceof Rectangle2D) {
+			final Rectangle2D rectangle = (Rectangle2D) shape;
 
-		// Update the bounds.
-		if(!action.equals("clip")) {
-			final Rectangle2D shapeBounds = transformedShape.getBounds2D();
-			Rectangle2D visibleBounds = shapeBounds;
+			if(appendRect(rectangle.getX(), rectangle.getY(), rectangle.getWidth(), rectangle.getHeight(), action)) {
+				return;
+			}
+		}else if(shape instanceof Ellipse2D) {
+			final Ellipse2D ellipse = (Ellipse2D) shape;
 
-			if(_clip != null) {
-				final Rectangle2D clipBounds = _clip.getBounds2D();
-				visibleBounds = shapeBounds.createIntersection(clipBounds);
+			if(appendArc(ellipse.getX(), ellipse.getY(), ellipse.getWidth(), ellipse.getHeight(), 0d, 360d, Arc2D.CHORD, action)) {
+				return;
 			}
+		}else if(shape instanceof Arc2D) {
+			final Arc2D arc = (Arc2D) shape;
 
-			final float lineRadius = 0.5f * _stroke.getLineWidth();
-			final float minX = (float) visibleBounds.getMinX() - lineRadius;
-			final float minY = (float) visibleBounds.getMinY() - lineRadius;
-			final float maxX = (float) visibleBounds.getMaxX() + lineRadius;
-			final float maxY = (float) visibleBounds.getMaxY() + lineRadius;
-			_document.updateBounds(minX, -minY);
-			_document.updateBounds(maxX, -maxY);
+			if(appendArc(arc.getX(), arc.getY(), arc.getWidth(), arc.getHeight(), arc.getAngleStart(), arc.getAngleExtent(), arc.getArcType(), action)) {
+				return;
+			}
 		}
 
-		append("newpath");
-		final float[] coords = new float[6];
-		final PathIterator pathIterator = transformedShape.getPathIterator(null);
-		float x0 = 0;
-		float y0 = 0;
-		// int count = 0;
+		// Avoid creeping numeric inaccuracy if identity transform.
+		final AffineTransform transform = getCoordinateTransform();
+		final Shape transformedShape = transform.isIdentity() ? shape : transform.createTransformedShape(shape);
 
-		while(!pathIterator.isDone()) {
-			final int segmentType = pathIterator.currentSegment(coords);
-			final float x1 = coords[0];
-			final float y1 = -coords[1];
-			final float x2 = coords[2];
-			final float y2 = -coords[3];
-			final float x3 = coords[4];
-			final float y3 = -coords[5];
+		// Update the bounds, unless the shape is too small to be painted.
+		Rectangle2D shapeBounds = null;
 
-			switch(segmentType) {
-				case PathIterator.SEG_MOVETO:
-					append(x1 + " " + y1 + " moveto");
-					// count++;
-					x0 = x1;
-					y0 = y1;
-					break;
-				case PathIterator.SEG_LINETO:
-					append(x1 + " " + y1 + " lineto");
-					// count++;
-					x0 = x1;
-					y0 = y1;
-					break;
-				case PathIterator.SEG_CUBICTO:
-					append(x1 + " " + y1 + " " + x2 + " " + y2 + " " + x3 + " " + y3 + " curveto");
-					// count++;
-					x0 = x3;
-					y0 = y3;
-					break;
-				case PathIterator.SEG_QUADTO:
-					// Convert the quad curve into a cubic.
-					final float _x1 = x0 + 2 / 3f * (x1 - x0);
-					final float _y1 = y0 + 2 / 3f * (y1 - y0);
-					final float _x2 = x1 + 1 / 3f * (x2 - x1);
-					final float _y2 = y1 + 1 / 3f * (y2 - y1);
-					final float _x3 = x2;
-					final float _y3 = y2;
-					append(_x1 + " " + _y1 + " " + _x2 + " " + _y2 + " " + _x3 + " " + _y3 + " curveto");
-					// count++;
-					x0 = _x3;
-					y0 = _y3;
-					break;
-				case PathIterator.SEG_CLOSE:
-					append("closepath");
-					// count++;
-					break;
-				default:
-					break;
+		if(action != EpsOperator.CLIP) {
+			shapeBounds = transformedShape.getBounds2D();
+
+			if(cull(shapeBounds.getMinX(), shapeBounds.getMinY(), shapeBounds.getMaxX(), shapeBounds.getMaxY(), action)) {
+				return;
 			}
 
-			pathIterator.next();
+			updateBounds(shapeBounds.getMinX(), shapeBounds.getMinY(), shapeBounds.getMaxX(), shapeBounds.getMaxY());
+		}
+
+		// The stroke and color only need to be up to date when painting, and
+		// only their changes are actually appended.
+		beginOperation(action);
+
+		if(action != EpsOperator.CLIP && _document.getPathCacheRepeats() > 0 && appendCachedPath(transformedShape, action)) {
+			endOperation(action, shapeBounds.getMinX(), shapeBounds.getMinY(), shapeBounds.getMaxX(), shapeBounds.getMaxY());
+			return;
+		}
+
+		if(shapeBounds != null) {
+			beginPaint(action, shapeBounds.getMinX(), shapeBounds.getMinY(), shapeBounds.getMaxX(), shapeBounds.getMaxY());
+		}else {
+			appendOperator(EpsOperator.NEWPATH);
 		}
 
-		append(action);
-		append("newpath");
+		_path.newPath();
+		appendPath(transformedShape.getPathIterator(null), null);
+
+		endPaint(action, true);
+
+		if(shapeBounds != null) {
+			endOperation(action, shapeBounds.getMinX(), shapeBounds.getMinY(), shapeBounds.getMaxX(), shapeBounds.getMaxY());
+		}
 	}
 
 	/**
@@ -635,8 +2360,9 @@ public class EpsGraphics2D extends Graphics2D {
 	 */
 	@Override
 	public void drawArc(final int x, final int y, final int width, final int height, final int startAngle, final int arcAngle) {
-		final Shape shape = new Arc2D.Float(x, y, width, height, startAngle, arcAngle, Arc2D.OPEN);
-		draw(shape);
+		if(!appendArc(x, y, width, height, startAngle, arcAngle, Arc2D.OPEN, EpsOperator.STROKE)) {
+			draw(new Arc2D.Float(x, y, width, height, startAngle, arcAngle, Arc2D.OPEN));
+		}
 	}
 
 	/**
@@ -666,7 +2392,7 @@ public class EpsGraphics2D extends Graphics2D {
 	@Override
 	public void drawGlyphVector(final GlyphVector g, final float x, final float y) {
 		final Shape shape = g.getOutline(x, y);
-		draw(shape, "fill");
+		draw(shape, EpsOperator.FILL);
 	}
 
 	/**
@@ -753,23 +2479,22 @@ public class EpsGraphics2D extends Graphics2D {
 			throw new IllegalArgumentException("sy1 >= sy2");
 		}
 
-		append("gsave");
-
 		final int width = sx2 - sx1;
 		final int height = sy2 - sy1;
 		final int destWidth = dx2 - dx1;
 		final int destHeight = dy2 - dy1;
+		final ColorMode colorMode = getColorMode();
+		final EpsImageEncoder encoder = new EpsImageEncoder(img, sx1, sy1, width, height, colorMode, getImageEncoding(), getImageCompression(),
+				getDithering(), _document.isIndexedImages());
 
-		final int[] pixels = new int[width * height];
-		final PixelGrabber pg = new PixelGrabber(img, sx1, sy1, sx2 - sx1, sy2 - sy1, pixels, 0, width);
-
-		try {
-			pg.grabPixels();
-		}catch(final InterruptedException e) {
+		if(!encoder.grabPixels()) {
 			return false;
 		}
 
-		AffineTransform matrix = new AffineTransform(_transform);
+		appendMatrix();
+		appendGsave();
+
+		AffineTransform matrix = new AffineTransform(getCoordinateTransform());
 		matrix.translate(dx1, dy1);
 		matrix.scale(destWidth / (double) width, destHeight / (double) height);
 		final double[] m = new double[6];
@@ -785,12 +2510,18 @@ public class EpsGraphics2D extends Graphics2D {
 
 		matrix.scale(1, -1);
 		matrix.getMatrix(m);
-		final String bitsPerSample = "8";
-		// :TODO: Not using proper imagemask function yet
-		// if ( ColorMode.BLACK_AND_WHITE.equals( getColorDepth() ) ) {
-		// bitsPerSample = "true";
-		// }
-		append(width + " " + height + " " + bitsPerSample + " [" + m[0] + " " + m[1] + " " + m[2] + " " + m[3] + " " + m[4] + " " + m[5] + "]");
+		final boolean indexed = encoder.isIndexed();
+
+		if(!indexed) {
+			final EpsLineBuilder imageLine = line().integer(width).integer(height).integer(encoder.getBitsPerSample()).token("[");
+
+			for(final double element : m) {
+				imageLine.number(element);
+			}
+
+			imageLine.append(']');
+			appendLine();
+		}
 
 		// Fill the background to update the bounding box.
 		final Color oldColor = getColor();
@@ -798,66 +2529,30 @@ public class EpsGraphics2D extends Graphics2D {
 		fillRect(dx1, dy1, destWidth, destHeight);
 		setColor(oldColor);
 
-		final ColorMode colorMode = getColorMode();
-		switch(colorMode) {
-			case BLACK_AND_WHITE:
-			case GRAYSCALE:
-				// :TODO: Should really use imagemask.
-				append("{currentfile " + width + " string readhexstring pop} bind");
-				append("image");
-
-				break;
-			case COLOR_RGB:
-			case COLOR_CMYK:
-				// :NOTE: No difference between RGB and CMYK.
-				append("{currentfile 3 " + width + " mul string readhexstring pop} bind");
-				append("false 3 colorimage");
+		final String operator;
 
-				break;
-			default:
-				break;
-		}
+		if(indexed) {
+			appendIndexedImage(encoder, width, height, m);
+			operator = ">> image";
+		}else {
+			switch(colorMode) {
+				case BLACK_AND_WHITE:
+				case GRAYSCALE:
+					// An opaque 1-bit image rather than an imagemask, so that the
+					// white pixels cover what is below them.
+					operator = "image";
 
-		StringBuilder line = new StringBuilder();
-		for(int y = 0; y < height; y++) {
-			for(int x = 0; x < width; x++) {
-				final Color color = new Color(pixels[x + width * y]);
-
-				switch(colorMode) {
-					case BLACK_AND_WHITE:
-						if(color.getRed() + color.getGreen() + color.getBlue() > 255 * 1.5 - 1) {
-							line.append("ff");
-						}else {
-							line.append("00");
-						}
-
-						break;
-					case GRAYSCALE:
-						line.append(toHexString((color.getRed() + color.getGreen() + color.getBlue()) / 3));
-
-						break;
-					case COLOR_RGB:
-					case COLOR_CMYK:
-						// :NOTE: No difference between RGB and CMYK.
-						line.append(toHexString(color.getRed())).append(toHexString(color.getGreen())).append(toHexString(color.getBlue()));
-
-						break;
-					default:
-						break;
-				}
+					break;
+				default:
+					// :NOTE: No difference between RGB and CMYK.
+					operator = "false 3 colorimage";
 
-				if(line.length() > 64) {
-					append(line.toString());
-					line = new StringBuilder();
-				}
+					break;
 			}
 		}
 
-		if(line.length() > 0) {
-			append(line.toString());
-		}
-
-		append("grestore");
+		appendImage(encoder, height, operator);
+		appendGrestore();
 
 		return true;
 	}
@@ -878,8 +2573,56 @@ public class EpsGraphics2D extends Graphics2D {
 	 */
 	@Override
 	public void drawLine(final int x1, final int y1, final int x2, final int y2) {
-		final Shape shape = new Line2D.Float(x1, y1, x2, y2);
-		draw(shape);
+		if(isCulling()) {
+			final AffineTransform transform = getCoordinateTransform();
+			beginVertexBounds();
+			addVertexBounds(transform, x1, y1);
+			addVertexBounds(transform, x2, y2);
+
+			if(cull(_vertexBounds[0], _vertexBounds[1], _vertexBounds[2], _vertexBounds[3], EpsOperator.STROKE)) {
+				return;
+			}
+		}
+
+		beginVertices(EpsOperator.STROKE, false);
+		appendVertex(x1, y1);
+		appendVertex(x2, y2);
+		endVertices(false, EpsOperator.STROKE);
+	}
+
+	/**
+	 * Draws the outline of the same marker at each of the given points, as for a scatter
+	 * plot. The marker is defined once in the document, so that each point
+	 * only costs its coordinates. The marker is placed with its origin on the
+	 * point, and is transformed along with it.
+	 * @param marker The marker, centered on the origin of its coordinates
+	 * @param xPoints The x coordinates of the points
+	 * @param yPoints The y coordinates of the points
+	 * @param offset The index of the first point in both arrays
+	 * @param count The number of points
+	 * @since 1.6.0
+	 */
+	public void drawMarkers(final Shape marker, final double[] xPoints, final double[] yPoints, final int offset, final int count) {
+		appendMarkers(marker, xPoints, yPoints, null, null, offset, count, EpsOperator.STROKE);
+	}
+
+	/**
+	 * Draws the outline of the same marker at each of the given points, with an optional
+	 * size and color for each point.
+	 * @param marker The marker, centered on the origin of its coordinates
+	 * @param xPoints The x coordinates of the points
+	 * @param yPoints The y coordinates of the points
+	 * @param sizes The scale factor of the marker at each point, or null to
+	 * draw the marker as it is
+	 * @param colors The color of the marker at each point, or null to use
+	 * the current color
+	 * @param offset The index of the first point in all the arrays
+	 * @param count The number of points
+	 * @since 1.6.0
+	 */
+	public void drawMarkers(final Shape marker, final double[] xPoints, final double[] yPoints, final double[] sizes, final Color[] colors,
+			final int offset, final int count) {
+		appendMarkers(marker, xPoints, yPoints, sizes, colors, offset, count, EpsOperator.STROKE);
 	}
 
 	/**
@@ -888,8 +2631,9 @@ public class EpsGraphics2D extends Graphics2D {
 	 */
 	@Override
 	public void drawOval(final int x, final int y, final int width, final int height) {
-		final Shape shape = new Ellipse2D.Float(x, y, width, height);
-		draw(shape);
+		if(!appendArc(x, y, width, height, 0d, 360d, Arc2D.CHORD, EpsOperator.STROKE)) {
+			draw(new Ellipse2D.Float(x, y, width, height));
+		}
 	}
 
 	/**
@@ -898,35 +2642,114 @@ public class EpsGraphics2D extends Graphics2D {
 	 */
 	@Override
 	public void drawPolygon(final int[] xPoints, final int[] yPoints, final int nPoints) {
-		final Shape shape = new Polygon(xPoints, yPoints, nPoints);
-		draw(shape);
+		appendPolyline(xPoints, yPoints, nPoints, true, EpsOperator.STROKE);
+	}
+
+	/**
+	 * Draws a polygon.
+	 * @since 0.1
+	 */
+	@Override
+	public void drawPolygon(final Polygon p) {
+		if(p != null) {
+			appendPolyline(p.xpoints, p.ypoints, p.npoints, true, EpsOperator.STROKE);
+		}
+	}
+
+	/**
+	 * Draws a closed polygon given by the coordinates of its vertices in two
+	 * arrays, without rounding them to integers.
+	 * @param xPoints The x coordinates of the vertices
+	 * @param yPoints The y coordinates of the vertices
+	 * @param offset The index of the first vertex in both arrays
+	 * @param count The number of vertices to draw
+	 * @since 1.6.0
+	 */
+	public void drawPolygon(final double[] xPoints, final double[] yPoints, final int offset, final int count) {
+		appendPolyline(xPoints, yPoints, offset, count, true, EpsOperator.STROKE);
+	}
+
+	/**
+	 * Draws a polyline.
+	 * @since 0.1
+	 */
+	@Override
+	public void drawPolyline(final int[] xPoints, final int[] yPoints, final int nPoints) {
+		appendPolyline(xPoints, yPoints, nPoints, false, EpsOperator.STROKE);
 	}
 
-	/**
-	 * Draws a polygon.
-	 * @since 0.1
-	 */
-	@Override
-	public void drawPolygon(final Polygon p) {
-		draw(p);
+	/**
+	 * Draws a polyline given by the coordinates of its vertices in two
+	 * arrays, without rounding them to integers. The vertices are streamed
+	 * to the document as they are transformed, so that even very long
+	 * polylines are drawn without copying them.
+	 * @param xPoints The x coordinates of the vertices
+	 * @param yPoints The y coordinates of the vertices
+	 * @param offset The index of the first vertex in both arrays
+	 * @param count The number of vertices to draw
+	 * @since 1.6.0
+	 */
+	public void drawPolyline(final double[] xPoints, final double[] yPoints, final int offset, final int count) {
+		appendPolyline(xPoints, yPoints, offset, count, false, EpsOperator.STROKE);
+	}
+
+	/**
+	 * Draws a polyline given by the coordinates of its vertices, passed as
+	 * consecutive x and y values.
+	 * @param xy The x and y coordinates of each vertex
+	 * @param offset The index of the x of the first vertex
+	 * @param count The number of vertices to draw
+	 * @since 1.6.0
+	 */
+	public void drawPolyline(final float[] xy, final int offset, final int count) {
+		if(count <= 0) {
+			return;
+		}
+
+		if(isCulling()) {
+			final AffineTransform transform = getCoordinateTransform();
+			beginVertexBounds();
+
+			for(int i = offset, end = offset + 2 * count; i < end; i += 2) {
+				addVertexBounds(transform, xy[i], xy[i + 1]);
+			}
+
+			if(cull(_vertexBounds[0], _vertexBounds[1], _vertexBounds[2], _vertexBounds[3], EpsOperator.STROKE)) {
+				return;
+			}
+		}
+
+		beginVertices(EpsOperator.STROKE, false);
+
+		for(int i = offset, end = offset + 2 * count; i < end; i += 2) {
+			appendVertex(xy[i], xy[i + 1]);
+		}
+
+		endVertices(false, EpsOperator.STROKE);
 	}
 
 	/**
-	 * Draws a polyline.
-	 * @since 0.1
+	 * Draws a polyline whose vertices are read from two iterators over their
+	 * x and y coordinates, until either of them is exhausted. The vertices
+	 * are streamed to the document, so that the polyline never has to be
+	 * held in memory. For the same reason, it is not culled, as its extent is
+	 * only known once it is written.
+	 * @param xPoints The x coordinates of the vertices
+	 * @param yPoints The y coordinates of the vertices
+	 * @since 1.6.0
 	 */
-	@Override
-	public void drawPolyline(final int[] xPoints, final int[] yPoints, final int nPoints) {
-		if(nPoints > 0) {
-			final GeneralPath path = new GeneralPath();
-			path.moveTo(xPoints[0], yPoints[0]);
+	public void drawPolyline(final PrimitiveIterator.OfDouble xPoints, final PrimitiveIterator.OfDouble yPoints) {
+		if(!xPoints.hasNext() || !yPoints.hasNext()) {
+			return;
+		}
 
-			for(int i = 1; i < nPoints; i++) {
-				path.lineTo(xPoints[i], yPoints[i]);
-			}
+		beginVertices(EpsOperator.STROKE, false);
 
-			draw(path);
+		while(xPoints.hasNext() && yPoints.hasNext()) {
+			appendVertex(xPoints.nextDouble(), yPoints.nextDouble());
 		}
+
+		endVertices(false, EpsOperator.STROKE);
 	}
 
 	/**
@@ -935,8 +2758,33 @@ public class EpsGraphics2D extends Graphics2D {
 	 */
 	@Override
 	public void drawRect(final int x, final int y, final int width, final int height) {
-		final Shape shape = new Rectangle(x, y, width, height);
-		draw(shape);
+		if(!appendRect(x, y, width, height, EpsOperator.STROKE)) {
+			appendRectPolygon(x, y, width, height, EpsOperator.STROKE);
+		}
+	}
+
+	/**
+	 * Draws the outlines of a batch of rectangles, passed as consecutive x, y,
+	 * width and height values. This is much more compact than drawing the
+	 * rectangles one by one, as they are passed to the rectstroke operator as
+	 * arrays of numbers.
+	 * @param xywh The x, y, width and height of each rectangle
+	 * @since 1.6.0
+	 */
+	public void drawRects(final double[] xywh) {
+		drawRects(xywh, 0, xywh.length / 4);
+	}
+
+	/**
+	 * Draws the outlines of a batch of rectangles, passed as consecutive x, y,
+	 * width and height values.
+	 * @param xywh The x, y, width and height of each rectangle
+	 * @param offset The index of the x of the first rectangle
+	 * @param count The number of rectangles to draw
+	 * @since 1.6.0
+	 */
+	public void drawRects(final double[] xywh, final int offset, final int count) {
+		appendRects(xywh, offset, count, EpsOperator.STROKE);
 	}
 
 	/**
@@ -989,22 +2837,23 @@ public class EpsGraphics2D extends Graphics2D {
 		if(isAccurateTextMode()) {
 			final TextLayout layout = new TextLayout(iterator, getFontRenderContext());
 			final Shape shape = layout.getOutline(AffineTransform.getTranslateInstance(x, y));
-			draw(shape, "fill");
+			draw(shape, EpsOperator.FILL);
 		}else {
-			append("newpath");
+			appendMatrix();
+			appendColor();
+			appendFont();
+			appendOperator(EpsOperator.NEWPATH);
 			final Point2D location = transform(x, y);
-			append(location.getX() + " " + location.getY() + " moveto");
-			final StringBuilder buffer = new StringBuilder();
+			line().coordinate(location.getX()).coordinate(location.getY()).operator(EpsOperator.MOVETO);
+			appendLine();
+			final EpsLineBuilder buffer = line().append('(');
 
 			for(char ch = iterator.first(); ch != CharacterIterator.DONE; ch = iterator.next()) {
-				if(ch == '(' || ch == ')') {
-					buffer.append('\\');
-				}
-
-				buffer.append(ch);
+				buffer.appendStringCharacter(ch);
 			}
 
-			append("(" + buffer.toString() + ") show");
+			buffer.append(')').operator(EpsOperator.SHOW);
+			appendLine();
 		}
 	}
 
@@ -1046,7 +2895,7 @@ public class EpsGraphics2D extends Graphics2D {
 	 */
 	@Override
 	public void fill(final Shape shape) {
-		draw(shape, "fill");
+		draw(shape, EpsOperator.FILL);
 	}
 
 	/**
@@ -1064,7 +2913,7 @@ public class EpsGraphics2D extends Graphics2D {
 			setColor(originalColor.darker().darker());
 		}
 
-		draw(new Rectangle(x, y, width, height), "fill");
+		fillRect(x, y, width, height);
 		setColor(originalColor);
 		draw3DRect(x, y, width, height, raised);
 	}
@@ -1075,8 +2924,44 @@ public class EpsGraphics2D extends Graphics2D {
 	 */
 	@Override
 	public void fillArc(final int x, final int y, final int width, final int height, final int startAngle, final int arcAngle) {
-		final Shape shape = new Arc2D.Float(x, y, width, height, startAngle, arcAngle, Arc2D.PIE);
-		draw(shape, "fill");
+		if(!appendArc(x, y, width, height, startAngle, arcAngle, Arc2D.PIE, EpsOperator.FILL)) {
+			draw(new Arc2D.Float(x, y, width, height, startAngle, arcAngle, Arc2D.PIE), EpsOperator.FILL);
+		}
+	}
+
+	/**
+	 * Fills the same marker at each of the given points, as for a scatter
+	 * plot. The marker is defined once in the document, so that each point
+	 * only costs its coordinates. The marker is placed with its origin on the
+	 * point, and is transformed along with it.
+	 * @param marker The marker, centered on the origin of its coordinates
+	 * @param xPoints The x coordinates of the points
+	 * @param yPoints The y coordinates of the points
+	 * @param offset The index of the first point in both arrays
+	 * @param count The number of points
+	 * @since 1.6.0
+	 */
+	public void fillMarkers(final Shape marker, final double[] xPoints, final double[] yPoints, final int offset, final int count) {
+		appendMarkers(marker, xPoints, yPoints, null, null, offset, count, EpsOperator.FILL);
+	}
+
+	/**
+	 * Fills the same marker at each of the given points, with an optional
+	 * size and color for each point.
+	 * @param marker The marker, centered on the origin of its coordinates
+	 * @param xPoints The x coordinates of the points
+	 * @param yPoints The y coordinates of the points
+	 * @param sizes The scale factor of the marker at each point, or null to
+	 * fill the marker as it is
+	 * @param colors The color of the marker at each point, or null to use
+	 * the current color
+	 * @param offset The index of the first point in all the arrays
+	 * @param count The number of points
+	 * @since 1.6.0
+	 */
+	public void fillMarkers(final Shape marker, final double[] xPoints, final double[] yPoints, final double[] sizes, final Color[] colors,
+			final int offset, final int count) {
+		appendMarkers(marker, xPoints, yPoints, sizes, colors, offset, count, EpsOperator.FILL);
 	}
 
 	/**
@@ -1085,8 +2970,9 @@ public class EpsGraphics2D extends Graphics2D {
 	 */
 	@Override
 	public void fillOval(final int x, final int y, final int width, final int height) {
-		final Shape shape = new Ellipse2D.Float(x, y, width, height);
-		draw(shape, "fill");
+		if(!appendArc(x, y, width, height, 0d, 360d, Arc2D.CHORD, EpsOperator.FILL)) {
+			draw(new Ellipse2D.Float(x, y, width, height), EpsOperator.FILL);
+		}
 	}
 
 	/**
@@ -1095,8 +2981,7 @@ public class EpsGraphics2D extends Graphics2D {
 	 */
 	@Override
 	public void fillPolygon(final int[] xPoints, final int[] yPoints, final int nPoints) {
-		final Shape shape = new Polygon(xPoints, yPoints, nPoints);
-		draw(shape, "fill");
+		appendPolyline(xPoints, yPoints, nPoints, true, EpsOperator.FILL);
 	}
 
 	/**
@@ -1105,7 +2990,22 @@ public class EpsGraphics2D extends Graphics2D {
 	 */
 	@Override
 	public void fillPolygon(final Polygon p) {
-		draw(p, "fill");
+		if(p != null) {
+			appendPolyline(p.xpoints, p.ypoints, p.npoints, true, EpsOperator.FILL);
+		}
+	}
+
+	/**
+	 * Fills a polygon given by the coordinates of its vertices in two arrays,
+	 * without rounding them to integers.
+	 * @param xPoints The x coordinates of the vertices
+	 * @param yPoints The y coordinates of the vertices
+	 * @param offset The index of the first vertex in both arrays
+	 * @param count The number of vertices to fill
+	 * @since 1.6.0
+	 */
+	public void fillPolygon(final double[] xPoints, final double[] yPoints, final int offset, final int count) {
+		appendPolyline(xPoints, yPoints, offset, count, true, EpsOperator.FILL);
 	}
 
 	/**
@@ -1114,8 +3014,33 @@ public class EpsGraphics2D extends Graphics2D {
 	 */
 	@Override
 	public void fillRect(final int x, final int y, final int width, final int height) {
-		final Shape shape = new Rectangle(x, y, width, height);
-		draw(shape, "fill");
+		if(!appendRect(x, y, width, height, EpsOperator.FILL)) {
+			appendRectPolygon(x, y, width, height, EpsOperator.FILL);
+		}
+	}
+
+	/**
+	 * Fills a batch of rectangles, passed as consecutive x, y, width and
+	 * height values. This is much more compact than filling the rectangles one
+	 * by one, as they are passed to the rectfill operator as arrays of numbers,
+	 * e.g. for the cells of a heat map or the bars of a chart.
+	 * @param xywh The x, y, width and height of each rectangle
+	 * @since 1.6.0
+	 */
+	public void fillRects(final double[] xywh) {
+		fillRects(xywh, 0, xywh.length / 4);
+	}
+
+	/**
+	 * Fills a batch of rectangles, passed as consecutive x, y, width and
+	 * height values.
+	 * @param xywh The x, y, width and height of each rectangle
+	 * @param offset The index of the x of the first rectangle
+	 * @param count The number of rectangles to fill
+	 * @since 1.6.0
+	 */
+	public void fillRects(final double[] xywh, final int offset, final int count) {
+		appendRects(xywh, offset, count, EpsOperator.FILL);
 	}
 
 	/**
@@ -1125,7 +3050,7 @@ public class EpsGraphics2D extends Graphics2D {
 	@Override
 	public void fillRoundRect(final int x, final int y, final int width, final int height, final int arcWidth, final int arcHeight) {
 		final Shape shape = new RoundRectangle2D.Float(x, y, width, height, arcWidth, arcHeight);
-		draw(shape, "fill");
+		draw(shape, EpsOperator.FILL);
 	}
 
 	/**
@@ -1250,6 +3175,64 @@ public class EpsGraphics2D extends Graphics2D {
 		return _color;
 	}
 
+	/**
+	 * Returns how the dense polylines of this context are reduced before they
+	 * are written.
+	 * @return The reduction applied to polylines
+	 * @since 1.6.0
+	 */
+	public EpsDecimation getDecimation() {
+		return _decimation;
+	}
+
+	/**
+	 * Returns the tolerance of the reduction of polylines.
+	 * @return The tolerance, in points of the output page, or in document
+	 * units for in-memory documents
+	 * @since 1.6.0
+	 */
+	public double getDecimationTolerance() {
+		return _decimationTolerance;
+	}
+
+	/**
+	 * Returns whether the primitives that are entirely outside of the visible
+	 * area are skipped.
+	 * @return true if invisible primitives are skipped; false otherwise
+	 * @since 1.6.0
+	 */
+	public boolean isCullInvisible() {
+		return _cullInvisible;
+	}
+
+	/**
+	 * Returns whether the stroked polylines are trimmed to their visible
+	 * segments.
+	 * @return true if polylines are trimmed; false otherwise
+	 * @since 1.6.0
+	 */
+	public boolean isTrimPolylines() {
+		return _trimPolylines;
+	}
+
+	/**
+	 * Returns how the primitives too small to be seen are handled.
+	 * @return The detail policy
+	 * @since 1.6.0
+	 */
+	public EpsDetailPolicy getDetailPolicy() {
+		return _detailPolicy;
+	}
+
+	/**
+	 * Returns the size below which primitives are too small to be seen.
+	 * @return The detail threshold, in points of the output page
+	 * @since 1.6.0
+	 */
+	public double getDetailThreshold() {
+		return _detailThreshold;
+	}
+
 	/**
 	 * Returns the Color Mode used for all drawing operations.
 	 * @return The Color Mode to use for the EPS document
@@ -1290,6 +3273,16 @@ public class EpsGraphics2D extends Graphics2D {
 		return gc;
 	}
 
+	/**
+	 * Returns how the images drawn from now on are reduced to black and white
+	 * pixels, in black and white.
+	 * @return The dithering of images
+	 * @since 1.6.0
+	 */
+	public EpsDithering getDithering() {
+		return _dithering != null ? _dithering : _document.getDithering();
+	}
+
 	/**
 	 * Returns the Font currently being used.
 	 * @since 0.1
@@ -1329,6 +3322,26 @@ public class EpsGraphics2D extends Graphics2D {
 		return FONT_RENDER_CONTEXT;
 	}
 
+	/**
+	 * Returns the compression of the data of the images drawn from now on.
+	 * @return The compression of the image data
+	 * @since 1.6.0
+	 */
+	public EpsImageCompression getImageCompression() {
+		return _imageCompression != null ? _imageCompression : _document.getImageCompression();
+	}
+
+	/**
+	 * Returns the encoding of the data of the images drawn from now on. Binary
+	 * data falls back to hexadecimal data if the document cannot take it.
+	 * @return The encoding of the image data
+	 * @since 1.6.0
+	 */
+	public EpsImageEncoding getImageEncoding() {
+		final EpsImageEncoding imageEncoding = _imageEncoding != null ? _imageEncoding : _document.getImageEncoding();
+		return imageEncoding == EpsImageEncoding.BINARY && !_document.isBinaryOutput() ? EpsImageEncoding.HEX : imageEncoding;
+	}
+
 	/**
 	 * Returns the current Paint of the EpsGraphics2D object.
 	 * @since 0.1
@@ -1402,6 +3415,45 @@ public class EpsGraphics2D extends Graphics2D {
 		return hit(rect, _clip, true);
 	}
 
+	/**
+	 * Returns the transform that is applied to the coordinates before they are
+	 * written, which is the identity in native transform mode, as the
+	 * interpreter then applies the transform itself.
+	 * @return The transform of the coordinates, which must not be modified
+	 * @since 1.6.0
+	 */
+	private AffineTransform getCoordinateTransform() {
+		return _nativeTransforms ? IDENTITY : _transform;
+	}
+
+	/**
+	 * Returns the rectangle operator that performs a painting action.
+	 * @param action The painting action, as FILL, STROKE or CLIP
+	 * @return The matching rectangle operator
+	 * @since 1.6.0
+	 */
+	private static EpsOperator getRectOperator(final EpsOperator action) {
+		switch(action) {
+			case STROKE:
+				return EpsOperator.RECTSTROKE;
+			case CLIP:
+				return EpsOperator.RECTCLIP;
+			default:
+				return EpsOperator.RECTFILL;
+		}
+	}
+
+	/**
+	 * Returns whether the current transform keeps rectangles axis-aligned,
+	 * i.e. whether it only scales and translates.
+	 * @return true if rectangles stay axis-aligned; false otherwise
+	 * @since 1.6.0
+	 */
+	private boolean isRectilinear() {
+		final AffineTransform transform = getCoordinateTransform();
+		return transform.getShearX() == 0d && transform.getShearY() == 0d;
+	}
+
 	/**
 	 * Returns whether accurate text mode is being used.
 	 * @return true if Accurate Text Mode is set; false otherwise
@@ -1411,6 +3463,22 @@ public class EpsGraphics2D extends Graphics2D {
 		return _accurateTextMode;
 	}
 
+	/**
+	 * Activates this context on the EpsDocument and returns its cleared line
+	 * builder, ready for composing a new content line.
+	 * @return The line builder of this context
+	 * @see #appendLine()
+	 * @since 1.6.0
+	 */
+	private EpsLineBuilder line() {
+		// The context is activated when the recorded lines are written.
+		if(!_recording) {
+			_document.activate(this);
+		}
+
+		return _line.clear();
+	}
+
 	/**
 	 * Concatenates the current EpsGraphics2D Transform with a rotation
 	 * transform.
@@ -1428,7 +3496,8 @@ public class EpsGraphics2D extends Graphics2D {
 	 */
 	@Override
 	public void rotate(final double theta, final double rotateX, final double rotateY) {
-		transform(AffineTransform.getRotateInstance(theta, rotateX, rotateY));
+		_transform.rotate(theta, rotateX, rotateY);
+		updateNativeTransform();
 	}
 
 	/**
@@ -1438,7 +3507,8 @@ public class EpsGraphics2D extends Graphics2D {
 	 */
 	@Override
 	public void scale(final double scaleX, final double scaleY) {
-		transform(AffineTransform.getScaleInstance(scaleX, scaleY));
+		_transform.scale(scaleX, scaleY);
+		updateNativeTransform();
 	}
 
 	/**
@@ -1491,23 +3561,25 @@ public class EpsGraphics2D extends Graphics2D {
 	public void setClip(final Shape clip) {
 		if(clip != null) {
 			if(_document.isClipSet()) {
-				append("grestore");
-				append("gsave");
+				appendGrestore();
+				appendGsave();
 			}else {
 				_document.setClipSet(true);
-				append("gsave");
+				appendGsave();
 			}
 
-			draw(clip, "clip");
+			draw(clip, EpsOperator.CLIP);
 			_clip = clip;
+			_clipBounds = _transform.createTransformedShape(clip).getBounds2D();
 			_clipTransform = (AffineTransform) _transform.clone();
 		}else {
 			if(_document.isClipSet()) {
-				append("grestore");
+				appendGrestore();
 				_document.setClipSet(false);
 			}
 
 			_clip = null;
+			_clipBounds = null;
 		}
 	}
 
@@ -1517,46 +3589,94 @@ public class EpsGraphics2D extends Graphics2D {
 	 */
 	@Override
 	public void setColor(final Color color) {
+		// The color is only emitted once something is painted with it.
 		_color = color != null ? color : Color.BLACK;
+	}
 
-		final ColorMode colorMode = getColorMode();
-		switch(colorMode) {
-			case BLACK_AND_WHITE:
-				float bwValue = 0;
-
-				if(_color.getRed() + _color.getGreen() + _color.getBlue() > 255 * 1.5 - 1) {
-					bwValue = 1;
-				}
-
-				append(bwValue + " setgray");
-
-				break;
-			case GRAYSCALE:
-				final float grayValue = (_color.getRed() + _color.getGreen() + _color.getBlue()) / (3 * 255f);
+	/**
+	 * Sets how the dense polylines of this context are reduced before they are
+	 * written, which applies to the polyline and polygon methods and to the
+	 * runs of straight segments of any other shape. A series with many more
+	 * vertices than the output can show then only costs as many vertices as
+	 * are visible. The tolerance is given in points of the output page, and
+	 * is the width of the columns of the MIN_MAX reduction, or the maximum
+	 * distance of the dropped vertices to the simplified polyline of the
+	 * DOUGLAS_PEUCKER reduction. In-memory documents do not know their scale
+	 * factor while drawing, so their tolerance is taken in document units,
+	 * i.e. in the device space of the graphics contexts.
+	 * @param decimation The reduction to apply, or NONE to write every vertex
+	 * @param tolerance The tolerance, in points of the output page, or in
+	 * document units for in-memory documents
+	 * @since 1.6.0
+	 */
+	public void setDecimation(final EpsDecimation decimation, final double tolerance) {
+		_decimation = decimation != null ? decimation : EpsDecimation.NONE;
+		_decimationTolerance = tolerance;
 
-				append(grayValue + " setgray");
+		if(_decimator != null && _decimator.getDecimation() != _decimation) {
+			_decimator = null;
+		}
+	}
 
-				break;
-			case COLOR_RGB:
-				append(_color.getRed() / 255f + " " + _color.getGreen() / 255f + " " + _color.getBlue() / 255f + " setrgbcolor");
+	/**
+	 * Sets whether the primitives that are entirely outside of the clip, or of
+	 * the box declared when the document was constructed, are skipped rather
+	 * than written. The test is made on the bounds of each primitive widened
+	 * by the extent of the stroke, so it is cheap and never skips anything
+	 * visible. The skipped primitives are counted in the cull statistics of
+	 * the document.
+	 * @param cullInvisible Set to true to skip invisible primitives; false otherwise
+	 * @see org.sourceforge.jlibeps.epsgraphics.EpsDocument#getPageBounds()
+	 * @since 1.6.0
+	 */
+	public void setCullInvisible(final boolean cullInvisible) {
+		_cullInvisible = cullInvisible;
+	}
 
-				break;
-			case COLOR_CMYK:
-				if(Color.BLACK.equals(_color)) {
-					append("0.0 0.0 0.0 1.0 setcmykcolor");
-				}else {
-					final double c = 1 - _color.getRed() / 255f;
-					final double m = 1 - _color.getGreen() / 255f;
-					final double y = 1 - _color.getBlue() / 255f;
-					final double k = Math.min(Math.min(c, y), m);
+	/**
+	 * Sets how the primitives too small to be seen are handled. A primitive
+	 * is too small if the largest side of its painted extent, line width
+	 * included, is below the threshold. This applies to the shapes, lines,
+	 * rectangles, arcs, polygons, polylines and markers, but not to the
+	 * polylines streamed from iterators, whose extent is only known once they
+	 * are written. The culled primitives are counted in the
+	 * cull statistics of the document.
+	 * @param detailPolicy The detail policy, or KEEP to paint every primitive
+	 * @param threshold The detail threshold, in points of the output page
+	 * @see org.sourceforge.jlibeps.epsgraphics.EpsDocument#getCullStatistics()
+	 * @since 1.6.0
+	 */
+	public void setDetailPolicy(final EpsDetailPolicy detailPolicy, final double threshold) {
+		_detailPolicy = detailPolicy != null ? detailPolicy : EpsDetailPolicy.KEEP;
+		_detailThreshold = threshold;
+	}
 
-					append((c - k) / (1 - k) + " " + (m - k) / (1 - k) + " " + (y - k) / (1 - k) + " " + k + " setcmykcolor");
-				}
+	/**
+	 * Sets how the images drawn from now on with this graphics context are
+	 * reduced to black and white pixels in black and white, in place of the
+	 * dithering of the document.
+	 * @param dithering The dithering of images, or null to use that of the
+	 * document
+	 * @see org.sourceforge.jlibeps.epsgraphics.EpsSettings#setDithering(EpsDithering)
+	 * @since 1.6.0
+	 */
+	public void setDithering(final EpsDithering dithering) {
+		_dithering = dithering;
+	}
 
-				break;
-			default:
-				break;
-		}
+	/**
+	 * Sets whether the stroked polylines are trimmed to the segments that
+	 * cross the visible area, i.e. the clip and the box declared when the
+	 * document was constructed. The invisible stretches of a polyline are
+	 * left out, and the visible ones are written as separate subpaths. This
+	 * applies to the open polylines of the polyline methods, unless they are
+	 * dashed, as their dashes would restart on each subpath. The left out
+	 * vertices are counted in the cull statistics of the document.
+	 * @param trimPolylines Set to true to trim polylines; false otherwise
+	 * @since 1.6.0
+	 */
+	public void setTrimPolylines(final boolean trimPolylines) {
+		_trimPolylines = trimPolylines;
 	}
 
 	/**
@@ -1581,8 +3701,10 @@ public class EpsGraphics2D extends Graphics2D {
 	public void setDefaults() {
 		_backgroundColor = Color.WHITE;
 		_clip = null;
+		_clipBounds = null;
 		_clipTransform = new AffineTransform();
 		_transform = new AffineTransform();
+		updateNativeTransform();
 		_accurateTextMode = true;
 
 		setStroke(new BasicStroke());
@@ -1598,11 +3720,37 @@ public class EpsGraphics2D extends Graphics2D {
 	 */
 	@Override
 	public void setFont(final Font font) {
+		// The font is only emitted once some text is shown with it.
 		_font = font != null ? font : Font.decode(null);
+	}
 
-		if(!isAccurateTextMode()) {
-			append("/" + _font.getPSName() + " findfont " + _font.getSize() + " scalefont setfont");
-		}
+	/**
+	 * Sets the compression of the data of the images drawn from now on with
+	 * this graphics context, in place of that of the document. As with the
+	 * encoding, the language level declared by the document only accounts for
+	 * the settings of the document.
+	 * @param imageCompression The compression of the image data, or null to
+	 * use that of the document
+	 * @see org.sourceforge.jlibeps.epsgraphics.EpsSettings#setImageCompression(EpsImageCompression)
+	 * @since 1.6.0
+	 */
+	public void setImageCompression(final EpsImageCompression imageCompression) {
+		_imageCompression = imageCompression;
+	}
+
+	/**
+	 * Sets the encoding of the data of the images drawn from now on with this
+	 * graphics context, in place of that of the document. The language level
+	 * declared by the document only accounts for the settings of the
+	 * document, so ASCII85 should be set there when the document is meant
+	 * for Level 2 interpreters.
+	 * @param imageEncoding The encoding of the image data, or null to use
+	 * that of the document
+	 * @see org.sourceforge.jlibeps.epsgraphics.EpsSettings#setImageEncoding(EpsImageEncoding)
+	 * @since 1.6.0
+	 */
+	public void setImageEncoding(final EpsImageEncoding imageEncoding) {
+		_imageEncoding = imageEncoding;
 	}
 
 	/**
@@ -1669,15 +3817,15 @@ public class EpsGraphics2D extends Graphics2D {
 	 */
 	@Override
 	public void setTransform(final AffineTransform transform) {
+		// The transform is private to this context, so it is updated in place.
+		// The stroke and font are emitted lazily, so they need no update.
 		if(transform == null) {
-			_transform = new AffineTransform();
+			_transform.setToIdentity();
 		}else {
-			_transform = new AffineTransform(transform);
+			_transform.setTransform(transform);
 		}
 
-		// Need to update the stroke and font so they know the scale changed.
-		setStroke(getStroke());
-		setFont(getFont());
+		updateNativeTransform();
 	}
 
 	/**
@@ -1697,7 +3845,8 @@ public class EpsGraphics2D extends Graphics2D {
 	 */
 	@Override
 	public void shear(final double shearX, final double shearY) {
-		transform(AffineTransform.getShearInstance(shearX, shearY));
+		_transform.shear(shearX, shearY);
+		updateNativeTransform();
 	}
 
 	/**
@@ -1742,7 +3891,7 @@ public class EpsGraphics2D extends Graphics2D {
 	@Override
 	public void transform(final AffineTransform transform) {
 		_transform.concatenate(transform);
-		setTransform(getTransform());
+		updateNativeTransform();
 	}
 
 	/**
@@ -1755,7 +3904,7 @@ public class EpsGraphics2D extends Graphics2D {
 	 */
 	private Point2D transform(final float x, final float y) {
 		Point2D result = new Point2D.Float(x, y);
-		result = _transform.transform(result, result);
+		result = getCoordinateTransform().transform(result, result);
 		result.setLocation(result.getX(), -result.getY());
 		return result;
 	}
@@ -1767,7 +3916,7 @@ public class EpsGraphics2D extends Graphics2D {
 	 */
 	@Override
 	public void translate(final double translateX, final double translateY) {
-		transform(AffineTransform.getTranslateInstance(translateX, translateY));
+		_transform.translate(translateX, translateY);
 	}
 
 	/**
@@ -1779,4 +3928,283 @@ public class EpsGraphics2D extends Graphics2D {
 	public void translate(final int translateX, final int translateY) {
 		translate((double) translateX, (double) translateY);
 	}
+
+	/**
+	 * Computes the visible area of the page in device space, as the bounds of
+	 * the clip intersected with the declared box of the document, into the
+	 * window bounds.
+	 * @return true if the visible area is bounded; false otherwise
+	 * @since 1.6.0
+	 */
+	private boolean computeWindow() {
+		_windowBounds[0] = Double.NEGATIVE_INFINITY;
+		_windowBounds[1] = Double.NEGATIVE_INFINITY;
+		_windowBounds[2] = Double.POSITIVE_INFINITY;
+		_windowBounds[3] = Double.POSITIVE_INFINITY;
+
+		if(_clipBounds != null) {
+			_windowBounds[0] = _clipBounds.getMinX();
+			_windowBounds[1] = _clipBounds.getMinY();
+			_windowBounds[2] = _clipBounds.getMaxX();
+			_windowBounds[3] = _clipBounds.getMaxY();
+		}
+
+		final Rectangle2D pageBounds = _document.getPageBounds();
+
+		if(pageBounds != null) {
+			_windowBounds[0] = Math.max(_windowBounds[0], pageBounds.getMinX());
+			_windowBounds[1] = Math.max(_windowBounds[1], pageBounds.getMinY());
+			_windowBounds[2] = Math.min(_windowBounds[2], pageBounds.getMaxX());
+			_windowBounds[3] = Math.min(_windowBounds[3], pageBounds.getMaxY());
+		}
+
+		return _clipBounds != null || pageBounds != null;
+	}
+
+	/**
+	 * Computes the visible area of the page in the units of the written
+	 * coordinates, widened by the extent of the strokes, into the window
+	 * bounds. In native transform mode, this is the bounding box of the area
+	 * mapped back to user space.
+	 * @return true if the visible area is bounded; false otherwise
+	 * @since 1.6.0
+	 */
+	private boolean computeTrimWindow() {
+		if(!computeWindow()) {
+			return false;
+		}
+
+		final double margin = getDeviceStrokeMargin();
+		final double minX = _windowBounds[0] - margin;
+		final double minY = _windowBounds[1] - margin;
+		final double maxX = _windowBounds[2] + margin;
+		final double maxY = _windowBounds[3] + margin;
+
+		if(!_nativeTransforms || _transform.isIdentity()) {
+			_windowBounds[0] = minX;
+			_windowBounds[1] = minY;
+			_windowBounds[2] = maxX;
+			_windowBounds[3] = maxY;
+			return true;
+		}
+
+		final double m00 = _transform.getScaleX();
+		final double m10 = _transform.getShearY();
+		final double m01 = _transform.getShearX();
+		final double m11 = _transform.getScaleY();
+		final double determinant = m00 * m11 - m01 * m10;
+
+		if(determinant == 0d || Double.isInfinite(maxX - minX) || Double.isInfinite(maxY - minY)) {
+			return false;
+		}
+
+		// The extremes of the inverse mapping of a rectangle are reached at
+		// its corners.
+		final double x1 = minX - _transform.getTranslateX();
+		final double y1 = minY - _transform.getTranslateY();
+		final double x2 = maxX - _transform.getTranslateX();
+		final double y2 = maxY - _transform.getTranslateY();
+		final double a = m11 / determinant;
+		final double b = -m01 / determinant;
+		final double c = -m10 / determinant;
+		final double d = m00 / determinant;
+		_windowBounds[0] = Math.min(a * x1, a * x2) + Math.min(b * y1, b * y2);
+		_windowBounds[1] = Math.min(c * x1, c * x2) + Math.min(d * y1, d * y2);
+		_windowBounds[2] = Math.max(a * x1, a * x2) + Math.max(b * y1, b * y2);
+		_windowBounds[3] = Math.max(c * x1, c * x2) + Math.max(d * y1, d * y2);
+		return true;
+	}
+
+	/**
+	 * Returns half the line width of the current stroke in device space.
+	 * @since 1.6.0
+	 */
+	private float getDeviceLineRadius() {
+		float lineRadius = 0.5f * _stroke.getLineWidth();
+
+		// In native transform mode the line width is transformed along with
+		// the shapes.
+		if(_nativeTransforms && !_transform.isIdentity()) {
+			lineRadius *= (float) getTransformScale();
+		}
+
+		return lineRadius;
+	}
+
+	/**
+	 * Returns how far the current stroke may paint beyond the geometry of a
+	 * path in device space, including its joins and caps.
+	 * @since 1.6.0
+	 */
+	private double getDeviceStrokeMargin() {
+		final double lineRadius = getDeviceLineRadius();
+
+		if(_stroke.getLineJoin() == BasicStroke.JOIN_MITER) {
+			return lineRadius * Math.max(_stroke.getMiterLimit(), Math.sqrt(2d));
+		}
+
+		return lineRadius * Math.sqrt(2d);
+	}
+
+	/**
+	 * Returns the largest scale of the transform along the axes of user space,
+	 * which bounds how much a rounding of the coordinates can grow on its way
+	 * to device space in native transform mode.
+	 * @since 1.6.0
+	 */
+	private double getTransformScale() {
+		return Math.max(Math.hypot(_transform.getScaleX(), _transform.getShearY()), Math.hypot(_transform.getShearX(), _transform.getScaleY()));
+	}
+
+	/**
+	 * Returns whether the painted extent of a primitive, given the bounds of
+	 * its geometry in the units of the written coordinates, is below the
+	 * detail threshold, so that the detail policy applies to it.
+	 * @param action The painting action, as FILL or STROKE
+	 * @since 1.6.0
+	 */
+	private boolean isBelowDetail(final double minX, final double minY, final double maxX, final double maxY, final EpsOperator action) {
+		if(_detailPolicy == EpsDetailPolicy.KEEP) {
+			return false;
+		}
+
+		final double lineWidth = action == EpsOperator.STROKE ? _stroke.getLineWidth() : 0d;
+		return Math.max(maxX - minX, maxY - minY) + lineWidth < toCoordinateUnits(_detailThreshold);
+	}
+
+	/**
+	 * Returns whether the primitives are checked before they are painted, to
+	 * cull them.
+	 * @since 1.6.0
+	 */
+	private boolean isCulling() {
+		return _cullInvisible || _detailPolicy != EpsDetailPolicy.KEEP;
+	}
+
+	/**
+	 * Returns whether an area given in the units of the written coordinates,
+	 * widened by the extent of the stroke if it is stroked, intersects the
+	 * visible area of the page.
+	 * @param action The painting action, as FILL or STROKE
+	 * @since 1.6.0
+	 */
+	private boolean isVisible(final double minX, final double minY, final double maxX, final double maxY, final EpsOperator action) {
+		if(!computeWindow()) {
+			return true;
+		}
+
+		mapBounds(minX, minY, maxX, maxY);
+		final double margin = action == EpsOperator.STROKE ? getDeviceStrokeMargin() : 0d;
+
+		return _deviceBounds[2] + margin >= _windowBounds[0] && _deviceBounds[0] - margin <= _windowBounds[2] &&
+				_deviceBounds[3] + margin >= _windowBounds[1] && _deviceBounds[1] - margin <= _windowBounds[3];
+	}
+
+	/**
+	 * Maps an area given in the units of the written coordinates to device
+	 * space, into the device bounds. In native transform mode the area is in
+	 * user space, so its bounds are transformed.
+	 * @since 1.6.0
+	 */
+	private void mapBounds(final double minX, final double minY, final double maxX, final double maxY) {
+		if(_nativeTransforms && !_transform.isIdentity()) {
+			final double m00 = _transform.getScaleX();
+			final double m10 = _transform.getShearY();
+			final double m01 = _transform.getShearX();
+			final double m11 = _transform.getScaleY();
+			_deviceBounds[0] = m00 * (m00 < 0d ? maxX : minX) + m01 * (m01 < 0d ? maxY : minY) + _transform.getTranslateX();
+			_deviceBounds[1] = m10 * (m10 < 0d ? maxX : minX) + m11 * (m11 < 0d ? maxY : minY) + _transform.getTranslateY();
+			_deviceBounds[2] = _deviceBounds[0] + Math.abs(m00) * (maxX - minX) + Math.abs(m01) * (maxY - minY);
+			_deviceBounds[3] = _deviceBounds[1] + Math.abs(m10) * (maxX - minX) + Math.abs(m11) * (maxY - minY);
+		}else {
+			_deviceBounds[0] = minX;
+			_deviceBounds[1] = minY;
+			_deviceBounds[2] = maxX;
+			_deviceBounds[3] = maxY;
+		}
+	}
+
+	/**
+	 * Converts a length in points of the output page to the units of the
+	 * written coordinates, with the scale factor of the document page. In-memory
+	 * documents do not know their scale factor while drawing, so the length
+	 * is then taken as already in document units.
+	 * @param points The length, in points of the output page
+	 * @return The length, in the units of the written coordinates
+	 * @since 1.6.0
+	 */
+	private double toCoordinateUnits(final double points) {
+		double length = points;
+		final double scaleFactor = _document.getScaleFactor();
+
+		if(scaleFactor > 0d) {
+			length /= scaleFactor;
+		}
+
+		// In native transform mode the coordinates are in user space, which
+		// the transform scales on its way to the page.
+		if(_nativeTransforms) {
+			length /= getTransformScale();
+		}
+
+		return length;
+	}
+
+	/**
+	 * Extends the bounding box of the document to a painted area given in
+	 * device space, as far as it is visible through the clip and including
+	 * the half of the line width that may stick out of it.
+	 * @since 1.6.0
+	 */
+	private void updateBounds(final double minX, final double minY, final double maxX, final double maxY) {
+		mapBounds(minX, minY, maxX, maxY);
+		double visibleMinX = _deviceBounds[0];
+		double visibleMinY = _deviceBounds[1];
+		double visibleMaxX = _deviceBounds[2];
+		double visibleMaxY = _deviceBounds[3];
+		final float lineRadius = getDeviceLineRadius();
+
+		if(_clipBounds != null) {
+			visibleMinX = Math.max(visibleMinX, _clipBounds.getMinX());
+			visibleMinY = Math.max(visibleMinY, _clipBounds.getMinY());
+			visibleMaxX = Math.min(visibleMaxX, _clipBounds.getMaxX());
+			visibleMaxY = Math.min(visibleMaxY, _clipBounds.getMaxY());
+		}
+
+		_document.updateBounds((float) visibleMinX - lineRadius, -((float) visibleMinY - lineRadius));
+		_document.updateBounds((float) visibleMaxX + lineRadius, -((float) visibleMaxY + lineRadius));
+	}
+
+	/**
+	 * Brings the native transform mode and the coordinate precision of the
+	 * line builders up to date with the transform. A transform that cannot be
+	 * inverted is applied to the coordinates, as the interpreter would fail on
+	 * the next painting operator with a singular matrix. Otherwise, the
+	 * coordinates are in user space, so the grid or the decimals meant for
+	 * document units are scaled down by the largest scale of the transform,
+	 * which keeps the rounding within bounds along every axis. The line
+	 * builders are only reconfigured when the scale actually changes.
+	 * @since 1.6.0
+	 */
+	private void updateNativeTransform() {
+		if(!_document.isNativeTransforms()) {
+			return;
+		}
+
+		final double determinant = _transform.getDeterminant();
+		_nativeTransforms = Math.abs(determinant) > Double.MIN_VALUE && !Double.isInfinite(determinant);
+		final double scale = _nativeTransforms ? getTransformScale() : 1d;
+
+		if(scale == _coordinateScale) {
+			return;
+		}
+
+		_coordinateScale = scale;
+		_document.setCoordinatePrecision(_line, scale);
+		_document.setCoordinatePrecision(_path.getLineBuilder(), scale);
+
+		if(_procedure != null) {
+			_document.setCoordinatePrecision(_procedure, scale);
+		}
+	}
 }
@@ -0,0 +1,295 @@
+/**
+ * Copyright (c) 2001, 2006, Paul James Mutton
+ * Copyright (c) 2007, Arnaud Blouin
+ * All rights reserved.
+ * This file is part of jlibeps, merged with similar code from EPS Graphics, and
+ * expanded by Meyer Sound Laboratories Inc.
+ * jlibeps is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * jlibeps is distributed without any warranty; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the GNU General Public License for more details.
+ * Project: http://www.jibble.org/
+ */
+package org.sourceforge.jlibeps.epsgraphics;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.geom.AffineTransform;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import net.sf.epsgraphics.ColorMode;
+
+/**
+ * This class mirrors the graphics state of the PostScript interpreter while an
+ * EPS document is being written, so that the graphics contexts only emit the
+ * stroke, color, font and matrix commands that actually change something. The state
+ * is shared by all the EpsGraphics2D objects that point to the same document,
+ * and follows the gsave and grestore nesting of the document.
+ * Each update function records the new value and returns whether the
+ * corresponding PostScript command needs to be emitted.
+ * @version 1.6.0
+ */
+public class EpsGraphicsState {
+	private static final float[] NO_DASH = new float[0];
+
+	/**
+	 * The part of the interpreter graphics state that is tracked. The initial
+	 * values are the PostScript defaults.
+	 */
+	private static final class Snapshot {
+		private BasicStroke _stroke = null;
+		private float _lineWidth = 1f;
+		private float _miterLimit = 10f;
+		private int _lineJoin = BasicStroke.JOIN_MITER;
+		private int _lineCap = BasicStroke.CAP_BUTT;
+		private float[] _dashArray = NO_DASH;
+		private float _dashPhase = 0f;
+		private int _rgb = Color.BLACK.getRGB();
+		private ColorMode _colorMode = null;
+		private boolean _colorKnown = true;
+		private Font _font = null;
+		private final AffineTransform _matrix = new AffineTransform();
+		private boolean _matrixKnown = true;
+
+		private void copyFrom(final Snapshot snapshot) {
+			_stroke = snapshot._stroke;
+			_lineWidth = snapshot._lineWidth;
+			_miterLimit = snapshot._miterLimit;
+			_lineJoin = snapshot._lineJoin;
+			_lineCap = snapshot._lineCap;
+			_dashArray = snapshot._dashArray;
+			_dashPhase = snapshot._dashPhase;
+			_rgb = snapshot._rgb;
+			_colorMode = snapshot._colorMode;
+			_colorKnown = snapshot._colorKnown;
+			_font = snapshot._font;
+			_matrix.setTransform(snapshot._matrix);
+			_matrixKnown = snapshot._matrixKnown;
+		}
+
+		private void forget() {
+			_stroke = null;
+			_lineWidth = -1f;
+			_miterLimit = -1f;
+			_lineJoin = -1;
+			_lineCap = -1;
+			_dashArray = null;
+			_dashPhase = Float.NaN;
+			_colorKnown = false;
+			_font = null;
+			_matrixKnown = false;
+		}
+	}
+
+	/**
+	 * The saved states, reused across gsave and grestore pairs so that the
+	 * nesting does not allocate in steady state.
+	 */
+	private final List<Snapshot> _stack = new ArrayList<>();
+	private final Snapshot _current = new Snapshot();
+	private int _depth = 0;
+
+	/**
+	 * Returns the current gsave nesting depth, relative to the document body.
+	 * @return The number of pending gsave commands
+	 * @since 1.6.0
+	 */
+	public int getDepth() {
+		return _depth;
+	}
+
+	/**
+	 * Returns whether the interpreter stroke parameters already match those of
+	 * the given stroke, in which case no stroke command needs to be emitted.
+	 * @param stroke The stroke to compare with
+	 * @return true if the stroke is already current; false otherwise
+	 * @since 1.6.0
+	 */
+	public boolean isStrokeCurrent(final BasicStroke stroke) {
+		return stroke == _current._stroke || stroke.equals(_current._stroke);
+	}
+
+	/**
+	 * Records a grestore command, which reinstates the state saved by the
+	 * matching gsave command.
+	 * @since 1.6.0
+	 */
+	public void restore() {
+		if(_depth == 0) {
+			// Unbalanced grestore: the state is now unknown, so forget it.
+			_current.forget();
+			return;
+		}
+
+		_depth--;
+		_current.copyFrom(_stack.get(_depth));
+	}
+
+	/**
+	 * Records a gsave command, which pushes a copy of the current state.
+	 * @since 1.6.0
+	 */
+	public void save() {
+		if(_depth == _stack.size()) {
+			_stack.add(new Snapshot());
+		}
+
+		_stack.get(_depth).copyFrom(_current);
+		_depth++;
+	}
+
+	/**
+	 * Records the current color as seen by the interpreter.
+	 * @param color The color to set
+	 * @param colorMode The Color Mode that the color is emitted with
+	 * @return true if a color command needs to be emitted; false otherwise
+	 * @since 1.6.0
+	 */
+	public boolean setColor(final Color color, final ColorMode colorMode) {
+		final int rgb = color.getRGB();
+
+		// The initial black of the interpreter is black in any Color Mode.
+		if(_current._colorKnown && rgb == _current._rgb && (colorMode == _current._colorMode || _current._colorMode == null)) {
+			return false;
+		}
+
+		_current._rgb = rgb;
+		_current._colorMode = colorMode;
+		_current._colorKnown = true;
+		return true;
+	}
+
+	/**
+	 * Records the dash pattern as seen by the interpreter.
+	 * @param dashArray The dash array, or null for solid lines
+	 * @param dashPhase The dash phase
+	 * @return true if a setdash command needs to be emitted; false otherwise
+	 * @since 1.6.0
+	 */
+	public boolean setDash(final float[] dashArray, final float dashPhase) {
+		final float[] dashes = dashArray != null ? dashArray : NO_DASH;
+
+		if(dashPhase == _current._dashPhase && Arrays.equals(dashes, _current._dashArray)) {
+			return false;
+		}
+
+		_current._dashArray = dashes;
+		_current._dashPhase = dashPhase;
+		_current._stroke = null;
+		return true;
+	}
+
+	/**
+	 * Records the current font as seen by the interpreter.
+	 * @param font The font to set
+	 * @return true if a setfont command needs to be emitted; false otherwise
+	 * @since 1.6.0
+	 */
+	public boolean setFont(final Font font) {
+		if(font.equals(_current._font)) {
+			return false;
+		}
+
+		_current._font = font;
+		return true;
+	}
+
+	/**
+	 * Records the line cap as seen by the interpreter.
+	 * @param lineCap The line cap, as one of the BasicStroke constants
+	 * @return true if a setlinecap command needs to be emitted; false otherwise
+	 * @since 1.6.0
+	 */
+	public boolean setLineCap(final int lineCap) {
+		if(lineCap == _current._lineCap) {
+			return false;
+		}
+
+		_current._lineCap = lineCap;
+		_current._stroke = null;
+		return true;
+	}
+
+	/**
+	 * Records the line join as seen by the interpreter.
+	 * @param lineJoin The line join, as one of the BasicStroke constants
+	 * @return true if a setlinejoin command needs to be emitted; false otherwise
+	 * @since 1.6.0
+	 */
+	public boolean setLineJoin(final int lineJoin) {
+		if(lineJoin == _current._lineJoin) {
+			return false;
+		}
+
+		_current._lineJoin = lineJoin;
+		_current._stroke = null;
+		return true;
+	}
+
+	/**
+	 * Records the line width as seen by the interpreter.
+	 * @param lineWidth The line width
+	 * @return true if a setlinewidth command needs to be emitted; false otherwise
+	 * @since 1.6.0
+	 */
+	public boolean setLineWidth(final float lineWidth) {
+		if(lineWidth == _current._lineWidth) {
+			return false;
+		}
+
+		_current._lineWidth = lineWidth;
+		_current._stroke = null;
+		return true;
+	}
+
+	/**
+	 * Records the transformation matrix as seen by the interpreter, relative to
+	 * the base matrix of the document body.
+	 * @return true if a matrix command needs to be emitted; false otherwise
+	 * @since 1.6.0
+	 */
+	public boolean setMatrix(final double m00, final double m10, final double m01, final double m11, final double m02, final double m12) {
+		final AffineTransform matrix = _current._matrix;
+
+		if(_current._matrixKnown && matrix.getScaleX() == m00 && matrix.getShearY() == m10 && matrix.getShearX() == m01 && matrix.getScaleY() == m11 &&
+				matrix.getTranslateX() == m02 && matrix.getTranslateY() == m12) {
+			return false;
+		}
+
+		matrix.setTransform(m00, m10, m01, m11, m02, m12);
+		_current._matrixKnown = true;
+		return true;
+	}
+
+	/**
+	 * Records the miter limit as seen by the interpreter.
+	 * @param miterLimit The miter limit
+	 * @return true if a setmiterlimit command needs to be emitted; false
+	 * otherwise
+	 * @since 1.6.0
+	 */
+	public boolean setMiterLimit(final float miterLimit) {
+		if(miterLimit == _current._miterLimit) {
+			return false;
+		}
+
+		_current._miterLimit = miterLimit;
+		_current._stroke = null;
+		return true;
+	}
+
+	/**
+	 * Records that all the parameters of a stroke have been brought up to date,
+	 * so that the next check against the same stroke is immediate.
+	 * @param stroke The stroke that is now current
+	 * @since 1.6.0
+	 */
+	public void setStroke(final BasicStroke stroke) {
+		_current._stroke = stroke;
+	}
+}// class EpsGraphicsState
@@ -0,0 +1,81 @@
+/**
+ * Copyright (c) 2001, 2006, Paul James Mutton
+ * Copyright (c) 2007, Arnaud Blouin
+ * All rights reserved.
+ * This file is part of jlibeps, merged with similar code from EPS Graphics, and
+ * expanded by Meyer Sound Laboratories Inc.
+ * jlibeps is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * jlibeps is distributed without any warranty; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the GNU General Public License for more details.
+ * Project: http://www.jibble.org/
+ */
+package org.sourceforge.jlibeps.epsgraphics;
+
+/**
+ * Enumeration of the methods for compressing the data of the images. The
+ * compressed data is read through the matching decode filter, chained behind
+ * the filter of the image encoding.
+ * @see org.sourceforge.jlibeps.epsgraphics.EpsImageEncoding
+ * @version 1.6.0
+ */
+public enum EpsImageCompression {
+	/**
+	 * The image data is not compressed.
+	 */
+	NONE(EpsCompression.NONE, 1),
+
+	/**
+	 * The image data is compressed with run-length encoding.
+	 */
+	RUN_LENGTH(EpsCompression.RUN_LENGTH, 2),
+
+	/**
+	 * The image data is compressed with LZW.
+	 */
+	LZW(EpsCompression.LZW, 2),
+
+	/**
+	 * The image data is compressed with Deflate, which requires a Level 3
+	 * interpreter.
+	 */
+	FLATE(EpsCompression.FLATE, 3),
+
+	/**
+	 * The compression of each image is chosen from a sample of its rows:
+	 * run-length encoding when it compresses the sample as well as Deflate,
+	 * Deflate when it compresses it better, and no compression when neither
+	 * saves enough. LZW is never chosen, as Deflate compresses better.
+	 */
+	AUTOMATIC(null, 3);
+
+	private final EpsCompression _compression;
+	private final int _languageLevel;
+
+	EpsImageCompression(final EpsCompression compression, final int languageLevel) {
+		_compression = compression;
+		_languageLevel = languageLevel;
+	}
+
+	/**
+	 * Returns the compression method of the image data.
+	 * @return The compression method, or null if it is chosen for each image
+	 * @since 1.6.0
+	 */
+	public EpsCompression getCompression() {
+		return _compression;
+	}
+
+	/**
+	 * Returns the PostScript language level required to decode this
+	 * compression.
+	 * @return The required language level
+	 * @since 1.6.0
+	 */
+	public int getLanguageLevel() {
+		return _languageLevel;
+	}
+}// class EpsImageCompression
@@ -0,0 +1,1069 @@
+/**
+ * Copyright (c) 2001, 2006, Paul James Mutton
+ * Copyright (c) 2007, Arnaud Blouin
+ * All rights reserved.
+ * This file is part of jlibeps, merged with similar code from EPS Graphics, and
+ * expanded by Meyer Sound Laboratories Inc.
+ * jlibeps is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * jlibeps is distributed without any warranty; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the GNU General Public License for more details.
+ * Project: http://www.jibble.org/
+ */
+package org.sourceforge.jlibeps.epsgraphics;
+
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.IndexColorModel;
+import java.awt.image.PixelGrabber;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import net.sf.epsgraphics.ColorMode;
+
+/**
+ * This class encodes a region of an image into the samples read by the image
+ * and colorimage operators: one bit per pixel in black and white, packed
+ * eight to a byte and optionally dithered, one 8-bit luminance sample per
+ * pixel in grayscale, and 8-bit red, green and blue samples otherwise. The
+ * luminance is computed through lookup tables, with the ITU-R BT.601 weights
+ * of the components. In color, an image of at most 256 colors can instead be
+ * written as 1, 2, 4 or 8-bit indices into a palette, for an Indexed color
+ * space; the palette is that of an IndexColorModel, or is gathered by a pass
+ * over the pixels that stops as soon as there are too many colors. The pixels
+ * of the common BufferedImage types are read directly from their data buffer,
+ * those of the other BufferedImage types one row at a time, and only the
+ * images that are not buffered are copied whole with a PixelGrabber. The samples are
+ * written in the given encoding, in lines that continue from one row to the
+ * next: hexadecimal digits are written through a lookup table, and ASCII85
+ * characters are written as the samples come, without buffering the image.
+ * The samples may first be compressed, in which case the encoding is read
+ * through its decode filter, with the decode filter of the compression
+ * chained behind it. Binary compressed data is read through a SubFileDecode
+ * filter, as the compressed bytes could otherwise be mistaken for the end of
+ * data, so its length has to be known before it is written.
+ * @version 1.6.0
+ */
+public class EpsImageEncoder {
+	/**
+	 * The number of hexadecimal digits in each line of image data.
+	 */
+	public static final int HEX_LINE_LENGTH = 66;
+
+	/**
+	 * The maximum number of characters in each line of ASCII85 image data.
+	 */
+	public static final int ASCII85_LINE_LENGTH = 75;
+
+	/**
+	 * The luminance from which a pixel is white in black and white, when it
+	 * is not dithered.
+	 */
+	private static final int WHITE_THRESHOLD = 128;
+
+	/**
+	 * The weighted contribution of each component value to the luminance,
+	 * scaled by 2^16. The weights of the three components add up to exactly
+	 * 2^16, so that white stays white.
+	 */
+	private static final int[] LUMINANCE_RED = new int[256];
+	private static final int[] LUMINANCE_GREEN = new int[256];
+	private static final int[] LUMINANCE_BLUE = new int[256];
+
+	/**
+	 * The 8x8 Bayer matrix of ordered dithering, row by row, which orders the
+	 * thresholds so that each gray level forms an even pattern.
+	 */
+	private static final int[] BAYER_MATRIX = { 0, 32, 8, 40, 2, 34, 10, 42, 48, 16, 56, 24, 50, 18, 58, 26, 12, 44, 4, 36, 14, 46, 6, 38, 60,
+			28, 52, 20, 62, 30, 54, 22, 3, 35, 11, 43, 1, 33, 9, 41, 51, 19, 59, 27, 49, 17, 57, 25, 15, 47, 7, 39, 13, 45, 5, 37, 63, 31, 55, 23,
+			61, 29, 53, 21 };
+
+	static {
+		for(int i = 0; i < 256; i++) {
+			LUMINANCE_RED[i] = 19595 * i;
+			LUMINANCE_GREEN[i] = 38470 * i;
+			LUMINANCE_BLUE[i] = 7471 * i;
+		}
+	}
+
+	/**
+	 * The approximate number of samples compressed to choose the compression
+	 * of an image, and the number of blocks of consecutive rows they are
+	 * taken from.
+	 */
+	private static final int SAMPLE_SIZE = 1 << 15;
+	private static final int SAMPLE_BLOCKS = 8;
+
+	/**
+	 * The compressed size, relative to the original size, above which an
+	 * image is not worth compressing.
+	 */
+	private static final double MAX_COMPRESSED_RATIO = 0.9;
+
+	/**
+	 * The maximum number of colors of an indexed image, and the size of the
+	 * hash table of the palette, which is kept sparse.
+	 */
+	private static final int MAX_PALETTE_SIZE = 256;
+	private static final int PALETTE_HASH_SIZE = 1024;
+
+	private static final int SOURCE_GRABBED = 0;
+	private static final int SOURCE_INT = 1;
+	private static final int SOURCE_BYTE = 2;
+	private static final int SOURCE_INDEXED = 3;
+	private static final int SOURCE_RGB = 4;
+
+	private final Image _image;
+	private final int _x;
+	private final int _y;
+	private final int _width;
+	private final int _height;
+	private final ColorMode _colorMode;
+	private final EpsImageEncoding _encoding;
+	private final EpsDithering _dithering;
+	private final int _components;
+
+	/**
+	 * The compression of the samples, or null until it is chosen.
+	 */
+	private EpsCompression _compression;
+
+	/**
+	 * The stream that compresses the samples into the line builder that the
+	 * current row is appended to, and the number of lines ended in it.
+	 */
+	private OutputStream _compressor;
+	private EpsLineBuilder _target;
+	private int _targetLines;
+
+	/**
+	 * The samples of the last row read, reused from one row to the next, and
+	 * the number of bytes they take.
+	 */
+	private final byte[] _samples;
+	private int _rowLength;
+
+	/**
+	 * Whether the image may be written with a palette, and the number of
+	 * bits of its indices, or 0 if it is not, or -1 until this is decided.
+	 */
+	private final boolean _indexable;
+	private int _indexBits;
+
+	/**
+	 * The colors of the palette, and the hash table that maps each color to
+	 * its index. The colors are gathered while _collecting is set, until
+	 * there are too many of them.
+	 */
+	private int[] _paletteColors;
+	private int _paletteSize;
+	private int[] _paletteKeys;
+	private byte[] _paletteIndices;
+	private boolean _collecting;
+
+	/**
+	 * The index of the row being read, and the index of the row that
+	 * follows the last one read.
+	 */
+	private int _row;
+	private int _nextRow;
+
+	/**
+	 * The errors diffused into the current row and into the next one, scaled
+	 * by 16, with one extra pixel on each side.
+	 */
+	private int[] _errors;
+	private int[] _nextErrors;
+
+	private int _source;
+
+	/**
+	 * The grabbed pixels of the whole region, or the pixels of one row.
+	 */
+	private int[] _pixels;
+	private int[] _intData;
+	private byte[] _byteData;
+	private int[] _palette;
+	private int _base;
+	private int _scanlineStride;
+	private int _pixelStride;
+	private int _redOffset;
+	private int _greenOffset;
+	private int _blueOffset;
+
+	/**
+	 * The number of characters written in the current line of image data.
+	 */
+	private int _column;
+
+	/**
+	 * The bytes waiting to be encoded as an ASCII85 group, in the high-order
+	 * bytes first.
+	 */
+	private int _tuple;
+	private int _tupleLength;
+
+	/**
+	 * The characters of the ASCII85 group being written.
+	 */
+	private final byte[] _group;
+
+	/**
+	 * This class passes the compressed samples on to the encoding of the
+	 * image data.
+	 */
+	private final class EncodingOutputStream extends OutputStream {
+		@Override
+		public void write(final byte[] bytes, final int offset, final int length) {
+			_targetLines += EpsImageEncoder.this.write(bytes, offset, length, _target);
+		}
+
+		@Override
+		public void write(final int b) {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+	}
+
+	/**
+	 * This class counts the bytes written to it, to measure compressed sizes.
+	 */
+	private static final class CountingOutputStream extends OutputStream {
+		private long _count;
+
+		@Override
+		public void write(final byte[] bytes, final int offset, final int length) {
+			_count += length;
+		}
+
+		@Override
+		public void write(final int b) {
+			_count++;
+		}
+	}
+
+	/**
+	 * Constructs an encoder for a region of an image.
+	 * @param image The image to encode
+	 * @param x The x coordinate of the region in the image
+	 * @param y The y coordinate of the region in the image
+	 * @param width The width of the region
+	 * @param height The height of the region
+	 * @param colorMode The Color Mode that the image is drawn with
+	 * @param encoding The encoding of the image data
+	 * @param compression The compression of the image data
+	 * @param dithering How the image is reduced to black and white pixels,
+	 * in black and white
+	 * @param indexable Set to true to write the image with a palette in
+	 * color, when it has few enough colors; false otherwise
+	 * @since 1.6.0
+	 */
+	public EpsImageEncoder(final Image image, final int x, final int y, final int width, final int height, final ColorMode colorMode,
+			final EpsImageEncoding encoding, final EpsImageCompression compression, final EpsDithering dithering, final boolean indexable) {
+		_image = image;
+		_x = x;
+		_y = y;
+		_width = width;
+		_height = height;
+		_colorMode = colorMode;
+		_encoding = encoding;
+		_compression = compression.getCompression();
+		_compressor = null;
+		_dithering = dithering;
+		_components = colorMode == ColorMode.BLACK_AND_WHITE || colorMode == ColorMode.GRAYSCALE ? 1 : 3;
+		_rowLength = colorMode == ColorMode.BLACK_AND_WHITE ? (width + 7) / 8 : width * _components;
+		_samples = new byte[_rowLength];
+		_indexable = indexable && _components == 3;
+		_indexBits = _indexable ? -1 : 0;
+		_collecting = false;
+		_nextRow = -1;
+		_source = SOURCE_GRABBED;
+		_column = 0;
+		_tuple = 0;
+		_tupleLength = 0;
+		_group = new byte[5];
+
+		if(image instanceof BufferedImage) {
+			final BufferedImage bufferedImage = (BufferedImage) image;
+
+			// Outside the image, the PixelGrabber leaves the pixels black.
+			if(x >= 0 && y >= 0 && (long) x + width <= bufferedImage.getWidth() && (long) y + height <= bufferedImage.getHeight()) {
+				selectSource(bufferedImage);
+			}
+		}
+	}
+
+	/**
+	 * Adds a color to the palette, unless it is already there. Once the
+	 * palette is full, adding a new color ends the gathering.
+	 * @since 1.6.0
+	 */
+	private void addColor(final int rgb) {
+		final int slot = findColor(rgb);
+
+		if(_paletteKeys[slot] == rgb) {
+			return;
+		}
+
+		if(_paletteSize == MAX_PALETTE_SIZE) {
+			_collecting = false;
+			_paletteSize++;
+			return;
+		}
+
+		_paletteKeys[slot] = rgb;
+		_paletteIndices[slot] = (byte) _paletteSize;
+		_paletteColors[_paletteSize++] = rgb;
+	}
+
+	/**
+	 * Appends the ASCII85 characters of a range of bytes to a line builder.
+	 * The last bytes are kept back until they make a group of four, or until
+	 * the data ends.
+	 * @return The number of lines ended
+	 * @since 1.6.0
+	 */
+	private int appendAscii85(final byte[] data, final int offset, final int length, final EpsLineBuilder line) {
+		int lines = 0;
+
+		for(int i = offset, end = offset + length; i < end; i++) {
+			_tuple = _tuple << 8 | data[i] & 0xff;
+			_tupleLength++;
+
+			if(_tupleLength == 4) {
+				if(_tuple == 0) {
+					_group[0] = 'z';
+					lines += appendGroup(line, 1);
+				}else {
+					encodeGroup();
+					lines += appendGroup(line, 5);
+				}
+
+				_tuple = 0;
+				_tupleLength = 0;
+			}
+		}
+
+		return lines;
+	}
+
+	/**
+	 * Appends the characters of an ASCII85 group, starting a new line first if
+	 * the group does not fit in the current one.
+	 * @param length The number of characters of the group to append
+	 * @return The number of lines ended
+	 * @since 1.6.0
+	 */
+	private int appendGroup(final EpsLineBuilder line, final int length) {
+		int lines = 0;
+
+		if(_column + length > ASCII85_LINE_LENGTH) {
+			line.append('\n');
+			_column = 0;
+			lines++;
+		}
+
+		// A line of data starting with %% would read as a DSC comment, so
+		// it starts with a space instead, which the filter skips.
+		if(_column == 0 && _group[0] == '%') {
+			line.append(' ');
+			_column++;
+		}
+
+		for(int i = 0; i < length; i++) {
+			line.append((char) _group[i]);
+		}
+
+		_column += length;
+		return lines;
+	}
+
+	/**
+	 * Appends the hexadecimal digits of a range of bytes to a line builder,
+	 * ending each line of image data with a new line character.
+	 * @return The number of lines ended
+	 * @since 1.6.0
+	 */
+	private int appendHex(final byte[] data, final int offset, final int length, final EpsLineBuilder line) {
+		final int end = offset + length;
+		int start = offset;
+		int lines = 0;
+
+		while(start < end) {
+			final int count = Math.min(end - start, (HEX_LINE_LENGTH - _column) / 2);
+			line.appendHex(data, start, count);
+			start += count;
+			_column += 2 * count;
+
+			if(_column == HEX_LINE_LENGTH) {
+				line.append('\n');
+				_column = 0;
+				lines++;
+			}
+		}
+
+		return lines;
+	}
+
+	/**
+	 * Sets the samples of a pixel of the row, given its color.
+	 * @param x The index of the pixel in the row
+	 * @since 1.6.0
+	 */
+	private void appendSample(final int x, final int red, final int green, final int blue) {
+		switch(_colorMode) {
+			case BLACK_AND_WHITE:
+				// A set bit is white, and the row was cleared beforehand.
+				if(isWhite(x, luminance(red, green, blue))) {
+					_samples[x >> 3] |= 0x80 >>> (x & 7);
+				}
+
+				break;
+			case GRAYSCALE:
+				_samples[x] = (byte) luminance(red, green, blue);
+				break;
+			default: {
+				final int rgb = red << 16 | green << 8 | blue;
+
+				if(_collecting) {
+					addColor(rgb);
+					break;
+				}
+
+				if(_indexBits == 8) {
+					_samples[x] = _paletteIndices[findColor(rgb)];
+					break;
+				}
+
+				if(_indexBits > 0) {
+					// The row was cleared beforehand, as indices share bytes.
+					final int bit = x * _indexBits;
+					_samples[bit >> 3] |= (_paletteIndices[findColor(rgb)] & 0xff) << 8 - _indexBits - (bit & 7);
+					break;
+				}
+
+				// :NOTE: No difference between RGB and CMYK.
+				final int offset = 3 * x;
+				_samples[offset] = (byte) red;
+				_samples[offset + 1] = (byte) green;
+				_samples[offset + 2] = (byte) blue;
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Sets the samples of a row of pixels in the default RGB color model.
+	 * @since 1.6.0
+	 */
+	private void appendSamples(final int[] pixels, final int offset) {
+		for(int i = 0; i < _width; i++) {
+			final int pixel = pixels[offset + i];
+			appendSample(i, pixel >> 16 & 0xff, pixel >> 8 & 0xff, pixel & 0xff);
+		}
+	}
+
+	/**
+	 * Prepares the reading of a row: the packed bits and indices are cleared,
+	 * and the errors diffused from the previous row are brought forward. The
+	 * diffusion starts over when the rows are not read in order, as when
+	 * the compression is chosen.
+	 * @since 1.6.0
+	 */
+	private void beginRow(final int row) {
+		_row = row;
+
+		if(_indexBits > 0 && _indexBits < 8) {
+			Arrays.fill(_samples, 0, _rowLength, (byte) 0);
+		}
+
+		if(_colorMode != ColorMode.BLACK_AND_WHITE) {
+			return;
+		}
+
+		Arrays.fill(_samples, (byte) 0);
+
+		if(_dithering != EpsDithering.ERROR_DIFFUSION) {
+			return;
+		}
+
+		if(_errors == null) {
+			_errors = new int[_width + 2];
+			_nextErrors = new int[_width + 2];
+		}
+
+		if(row == _nextRow) {
+			final int[] errors = _errors;
+			_errors = _nextErrors;
+			_nextErrors = errors;
+		}else {
+			Arrays.fill(_errors, 0);
+		}
+
+		Arrays.fill(_nextErrors, 0);
+		_nextRow = row + 1;
+	}
+
+	/**
+	 * Encodes the tuple into the five characters of an ASCII85 group.
+	 * @since 1.6.0
+	 */
+	private void encodeGroup() {
+		long value = _tuple & 0xffffffffL;
+
+		for(int i = 4; i >= 0; i--) {
+			_group[i] = (byte) ('!' + value % 85);
+			value /= 85;
+		}
+	}
+
+	/**
+	 * Appends the encoded samples of a row of the region to a line builder.
+	 * @param row The index of the row, from the top of the region
+	 * @param line The line builder to append the characters to
+	 * @return The number of lines ended
+	 * @throws IOException
+	 * @since 1.6.0
+	 */
+	public int encodeRow(final int row, final EpsLineBuilder line) throws IOException {
+		final byte[] samples = readRow(row);
+
+		if(getCompression() == EpsCompression.NONE) {
+			return write(samples, 0, _rowLength, line);
+		}
+
+		if(_compressor == null) {
+			_compressor = _compression.createEncoder(new EncodingOutputStream());
+		}
+
+		_target = line;
+		_targetLines = 0;
+		_compressor.write(samples, 0, _rowLength);
+		return _targetLines;
+	}
+
+	/**
+	 * Ends the image data: the last compressed bytes and the last ASCII85
+	 * bytes are written, followed by the end-of-data marker of the filter that
+	 * reads them, and the last line is ended unless it is already.
+	 * @param line The line builder to append the characters to
+	 * @return The number of lines ended
+	 * @throws IOException
+	 * @since 1.6.0
+	 */
+	public int end(final EpsLineBuilder line) throws IOException {
+		int lines = 0;
+
+		if(_compressor != null) {
+			_target = line;
+			_targetLines = 0;
+			_compressor.close();
+			_compressor = null;
+			lines += _targetLines;
+		}
+
+		if(_encoding == EpsImageEncoding.BINARY) {
+			line.append('\n');
+			return lines + 1;
+		}
+
+		if(_encoding == EpsImageEncoding.HEX && getCompression() != EpsCompression.NONE) {
+			// The ASCIIHexDecode filter needs its end-of-data marker.
+			line.append('>');
+			_column++;
+		}
+
+		if(_encoding == EpsImageEncoding.ASCII85) {
+			if(_tupleLength > 0) {
+				// A partial group of n bytes is padded with zeros, and written
+				// as its first n + 1 characters.
+				final int length = _tupleLength;
+				_tuple <<= 8 * (4 - length);
+				encodeGroup();
+				lines += appendGroup(line, length + 1);
+				_tuple = 0;
+				_tupleLength = 0;
+			}
+
+			_group[0] = '~';
+			_group[1] = '>';
+			lines += appendGroup(line, 2);
+		}
+
+		if(_column == 0) {
+			return lines;
+		}
+
+		line.append('\n');
+		_column = 0;
+		return lines + 1;
+	}
+
+	/**
+	 * Returns the slot of a color in the hash table of the palette, or the
+	 * empty slot where it would go.
+	 * @since 1.6.0
+	 */
+	private int findColor(final int rgb) {
+		int slot = rgb * 0x9e3779b1 >>> 22;
+
+		while(_paletteKeys[slot] != rgb && _paletteKeys[slot] != -1) {
+			slot = slot + 1 & PALETTE_HASH_SIZE - 1;
+		}
+
+		return slot;
+	}
+
+	/**
+	 * Returns the number of bits per sample: 1 in black and white, the number
+	 * of bits of the indices of an indexed image, and 8 otherwise.
+	 * @return The number of bits per sample
+	 * @since 1.6.0
+	 */
+	public int getBitsPerSample() {
+		if(isIndexed()) {
+			return _indexBits;
+		}
+
+		return _colorMode == ColorMode.BLACK_AND_WHITE ? 1 : 8;
+	}
+
+	/**
+	 * Returns the number of samples per pixel: 1 in black and white or
+	 * grayscale, and 3 otherwise.
+	 * @return The number of samples per pixel
+	 * @since 1.6.0
+	 */
+	public int getComponents() {
+		return _components;
+	}
+
+	/**
+	 * Returns the compression of the samples, which is chosen from a sample
+	 * of the rows in the automatic mode. The pixels must have been grabbed
+	 * first.
+	 * @return The compression of the samples
+	 * @see #grabPixels()
+	 * @since 1.6.0
+	 */
+	public EpsCompression getCompression() {
+		if(_compression == null) {
+			// The compression is chosen on the samples as they are written.
+			isIndexed();
+			_compression = selectCompression();
+		}
+
+		return _compression;
+	}
+
+	/**
+	 * Returns the colors of the palette of an indexed image.
+	 * @return The colors of the palette, in the default RGB color model
+	 * without alpha, in the order of their indices
+	 * @see #isIndexed()
+	 * @since 1.6.0
+	 */
+	public int[] getPalette() {
+		return Arrays.copyOf(_paletteColors, isIndexed() ? _paletteSize : 0);
+	}
+
+	/**
+	 * Returns the number of bytes of the samples of a row.
+	 * @return The number of bytes of a row
+	 * @since 1.6.0
+	 */
+	public int getRowLength() {
+		isIndexed();
+		return _rowLength;
+	}
+
+	/**
+	 * Copies the pixels of the region when they cannot be read from the image
+	 * directly, which is the case of the images that are not buffered.
+	 * @return false if the copy was interrupted; true otherwise
+	 * @since 1.6.0
+	 */
+	public boolean grabPixels() {
+		if(_source != SOURCE_GRABBED || _pixels != null) {
+			return true;
+		}
+
+		final int[] pixels = new int[_width * _height];
+		final PixelGrabber pg = new PixelGrabber(_image, _x, _y, _width, _height, pixels, 0, _width);
+
+		try {
+			pg.grabPixels();
+		}catch(final InterruptedException e) {
+			return false;
+		}
+
+		_pixels = pixels;
+		return true;
+	}
+
+	/**
+	 * Returns whether the image is written as indices into a palette, which
+	 * is decided on the first call. The pixels must have been grabbed first.
+	 * @return true if the image is indexed; false otherwise
+	 * @see #getPalette()
+	 * @since 1.6.0
+	 */
+	public boolean isIndexed() {
+		if(_indexBits < 0) {
+			_indexBits = selectPalette();
+			_rowLength = (_width * (_indexBits > 0 ? _indexBits : 24) + 7) / 8;
+		}
+
+		return _indexBits > 0;
+	}
+
+	/**
+	 * Returns whether the data source needs the length of the image data,
+	 * which must then be fully encoded before the data source is written.
+	 * @return true if the length of the data is needed; false otherwise
+	 * @see #writeDataSource(EpsLineBuilder, int)
+	 * @since 1.6.0
+	 */
+	public boolean isLengthRequired() {
+		return _encoding == EpsImageEncoding.BINARY && getCompression() != EpsCompression.NONE;
+	}
+
+	/**
+	 * Returns whether a pixel is white in black and white, given its
+	 * luminance, according to the dithering.
+	 * @param x The index of the pixel in the row
+	 * @since 1.6.0
+	 */
+	private boolean isWhite(final int x, final int luminance) {
+		switch(_dithering) {
+			case ORDERED:
+				// The thresholds are spread evenly between 2 and 254.
+				return luminance >= 4 * BAYER_MATRIX[(_row & 7) << 3 | x & 7] + 2;
+			case ERROR_DIFFUSION: {
+				final int value = luminance + (_errors[x + 1] + 8 >> 4);
+				final boolean white = value >= WHITE_THRESHOLD;
+				final int error = white ? value - 255 : value;
+				_errors[x + 2] += 7 * error;
+				_nextErrors[x] += 3 * error;
+				_nextErrors[x + 1] += 5 * error;
+				_nextErrors[x + 2] += error;
+				return white;
+			}
+			default:
+				return luminance >= WHITE_THRESHOLD;
+		}
+	}
+
+	/**
+	 * Returns the luminance of a color, between 0 and 255.
+	 * @since 1.6.0
+	 */
+	private static int luminance(final int red, final int green, final int blue) {
+		return LUMINANCE_RED[red] + LUMINANCE_GREEN[green] + LUMINANCE_BLUE[blue] + 0x8000 >> 16;
+	}
+
+	/**
+	 * Reads the samples of a row of the region. The pixels must have been
+	 * grabbed first.
+	 * @param row The index of the row, from the top of the region
+	 * @return The samples of the row, in the first getRowLength() bytes of an
+	 * array that the next call reuses
+	 * @see #grabPixels()
+	 * @since 1.6.0
+	 */
+	public byte[] readRow(final int row) {
+		beginRow(row);
+
+		switch(_source) {
+			case SOURCE_INT: {
+				appendSamples(_intData, _base + row * _scanlineStride);
+				break;
+			}
+			case SOURCE_BYTE: {
+				final byte[] data = _byteData;
+				int index = _base + row * _scanlineStride;
+
+				for(int i = 0; i < _width; i++) {
+					appendSample(i, data[index + _redOffset] & 0xff, data[index + _greenOffset] & 0xff, data[index + _blueOffset] & 0xff);
+					index += _pixelStride;
+				}
+
+				break;
+			}
+			case SOURCE_INDEXED: {
+				final byte[] data = _byteData;
+				final int[] palette = _palette;
+				int index = _base + row * _scanlineStride;
+
+				for(int i = 0; i < _width; i++) {
+					final int pixel = palette[data[index] & 0xff];
+					appendSample(i, pixel >> 16 & 0xff, pixel >> 8 & 0xff, pixel & 0xff);
+					index += _pixelStride;
+				}
+
+				break;
+			}
+			case SOURCE_RGB: {
+				((BufferedImage) _image).getRGB(_x, _y + row, _width, 1, _pixels, 0, _width);
+				appendSamples(_pixels, 0);
+				break;
+			}
+			default: {
+				appendSamples(_pixels, row * _width);
+				break;
+			}
+		}
+
+		return _samples;
+	}
+
+	/**
+	 * Chooses the compression of the samples by compressing a sample of the
+	 * rows, taken in blocks of consecutive rows spread over the image.
+	 * @since 1.6.0
+	 */
+	private EpsCompression selectCompression() {
+		final int rowLength = _rowLength;
+		final int rows = Math.max(1, Math.min(_height, SAMPLE_SIZE / rowLength));
+		final int blocks = Math.min(SAMPLE_BLOCKS, rows);
+		final int rowsPerBlock = rows / blocks;
+		final byte[] sample = new byte[blocks * rowsPerBlock * rowLength];
+		int length = 0;
+
+		for(int block = 0; block < blocks; block++) {
+			final int start = blocks == 1 ? 0 : (int) ((long) block * (_height - rowsPerBlock) / (blocks - 1));
+
+			for(int row = start; row < start + rowsPerBlock; row++) {
+				System.arraycopy(readRow(row), 0, sample, length, rowLength);
+				length += rowLength;
+			}
+		}
+
+		final CountingOutputStream runLength = new CountingOutputStream();
+
+		try(final OutputStream out = EpsCompression.RUN_LENGTH.createEncoder(runLength)) {
+			out.write(sample, 0, length);
+		}catch(final IOException e) {
+			// Counting the bytes cannot fail.
+		}
+
+		final Deflater deflater = new Deflater();
+		final byte[] output = new byte[EpsSink.DEFAULT_BUFFER_SIZE];
+		long deflate = 0;
+
+		try {
+			deflater.setInput(sample, 0, length);
+			deflater.finish();
+
+			while(!deflater.finished()) {
+				deflate += deflater.deflate(output);
+			}
+		}finally {
+			deflater.end();
+		}
+
+		final boolean runs = runLength._count <= deflate;
+
+		if((runs ? runLength._count : deflate) > length * MAX_COMPRESSED_RATIO) {
+			return EpsCompression.NONE;
+		}
+
+		return runs ? EpsCompression.RUN_LENGTH : EpsCompression.FLATE;
+	}
+
+	/**
+	 * Gathers the palette of the image, from its IndexColorModel if it has
+	 * one, and from its pixels otherwise, and chooses the number of bits of
+	 * the indices. The image is only indexed if its indices and palette take
+	 * less room than its red, green and blue samples.
+	 * @return The number of bits of the indices, or 0 if the image is not
+	 * indexed
+	 * @since 1.6.0
+	 */
+	private int selectPalette() {
+		_paletteColors = new int[MAX_PALETTE_SIZE];
+		_paletteKeys = new int[PALETTE_HASH_SIZE];
+		_paletteIndices = new byte[PALETTE_HASH_SIZE];
+		_paletteSize = 0;
+		Arrays.fill(_paletteKeys, -1);
+
+		final ColorModel colorModel = _image instanceof BufferedImage ? ((BufferedImage) _image).getColorModel() : null;
+		_collecting = true;
+
+		// The grabbed pixels may include black ones outside of the image.
+		if(colorModel instanceof IndexColorModel && _source != SOURCE_GRABBED && ((IndexColorModel) colorModel).getMapSize() <= MAX_PALETTE_SIZE) {
+			final IndexColorModel indexModel = (IndexColorModel) colorModel;
+
+			for(int i = 0, size = indexModel.getMapSize(); i < size; i++) {
+				addColor(indexModel.getRGB(i) & 0xffffff);
+			}
+		}else {
+			for(int row = 0; row < _height && _collecting; row++) {
+				readRow(row);
+			}
+		}
+
+		final boolean full = !_collecting;
+		_collecting = false;
+
+		if(full) {
+			return 0;
+		}
+
+		final int bits = _paletteSize <= 2 ? 1 : _paletteSize <= 4 ? 2 : _paletteSize <= 16 ? 4 : 8;
+
+		if(3L * _paletteSize + (long) (_width * bits + 7) / 8 * _height >= 3L * _width * _height) {
+			return 0;
+		}
+
+		return bits;
+	}
+
+	/**
+	 * Selects how the pixels of a buffered image are read, from its data
+	 * buffer when its layout is known, and through getRGB otherwise.
+	 * @since 1.6.0
+	 */
+	private void selectSource(final BufferedImage image) {
+		final WritableRaster raster = image.getRaster();
+		final SampleModel sampleModel = raster.getSampleModel();
+		final DataBuffer dataBuffer = raster.getDataBuffer();
+		final int x = _x - raster.getSampleModelTranslateX();
+		final int y = _y - raster.getSampleModelTranslateY();
+
+		switch(image.getType()) {
+			case BufferedImage.TYPE_INT_RGB:
+			case BufferedImage.TYPE_INT_ARGB:
+				if(sampleModel instanceof SinglePixelPackedSampleModel && dataBuffer instanceof DataBufferInt && dataBuffer.getNumBanks() == 1) {
+					_scanlineStride = ((SinglePixelPackedSampleModel) sampleModel).getScanlineStride();
+					_base = dataBuffer.getOffset() + y * _scanlineStride + x;
+					_intData = ((DataBufferInt) dataBuffer).getData();
+					_source = SOURCE_INT;
+					return;
+				}
+
+				break;
+			case BufferedImage.TYPE_3BYTE_BGR:
+			case BufferedImage.TYPE_4BYTE_ABGR:
+				if(sampleModel instanceof ComponentSampleModel && dataBuffer instanceof DataBufferByte && dataBuffer.getNumBanks() == 1) {
+					final ComponentSampleModel componentModel = (ComponentSampleModel) sampleModel;
+					final int[] bandOffsets = componentModel.getBandOffsets();
+					_scanlineStride = componentModel.getScanlineStride();
+					_pixelStride = componentModel.getPixelStride();
+					_base = dataBuffer.getOffset() + y * _scanlineStride + x * _pixelStride;
+					_redOffset = bandOffsets[0];
+					_greenOffset = bandOffsets[1];
+					_blueOffset = bandOffsets[2];
+					_byteData = ((DataBufferByte) dataBuffer).getData();
+					_source = SOURCE_BYTE;
+					return;
+				}
+
+				break;
+			case BufferedImage.TYPE_BYTE_GRAY:
+			case BufferedImage.TYPE_BYTE_INDEXED:
+				if(sampleModel instanceof ComponentSampleModel && dataBuffer instanceof DataBufferByte && dataBuffer.getNumBanks() == 1) {
+					// Each of the 256 pixel values is converted once, the same
+					// way getRGB would convert it.
+					final ComponentSampleModel componentModel = (ComponentSampleModel) sampleModel;
+					final ColorModel colorModel = image.getColorModel();
+					final byte[] pixel = new byte[1];
+					_palette = new int[256];
+
+					for(int i = 0; i < _palette.length; i++) {
+						pixel[0] = (byte) i;
+						_palette[i] = colorModel.getRGB(pixel);
+					}
+
+					_scanlineStride = componentModel.getScanlineStride();
+					_pixelStride = componentModel.getPixelStride();
+					_base = dataBuffer.getOffset() + y * _scanlineStride + x * _pixelStride + componentModel.getBandOffsets()[0];
+					_byteData = ((DataBufferByte) dataBuffer).getData();
+					_source = SOURCE_INDEXED;
+					return;
+				}
+
+				break;
+			default:
+				break;
+		}
+
+		_pixels = new int[_width];
+		_source = SOURCE_RGB;
+	}
+
+	/**
+	 * Appends a range of image data bytes, compressed or not, to a line
+	 * builder in the encoding of this encoder.
+	 * @param data The bytes to append
+	 * @param offset The offset of the first byte to append
+	 * @param length The number of bytes to append
+	 * @param line The line builder to append the characters to
+	 * @return The number of lines ended
+	 * @since 1.6.0
+	 */
+	public int write(final byte[] data, final int offset, final int length, final EpsLineBuilder line) {
+		switch(_encoding) {
+			case ASCII85:
+				return appendAscii85(data, offset, length, line);
+			case BINARY:
+				line.append(data, offset, length);
+				return 0;
+			default:
+				return appendHex(data, offset, length, line);
+		}
+	}
+
+	/**
+	 * Appends the data source operand of the image operator, which reads the
+	 * image data that follows the operator.
+	 * @param line The line builder to append the operand to
+	 * @param length The length of the encoded image data, including the new
+	 * line that ends it, when it is required
+	 * @see #isLengthRequired()
+	 * @since 1.6.0
+	 */
+	public void writeDataSource(final EpsLineBuilder line, final int length) {
+		final EpsCompression compression = getCompression();
+
+		if(compression == EpsCompression.NONE && _encoding != EpsImageEncoding.ASCII85) {
+			final String read = _encoding == EpsImageEncoding.BINARY ? "string readstring pop} bind" : "string readhexstring pop} bind";
+
+			if(_components == 3 && !isIndexed()) {
+				line.token("{currentfile 3").integer(_width).token("mul").token(read);
+			}else {
+				line.token("{currentfile").integer(_rowLength).token(read);
+			}
+
+			return;
+		}
+
+		switch(_encoding) {
+			case ASCII85:
+				line.token("currentfile /ASCII85Decode filter");
+				break;
+			case BINARY:
+				// The new line that ends the data is not part of it.
+				line.token("currentfile").integer(length - 1).token("() /SubFileDecode filter");
+				break;
+			default:
+				line.token("currentfile /ASCIIHexDecode filter");
+				break;
+		}
+
+		if(compression != EpsCompression.NONE) {
+			line.token("/").append(compression.getFilterName()).token("filter");
+		}
+	}
+}// class EpsImageEncoder
@@ -0,0 +1,59 @@
+/**
+ * Copyright (c) 2001, 2006, Paul James Mutton
+ * Copyright (c) 2007, Arnaud Blouin
+ * All rights reserved.
+ * This file is part of jlibeps, merged with similar code from EPS Graphics, and
+ * expanded by Meyer Sound Laboratories Inc.
+ * jlibeps is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * jlibeps is distributed without any warranty; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the GNU General Public License for more details.
+ * Project: http://www.jibble.org/
+ */
+package org.sourceforge.jlibeps.epsgraphics;
+
+/**
+ * Enumeration of the ways the samples of an image, compressed or not, are
+ * written into the document. Each is read back by the interpreter from the
+ * current file, right after the image operator.
+ * @version 1.6.0
+ */
+public enum EpsImageEncoding {
+	/**
+	 * Each sample is written as two hexadecimal digits, and read with
+	 * readhexstring, which every interpreter supports.
+	 */
+	HEX(1),
+
+	/**
+	 * Every four samples are written as five ASCII85 characters, and read
+	 * through the ASCII85Decode filter, which requires a Level 2 interpreter.
+	 * The image data is then 37% smaller than in hexadecimal.
+	 */
+	ASCII85(2),
+
+	/**
+	 * The samples are written as they are, which makes the document binary.
+	 * As with binary tokens, the document must then be written to an
+	 * OutputStream or a channel.
+	 */
+	BINARY(1);
+
+	private final int _languageLevel;
+
+	EpsImageEncoding(final int languageLevel) {
+		_languageLevel = languageLevel;
+	}
+
+	/**
+	 * Returns the PostScript language level required to read this encoding.
+	 * @return The required language level
+	 * @since 1.6.0
+	 */
+	public int getLanguageLevel() {
+		return _languageLevel;
+	}
+}// class EpsImageEncoding
@@ -0,0 +1,710 @@
+/**
+ * Copyright (c) 2001, 2006, Paul James Mutton
+ * Copyright (c) 2007, Arnaud Blouin
+ * All rights reserved.
+ * This file is part of jlibeps, merged with similar code from EPS Graphics, and
+ * expanded by Meyer Sound Laboratories Inc.
+ * jlibeps is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * jlibeps is distributed without any warranty; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the GNU General Public License for more details.
+ * Project: http://www.jibble.org/
+ */
+package org.sourceforge.jlibeps.epsgraphics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * This class is a reusable buffer for composing one line of PostScript content
+ * at a time. Numbers are formatted directly into the buffer as ASCII bytes,
+ * without going through Float.toString() or string concatenation, so that
+ * emitting a path segment does not allocate anything once the buffer has grown
+ * to size. Characters are stored as single bytes, as EPS content is 7-bit clean.
+ * Formatting is locale-independent and never uses exponent notation. Values
+ * are rounded to the seven significant digits of a single-precision PostScript
+ * real, and to at most a fixed number of decimals, with trailing zeros removed.
+ * Coordinates can be written with a coarser precision than other numbers, as
+ * set up by the document, either with fewer decimals or snapped to a grid.
+ * Tokens are separated by a single space, which is inserted automatically.
+ * @see org.sourceforge.jlibeps.epsgraphics.EpsBinaryLineBuilder
+ * @version 1.6.0
+ */
+public class EpsLineBuilder {
+	/**
+	 * The number of significant digits a PostScript real can hold, as the
+	 * interpreter stores them with single precision.
+	 */
+	public static final int SIGNIFICANT_DIGITS = 7;
+
+	/**
+	 * The default maximum number of decimals written for a number.
+	 */
+	public static final int DEFAULT_MAX_DECIMALS = 9;
+
+	/**
+	 * Beyond this magnitude numbers are written without decimals, as a long
+	 * could otherwise overflow while scaling them.
+	 */
+	private static final double MAX_FIXED_MAGNITUDE = 1e15;
+
+	private static final long[] POWERS_OF_TEN = new long[19];
+
+	private static final byte[] HEX_DIGITS = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f' };
+
+	/** The two hexadecimal digits of each byte value, one after the other. */
+	private static final byte[] HEX_PAIRS = new byte[512];
+
+	static {
+		POWERS_OF_TEN[0] = 1L;
+
+		for(int i = 0; i < 256; i++) {
+			HEX_PAIRS[2 * i] = HEX_DIGITS[i >> 4];
+			HEX_PAIRS[2 * i + 1] = HEX_DIGITS[i & 0xf];
+		}
+
+		for(int i = 1; i < POWERS_OF_TEN.length; i++) {
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10L;
+		}
+	}
+
+	private byte[] _buffer;
+	private int _length;
+	private int _maxDecimals;
+	private int _coordinateDecimals;
+	private double _coordinateQuantum;
+	private boolean _compactOperators;
+
+	/**
+	 * Constructs an empty line builder with the default number precision.
+	 * @since 1.6.0
+	 */
+	public EpsLineBuilder() {
+		_buffer = new byte[128];
+		_length = 0;
+		_maxDecimals = DEFAULT_MAX_DECIMALS;
+		_coordinateDecimals = DEFAULT_MAX_DECIMALS;
+		_coordinateQuantum = 0d;
+		_compactOperators = false;
+	}
+
+	/**
+	 * Returns the number of decimal digits needed to represent the integer part
+	 * of a non-negative value; zero is returned for values below one.
+	 * @since 1.6.0
+	 */
+	private static int integerDigits(final double magnitude) {
+		int digits = 0;
+
+		while(digits < POWERS_OF_TEN.length && magnitude >= POWERS_OF_TEN[digits]) {
+			digits++;
+		}
+
+		return digits;
+	}
+
+	/**
+	 * Returns the number of leading zero decimals of a positive value below one,
+	 * i.e. the number of zeros between the decimal point and the first
+	 * significant digit.
+	 * @since 1.6.0
+	 */
+	private static int leadingZeroDecimals(final double magnitude) {
+		int zeros = 0;
+		double scaled = magnitude * 10d;
+
+		while(scaled < 1d && zeros < POWERS_OF_TEN.length) {
+			scaled *= 10d;
+			zeros++;
+		}
+
+		return zeros;
+	}
+
+	/**
+	 * Returns the number of decimals used to write a value, given the maximum
+	 * number of decimals allowed.
+	 * @since 1.6.0
+	 */
+	private static int decimalsFor(final double magnitude, final int maxDecimals) {
+		final int intDigits = integerDigits(magnitude);
+		final int decimals = intDigits > 0 ? SIGNIFICANT_DIGITS - intDigits : SIGNIFICANT_DIGITS + leadingZeroDecimals(magnitude);
+
+		return Math.max(0, Math.min(maxDecimals, decimals));
+	}
+
+	/**
+	 * Appends a single character without any separator. A character beyond
+	 * ISO-8859-1 is written as the replacement character of the sink.
+	 * @param ch The character to append
+	 * @return This line builder, for chaining
+	 * @since 1.6.0
+	 */
+	public EpsLineBuilder append(final char ch) {
+		ensureCapacity(1);
+		_buffer[_length++] = EpsSink.toLatin1(ch);
+		return this;
+	}
+
+	/**
+	 * Appends a range of bytes verbatim, without any separator.
+	 * @param bytes The bytes to append
+	 * @param offset The offset of the first byte to append
+	 * @param length The number of bytes to append
+	 * @return This line builder, for chaining
+	 * @since 1.6.0
+	 */
+	public EpsLineBuilder append(final byte[] bytes, final int offset, final int length) {
+		ensureCapacity(length);
+		System.arraycopy(bytes, offset, _buffer, _length, length);
+		_length += length;
+		return this;
+	}
+
+	/**
+	 * Appends a character sequence verbatim, without any separator. The
+	 * characters beyond ISO-8859-1 are written as the replacement character of
+	 * the sink.
+	 * @param text The characters to append
+	 * @return This line builder, for chaining
+	 * @since 1.6.0
+	 */
+	public EpsLineBuilder append(final CharSequence text) {
+		final int length = text.length();
+		ensureCapacity(length);
+
+		for(int i = 0; i < length; i++) {
+			_buffer[_length++] = EpsSink.toLatin1(text.charAt(i));
+		}
+
+		return this;
+	}
+
+	/**
+	 * Appends the content of another line builder verbatim, without any
+	 * separator.
+	 * @param line The line builder whose content to append
+	 * @return This line builder, for chaining
+	 * @since 1.6.0
+	 */
+	public EpsLineBuilder append(final EpsLineBuilder line) {
+		ensureCapacity(line._length);
+		System.arraycopy(line._buffer, 0, _buffer, _length, line._length);
+		_length += line._length;
+		return this;
+	}
+
+	/**
+	 * Appends a value as two lower-case hexadecimal digits.
+	 * @param value The value to append, between 0 and 255
+	 * @return This line builder, for chaining
+	 * @since 1.6.0
+	 */
+	public EpsLineBuilder appendHex(final int value) {
+		ensureCapacity(2);
+		_buffer[_length++] = HEX_DIGITS[value >> 4 & 0xf];
+		_buffer[_length++] = HEX_DIGITS[value & 0xf];
+		return this;
+	}
+
+	/**
+	 * Appends a range of bytes, each as two lower-case hexadecimal digits.
+	 * @param data The bytes to append
+	 * @param offset The offset of the first byte to append
+	 * @param length The number of bytes to append
+	 * @return This line builder, for chaining
+	 * @since 1.6.0
+	 */
+	public EpsLineBuilder appendHex(final byte[] data, final int offset, final int length) {
+		ensureCapacity(2 * length);
+		final byte[] buffer = _buffer;
+		int position = _length;
+
+		for(int i = offset, end = offset + length; i < end; i++) {
+			final int pair = (data[i] & 0xff) << 1;
+			buffer[position++] = HEX_PAIRS[pair];
+			buffer[position++] = HEX_PAIRS[pair + 1];
+		}
+
+		_length = position;
+		return this;
+	}
+
+	/**
+	 * Appends a character of a PostScript string literal. The parentheses
+	 * and the backslash are escaped, and the characters beyond ASCII are
+	 * written as octal escapes, which keeps the content 7-bit clean. The
+	 * characters beyond ISO-8859-1 are written as the replacement character
+	 * of the sink.
+	 * @param ch The character to append
+	 * @return This line builder, for chaining
+	 * @since 1.6.0
+	 */
+	public EpsLineBuilder appendStringCharacter(final char ch) {
+		if(ch == '(' || ch == ')' || ch == '\\') {
+			ensureCapacity(2);
+			_buffer[_length++] = '\\';
+			_buffer[_length++] = (byte) ch;
+		}else if(ch >= 0x80 && ch <= 0xff) {
+			ensureCapacity(4);
+			_buffer[_length++] = '\\';
+			_buffer[_length++] = (byte) ('0' + (ch >> 6));
+			_buffer[_length++] = (byte) ('0' + (ch >> 3 & 7));
+			_buffer[_length++] = (byte) ('0' + (ch & 7));
+		}else {
+			append(ch);
+		}
+
+		return this;
+	}
+
+	/**
+	 * Removes a range of the content, shifting the content that follows it.
+	 * @param start The offset of the first byte to remove
+	 * @param end The offset following the last byte to remove
+	 * @return This line builder, for chaining
+	 * @since 1.6.0
+	 */
+	public EpsLineBuilder delete(final int start, final int end) {
+		System.arraycopy(_buffer, end, _buffer, start, _length - end);
+		_length -= end - start;
+		return this;
+	}
+
+	/**
+	 * Returns whether operators are written as their short aliases.
+	 * @return true if operators are written as aliases; false otherwise
+	 * @since 1.6.0
+	 */
+	public boolean isCompactOperators() {
+		return _compactOperators;
+	}
+
+	/**
+	 * Resets the line builder so that it can compose a new line.
+	 * @return This line builder, for chaining
+	 * @since 1.6.0
+	 */
+	public EpsLineBuilder clear() {
+		_length = 0;
+		return this;
+	}
+
+	/**
+	 * Appends a coordinate token with the coordinate precision, preceded by a
+	 * separator if needed.
+	 * @param value The coordinate to append
+	 * @return This line builder, for chaining
+	 * @since 1.6.0
+	 */
+	public EpsLineBuilder coordinate(final double value) {
+		return number(snap(value), _coordinateDecimals);
+	}
+
+	/**
+	 * Appends the difference between two coordinates with the coordinate
+	 * precision, preceded by a separator if needed. The difference is not
+	 * snapped to the grid, as the difference between two snapped coordinates
+	 * already lies on it.
+	 * @param delta The coordinate difference to append
+	 * @return This line builder, for chaining
+	 * @since 1.6.0
+	 */
+	public EpsLineBuilder delta(final double delta) {
+		return number(delta, _coordinateDecimals);
+	}
+
+	/**
+	 * Makes sure that the buffer can hold the given number of extra characters.
+	 * @since 1.6.0
+	 */
+	private void ensureCapacity(final int extra) {
+		if(_length + extra > _buffer.length) {
+			final byte[] buffer = new byte[Math.max(_buffer.length * 2, _length + extra)];
+			System.arraycopy(_buffer, 0, buffer, 0, _length);
+			_buffer = buffer;
+		}
+	}
+
+	/**
+	 * Returns the maximum number of decimals written for a number.
+	 * @return The maximum number of decimals
+	 * @since 1.6.0
+	 */
+	public int getMaxDecimals() {
+		return _maxDecimals;
+	}
+
+	/**
+	 * Appends an integer token, preceded by a separator if needed.
+	 * @param value The integer to append
+	 * @return This line builder, for chaining
+	 * @since 1.6.0
+	 */
+	public EpsLineBuilder integer(final long value) {
+		separate();
+
+		if(value < 0L) {
+			append('-');
+			writeDigits(-value, 1);
+		}else {
+			writeDigits(value, 1);
+		}
+
+		return this;
+	}
+
+	/**
+	 * Returns the length of the line composed so far.
+	 * @return The number of characters in the line
+	 * @since 1.6.0
+	 */
+	public int length() {
+		return _length;
+	}
+
+	/**
+	 * Appends a number token with the current maximum number of decimals,
+	 * preceded by a separator if needed.
+	 * @param value The number to append
+	 * @return This line builder, for chaining
+	 * @since 1.6.0
+	 */
+	public EpsLineBuilder number(final double value) {
+		return number(value, _maxDecimals);
+	}
+
+	/**
+	 * Appends a number token with an explicit maximum number of decimals,
+	 * preceded by a separator if needed. Infinite and undefined values are
+	 * written as zero, as PostScript has no representation for them.
+	 * @param value The number to append
+	 * @param maxDecimals The maximum number of decimals to write
+	 * @return This line builder, for chaining
+	 * @since 1.6.0
+	 */
+	public EpsLineBuilder number(final double value, final int maxDecimals) {
+		separate();
+
+		if(Double.isNaN(value) || Double.isInfinite(value)) {
+			append('0');
+			return this;
+		}
+
+		final double magnitude = Math.abs(value);
+
+		if(magnitude >= MAX_FIXED_MAGNITUDE) {
+			if(value < 0d) {
+				append('-');
+			}
+
+			// This is well beyond the range of PostScript integers anyway.
+			writeDigits(Math.round(Math.min(magnitude, Long.MAX_VALUE)), 1);
+			return this;
+		}
+
+		int decimals = decimalsFor(magnitude, maxDecimals);
+		long scaled = Math.round(magnitude * POWERS_OF_TEN[decimals]);
+
+		if(scaled == 0L) {
+			append('0');
+			return this;
+		}
+
+		// Strip the trailing zeros, so that e.g. 2.5000000 is written as 2.5.
+		while(decimals > 0 && scaled % 10L == 0L) {
+			scaled /= 10L;
+			decimals--;
+		}
+
+		if(value < 0d) {
+			append('-');
+		}
+
+		final long integerPart = scaled / POWERS_OF_TEN[decimals];
+		final long fractionPart = scaled % POWERS_OF_TEN[decimals];
+		writeDigits(integerPart, 1);
+
+		if(decimals > 0) {
+			append('.');
+			writeDigits(fractionPart, decimals);
+		}
+
+		return this;
+	}
+
+	/**
+	 * Returns the value of a number as it would be written with the given
+	 * maximum number of decimals, i.e. as the interpreter reads it back.
+	 * @param value The number to round
+	 * @param maxDecimals The maximum number of decimals to keep
+	 * @return The rounded number
+	 * @since 1.6.0
+	 */
+	public static double round(final double value, final int maxDecimals) {
+		if(Double.isNaN(value) || Double.isInfinite(value)) {
+			return 0d;
+		}
+
+		final double magnitude = Math.abs(value);
+
+		if(magnitude >= MAX_FIXED_MAGNITUDE) {
+			return Math.rint(value);
+		}
+
+		final int decimals = decimalsFor(magnitude, maxDecimals);
+		return Math.copySign(Math.round(magnitude * POWERS_OF_TEN[decimals]) / (double) POWERS_OF_TEN[decimals], value);
+	}
+
+	/**
+	 * Returns the value of a coordinate as it would be written by the
+	 * coordinate function, i.e. as the interpreter reads it back.
+	 * @param value The coordinate to round
+	 * @return The rounded coordinate
+	 * @since 1.6.0
+	 */
+	public double roundCoordinate(final double value) {
+		return round(snap(value), _coordinateDecimals);
+	}
+
+	/**
+	 * Returns the value of a coordinate difference as it would be written by
+	 * the delta function.
+	 * @param delta The coordinate difference to round
+	 * @return The rounded coordinate difference
+	 * @since 1.6.0
+	 */
+	public double roundDelta(final double delta) {
+		return round(delta, _coordinateDecimals);
+	}
+
+	/**
+	 * Appends an operator token, preceded by a separator if needed. The short
+	 * alias of the operator is written if the document prolog defines it.
+	 * @param operator The operator to append
+	 * @return This line builder, for chaining
+	 * @since 1.6.0
+	 */
+	public EpsLineBuilder operator(final EpsOperator operator) {
+		return token(_compactOperators ? operator.getAlias() : operator.getName());
+	}
+
+	/**
+	 * Appends a separating space, unless the line is empty or already ends with
+	 * white space or the opening of an array or procedure.
+	 * @since 1.6.0
+	 */
+	protected void separate() {
+		if(_length > 0) {
+			final byte last = _buffer[_length - 1];
+
+			if(last != ' ' && last != '\n' && last != '[' && last != '{') {
+				append(' ');
+			}
+		}
+	}
+
+	/**
+	 * Limits coordinates to a maximum number of decimals, without snapping them
+	 * to a grid.
+	 * @param decimals The maximum number of decimals of coordinates
+	 * @since 1.6.0
+	 */
+	public void setCoordinateDecimals(final int decimals) {
+		_coordinateDecimals = Math.max(0, Math.min(POWERS_OF_TEN.length - 1, decimals));
+		_coordinateQuantum = 0d;
+	}
+
+	/**
+	 * Snaps coordinates to a grid. To keep the written numbers short, the grid
+	 * step is lowered to the nearest 1, 2 or 5 times a power of ten, which also
+	 * gives the number of decimals to write. A step that is not positive
+	 * disables the snapping and restores the default precision.
+	 * @param quantum The grid step, in document units
+	 * @since 1.6.0
+	 */
+	public void setCoordinateQuantum(final double quantum) {
+		if(!(quantum > 0d) || Double.isInfinite(quantum)) {
+			_coordinateDecimals = DEFAULT_MAX_DECIMALS;
+			_coordinateQuantum = 0d;
+			return;
+		}
+
+		// Find the power of ten just below the step, then the largest of its
+		// 1, 2 and 5 multiples that does not exceed the step.
+		int decimals = 0;
+		double power = 1d;
+
+		while(power > quantum && decimals < DEFAULT_MAX_DECIMALS) {
+			power /= 10d;
+			decimals++;
+		}
+
+		while(power * 10d <= quantum) {
+			power *= 10d;
+		}
+
+		final double step = power * 5d <= quantum ? power * 5d : power * 2d <= quantum ? power * 2d : power;
+
+		_coordinateDecimals = decimals;
+		_coordinateQuantum = step;
+	}
+
+	/**
+	 * Sets whether operators are written as their short aliases. This must
+	 * only be enabled when the document prolog defines the aliases.
+	 * @param compactOperators Set to true to write operators as aliases; false otherwise
+	 * @since 1.6.0
+	 */
+	public void setCompactOperators(final boolean compactOperators) {
+		_compactOperators = compactOperators;
+	}
+
+	/**
+	 * Sets the maximum number of decimals written for a number.
+	 * @param maxDecimals The maximum number of decimals, between 0 and 18
+	 * @since 1.6.0
+	 */
+	public void setMaxDecimals(final int maxDecimals) {
+		_maxDecimals = Math.max(0, Math.min(POWERS_OF_TEN.length - 1, maxDecimals));
+	}
+
+	/**
+	 * Snaps a coordinate to the grid, if any.
+	 * @param value The coordinate to snap
+	 * @return The nearest grid coordinate, or the coordinate itself if there is
+	 * no grid
+	 * @since 1.6.0
+	 */
+	private double snap(final double value) {
+		return _coordinateQuantum > 0d ? Math.rint(value / _coordinateQuantum) * _coordinateQuantum : value;
+	}
+
+	/**
+	 * Appends a token such as an operator or a literal, preceded by a
+	 * separator if needed.
+	 * @param token The token to append
+	 * @return This line builder, for chaining
+	 * @since 1.6.0
+	 */
+	public EpsLineBuilder token(final CharSequence token) {
+		separate();
+		return append(token);
+	}
+
+	/**
+	 * Returns whether the composed line consists of exactly the given bytes,
+	 * without copying it.
+	 * @param bytes The bytes to compare the line with
+	 * @return true if the line equals the bytes; false otherwise
+	 * @since 1.6.0
+	 */
+	public boolean contentEquals(final byte[] bytes) {
+		if(bytes.length != _length) {
+			return false;
+		}
+
+		for(int i = 0; i < _length; i++) {
+			if(bytes[i] != _buffer[i]) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Returns a hash code of the composed line, computed over its bytes like
+	 * the hash code of a String over its characters, without creating one.
+	 * @return The hash code of the line content
+	 * @since 1.6.0
+	 */
+	public int contentHashCode() {
+		int hash = 0;
+
+		for(int i = 0; i < _length; i++) {
+			hash = 31 * hash + (_buffer[i] & 0xff);
+		}
+
+		return hash;
+	}
+
+	/**
+	 * Returns a copy of the bytes of the composed line.
+	 * @return The bytes of the line
+	 * @since 1.6.0
+	 */
+	public byte[] toByteArray() {
+		final byte[] bytes = new byte[_length];
+		System.arraycopy(_buffer, 0, bytes, 0, _length);
+		return bytes;
+	}
+
+	/**
+	 * Returns the composed line as a String. This allocates, and is only meant
+	 * for diagnostics and for the legacy String based code paths.
+	 * @since 1.6.0
+	 */
+	@Override
+	public String toString() {
+		final char[] chars = new char[_length];
+
+		for(int i = 0; i < _length; i++) {
+			chars[i] = (char) (_buffer[i] & 0xff);
+		}
+
+		return new String(chars);
+	}
+
+	/**
+	 * Writes the digits of a non-negative value, left-padded with zeros up to
+	 * the requested minimum number of digits.
+	 * @since 1.6.0
+	 */
+	private void writeDigits(final long value, final int minDigits) {
+		int digits = 1;
+
+		while(digits < POWERS_OF_TEN.length && value >= POWERS_OF_TEN[digits]) {
+			digits++;
+		}
+
+		digits = Math.max(digits, minDigits);
+		ensureCapacity(digits);
+
+		long remainder = value;
+
+		for(int i = _length + digits - 1; i >= _length; i--) {
+			_buffer[i] = (byte) ('0' + remainder % 10L);
+			remainder /= 10L;
+		}
+
+		_length += digits;
+	}
+
+	/**
+	 * Writes the composed line to an output, usually an @EpsSink, without any
+	 * line terminator.
+	 * @param out The @OutputStream to channel the EPS content to
+	 * @throws IOException
+	 * @since 1.6.0
+	 */
+	public void writeTo(final OutputStream out) throws IOException {
+		out.write(_buffer, 0, _length);
+	}
+
+	/**
+	 * Writes a range of the composed content to an output, usually an
+	 * @EpsSink.
+	 * @param out The @OutputStream to channel the EPS content to
+	 * @param offset The offset of the first byte to write
+	 * @param length The number of bytes to write
+	 * @throws IOException
+	 * @since 1.6.0
+	 */
+	public void writeTo(final OutputStream out, final int offset, final int length) throws IOException {
+		out.write(_buffer, offset, length);
+	}
+}// class EpsLineBuilder
@@ -0,0 +1,209 @@
+/**
+ * Copyright (c) 2001, 2006, Paul James Mutton
+ * Copyright (c) 2007, Arnaud Blouin
+ * All rights reserved.
+ * This file is part of jlibeps, merged with similar code from EPS Graphics, and
+ * expanded by Meyer Sound Laboratories Inc.
+ * jlibeps is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * jlibeps is distributed without any warranty; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the GNU General Public License for more details.
+ * Project: http://www.jibble.org/
+ */
+package org.sourceforge.jlibeps.epsgraphics;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * This class compresses bytes with the LZW method of the PostScript
+ * LZWDecode filter, with its default parameters: codes of 9 to 12 bits
+ * written high-order bit first, and code lengths that increase one code early.
+ * The output starts with a clear-table code, which is repeated whenever the
+ * table is full, and ends with the end-of-data code when the stream is closed.
+ * The string table is a hash table of (prefix code, byte) pairs, so that
+ * compressing does not allocate anything per byte.
+ * @version 1.6.0
+ */
+public class EpsLzwOutputStream extends FilterOutputStream {
+	private static final int CLEAR_TABLE = 256;
+	private static final int END_OF_DATA = 257;
+	private static final int FIRST_CODE = 258;
+
+	/**
+	 * The table is cleared before any code would need more than 12 bits.
+	 */
+	private static final int MAX_CODE = 4094;
+
+	/**
+	 * A prime larger than twice the number of table entries, so that the
+	 * open-addressed hash table stays sparse.
+	 */
+	private static final int HASH_SIZE = 9973;
+
+	private final int[] _hashKeys = new int[HASH_SIZE];
+	private final short[] _hashCodes = new short[HASH_SIZE];
+	private final byte[] _output = new byte[EpsSink.DEFAULT_BUFFER_SIZE];
+	private int _outputCount;
+	private int _bitBuffer;
+	private int _bitCount;
+	private int _nextCode;
+	private int _prefix;
+	private boolean _closed;
+
+	/**
+	 * Constructs an LZW encoder.
+	 * @param out The stream to write the compressed bytes to
+	 * @since 1.6.0
+	 */
+	public EpsLzwOutputStream(final OutputStream out) {
+		super(out);
+		_prefix = -1;
+		_closed = false;
+		writeCode(CLEAR_TABLE);
+		clearTable();
+	}
+
+	/**
+	 * Empties the string table, leaving only the codes of single bytes.
+	 * @since 1.6.0
+	 */
+	private void clearTable() {
+		Arrays.fill(_hashKeys, -1);
+		_nextCode = FIRST_CODE;
+	}
+
+	/**
+	 * Writes the pending code and the end-of-data code, then closes the
+	 * underlying stream.
+	 * @throws IOException
+	 * @since 1.6.0
+	 */
+	@Override
+	public void close() throws IOException {
+		if(_closed) {
+			return;
+		}
+
+		_closed = true;
+		flushOutput();
+
+		if(_prefix >= 0) {
+			writeCode(_prefix);
+			// The decoder adds a table entry after reading the pending code, which
+			// the end-of-data code must account for.
+			_nextCode++;
+		}
+
+		writeCode(END_OF_DATA);
+
+		if(_bitCount > 0) {
+			writeByte(_bitBuffer << 8 - _bitCount);
+			_bitCount = 0;
+		}
+
+		flushOutput();
+		out.close();
+	}
+
+	/**
+	 * Writes the compressed bytes produced so far. The pending code and bits
+	 * are kept, as they may still be extended.
+	 * @throws IOException
+	 * @since 1.6.0
+	 */
+	@Override
+	public void flush() throws IOException {
+		flushOutput();
+		out.flush();
+	}
+
+	/**
+	 * Passes the output buffer on to the underlying stream.
+	 * @throws IOException
+	 * @since 1.6.0
+	 */
+	private void flushOutput() throws IOException {
+		if(_outputCount > 0) {
+			out.write(_output, 0, _outputCount);
+			_outputCount = 0;
+		}
+	}
+
+	@Override
+	public void write(final byte[] bytes, final int offset, final int length) throws IOException {
+		for(int i = offset, end = offset + length; i < end; i++) {
+			write(bytes[i]);
+		}
+	}
+
+	@Override
+	public void write(final int b) throws IOException {
+		final int value = b & 0xff;
+
+		if(_prefix < 0) {
+			_prefix = value;
+			return;
+		}
+
+		// Extend the current string if the table knows it.
+		final int key = _prefix << 8 | value;
+		int slot = key % HASH_SIZE;
+
+		while(_hashKeys[slot] != -1) {
+			if(_hashKeys[slot] == key) {
+				_prefix = _hashCodes[slot];
+				return;
+			}
+
+			slot = slot == 0 ? HASH_SIZE - 1 : slot - 1;
+		}
+
+		writeCode(_prefix);
+		_hashKeys[slot] = key;
+		_hashCodes[slot] = (short) _nextCode;
+		_nextCode++;
+
+		if(_nextCode == MAX_CODE) {
+			writeCode(CLEAR_TABLE);
+			clearTable();
+		}
+
+		if(_outputCount > _output.length - 4) {
+			flushOutput();
+		}
+
+		_prefix = value;
+	}
+
+	/**
+	 * Appends a byte to the output buffer.
+	 * @since 1.6.0
+	 */
+	private void writeByte(final int b) {
+		_output[_outputCount++] = (byte) b;
+	}
+
+	/**
+	 * Appends a code to the bit stream, with the length that the decoder
+	 * expects given the current size of the table.
+	 * @since 1.6.0
+	 */
+	private void writeCode(final int code) {
+		final int length = _nextCode >= 2048 ? 12 : _nextCode >= 1024 ? 11 : _nextCode >= 512 ? 10 : 9;
+		_bitBuffer = _bitBuffer << length | code;
+		_bitCount += length;
+
+		while(_bitCount >= 8) {
+			_bitCount -= 8;
+			writeByte(_bitBuffer >>> _bitCount);
+		}
+
+		_bitBuffer &= (1 << _bitCount) - 1;
+	}
+}// class EpsLzwOutputStream
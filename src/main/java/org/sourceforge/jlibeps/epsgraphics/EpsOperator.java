@@ -0,0 +1,58 @@
+/**
+ * Copyright (c) 2001, 2006, Paul James Mutton
+ * Copyright (c) 2007, Arnaud Blouin
+ * All rights reserved.
+ * This file is part of jlibeps, merged with similar code from EPS Graphics, and
+ * expanded by Meyer Sound Laboratories Inc.
+ * jlibeps is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * jlibeps is distributed without any warranty; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the GNU General Public License for more details.
+ * Project: http://www.jibble.org/
+ */
+package org.sourceforge.jlibeps.epsgraphics;
+
+/**
+ * Enumeration of the PostScript operators that are emitted often enough to
+ * deserve a short alias. When the compact prolog is enabled, each alias is
+ * bound to its operator in the document prolog, and the emitters write the
+ * alias instead of the full operator name.
+ * @version 1.6.0
+ */
+public enum EpsOperator {
+	MOVETO("moveto", "m"), LINETO("lineto", "l"), CURVETO("curveto", "c"), RMOVETO("rmoveto", "rm"), RLINETO("rlineto", "rl"),
+	RCURVETO("rcurveto", "rc"), CLOSEPATH("closepath", "h"), NEWPATH("newpath", "n"), FILL("fill", "f"),
+	STROKE("stroke", "s"), CLIP("clip", "W"), SETGRAY("setgray", "g"), SETRGBCOLOR("setrgbcolor", "rg"), SETCMYKCOLOR("setcmykcolor", "k"),
+	SETLINEWIDTH("setlinewidth", "w"), SETMITERLIMIT("setmiterlimit", "M"), SETLINEJOIN("setlinejoin", "j"), SETLINECAP("setlinecap", "J"),
+	SETDASH("setdash", "d"), GSAVE("gsave", "q"), GRESTORE("grestore", "Q"), SHOW("show", "S"), RECTFILL("rectfill", "rf"),
+	RECTSTROKE("rectstroke", "rs"), RECTCLIP("rectclip", "rw"), ARC("arc", "a"), ARCN("arcn", "an");
+
+	private final String _name;
+	private final String _alias;
+
+	EpsOperator(final String name, final String alias) {
+		_name = name;
+		_alias = alias;
+	}
+
+	/**
+	 * Returns the short alias that the compact prolog binds to this operator.
+	 * @return The short alias of the operator
+	 * @since 1.6.0
+	 */
+	public String getAlias() {
+		return _alias;
+	}
+
+	/**
+	 * Returns the full PostScript name of this operator.
+	 * @return The name of the operator
+	 * @since 1.6.0
+	 */
+	public String getName() {
+		return _name;
+	}
+}
@@ -0,0 +1,189 @@
+/**
+ * Copyright (c) 2001, 2006, Paul James Mutton
+ * Copyright (c) 2007, Arnaud Blouin
+ * All rights reserved.
+ * This file is part of jlibeps, merged with similar code from EPS Graphics, and
+ * expanded by Meyer Sound Laboratories Inc.
+ * jlibeps is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * jlibeps is distributed without any warranty; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the GNU General Public License for more details.
+ * Project: http://www.jibble.org/
+ */
+package org.sourceforge.jlibeps.epsgraphics;
+
+/**
+ * This class writes the segments of a path into content lines. It tracks the
+ * current point of the interpreter, as read back from the written numbers, so
+ * that each segment can be written either with absolute coordinates or with
+ * the relative operators rmoveto, rlineto and rcurveto, whichever gives the
+ * shorter line. Since relative coordinates are computed from the rounded
+ * current point, the rounding errors do not add up along the path. The
+ * relative form is only used when its rounded differences reach the same
+ * points as the absolute form, which is not the case when a difference
+ * keeps fewer decimals than the coordinate it leads to, so that the
+ * geometry does not depend on the form.
+ * When relative segments are disabled, the segments are always absolute.
+ * @version 1.6.0
+ */
+public class EpsPathEncoder {
+	/**
+	 * The largest gap between the points reached by the relative and the
+	 * absolute forms of a segment that is put down to floating point
+	 * arithmetic, relative to the magnitude of the coordinates.
+	 */
+	private static final double ARITHMETIC_TOLERANCE = 1e-12;
+
+	/**
+	 * The reusable buffer for composing the relative form of a segment.
+	 */
+	private final EpsLineBuilder _relativeLine;
+	private final boolean _relative;
+
+	private boolean _currentKnown;
+	private double _currentX;
+	private double _currentY;
+	private double _startX;
+	private double _startY;
+
+	/**
+	 * Constructs a path encoder.
+	 * @param line A line builder configured like those that the segments are
+	 * written into
+	 * @param relative Set to true to allow relative segments; false otherwise
+	 * @since 1.6.0
+	 */
+	public EpsPathEncoder(final EpsLineBuilder line, final boolean relative) {
+		_relativeLine = line;
+		_relative = relative;
+		_currentKnown = false;
+	}
+
+	/**
+	 * Writes a closepath segment, which brings the current point back to the
+	 * start of the subpath.
+	 * @param line The cleared line builder to write the segment into
+	 * @since 1.6.0
+	 */
+	public void closePath(final EpsLineBuilder line) {
+		line.operator(EpsOperator.CLOSEPATH);
+		_currentX = _startX;
+		_currentY = _startY;
+	}
+
+	/**
+	 * Writes a curveto segment.
+	 * @param line The cleared line builder to write the segment into
+	 * @since 1.6.0
+	 */
+	public void curveTo(final EpsLineBuilder line, final double x1, final double y1, final double x2, final double y2, final double x3, final double y3) {
+		line.coordinate(x1).coordinate(y1).coordinate(x2).coordinate(y2).coordinate(x3).coordinate(y3).operator(EpsOperator.CURVETO);
+
+		final double endX = line.roundCoordinate(x3);
+		final double endY = line.roundCoordinate(y3);
+
+		if(_relative && _currentKnown) {
+			final double dx1 = line.roundCoordinate(x1) - _currentX;
+			final double dy1 = line.roundCoordinate(y1) - _currentY;
+			final double dx2 = line.roundCoordinate(x2) - _currentX;
+			final double dy2 = line.roundCoordinate(y2) - _currentY;
+			final double dx3 = endX - _currentX;
+			final double dy3 = endY - _currentY;
+			_relativeLine.clear().delta(dx1).delta(dy1).delta(dx2).delta(dy2).delta(dx3).delta(dy3).operator(EpsOperator.RCURVETO);
+
+			if(_relativeLine.length() < line.length() && reaches(line, dx1, _currentX) && reaches(line, dy1, _currentY) &&
+					reaches(line, dx2, _currentX) && reaches(line, dy2, _currentY) && reaches(line, dx3, _currentX) && reaches(line, dy3, _currentY)) {
+				line.clear().append(_relativeLine);
+				_currentX = endX;
+				_currentY = endY;
+				return;
+			}
+		}
+
+		_currentX = endX;
+		_currentY = endY;
+		_currentKnown = true;
+	}
+
+	/**
+	 * Returns the line builder that composes the relative form of the
+	 * segments, whose coordinate precision must be kept the same as that of
+	 * the lines that the segments are written into.
+	 * @return The line builder of the relative segments
+	 * @since 1.6.0
+	 */
+	public EpsLineBuilder getLineBuilder() {
+		return _relativeLine;
+	}
+
+	/**
+	 * Writes a lineto segment.
+	 * @param line The cleared line builder to write the segment into
+	 * @since 1.6.0
+	 */
+	public void lineTo(final EpsLineBuilder line, final double x, final double y) {
+		segmentTo(line, x, y, EpsOperator.LINETO, EpsOperator.RLINETO);
+	}
+
+	/**
+	 * Writes a moveto segment, which starts a new subpath.
+	 * @param line The cleared line builder to write the segment into
+	 * @since 1.6.0
+	 */
+	public void moveTo(final EpsLineBuilder line, final double x, final double y) {
+		segmentTo(line, x, y, EpsOperator.MOVETO, EpsOperator.RMOVETO);
+		_startX = _currentX;
+		_startY = _currentY;
+	}
+
+	/**
+	 * Records a newpath command, after which the interpreter has no current
+	 * point, so the next segment must be absolute.
+	 * @since 1.6.0
+	 */
+	public void newPath() {
+		_currentKnown = false;
+	}
+
+	/**
+	 * Returns whether a coordinate difference, as written, leads from the
+	 * current coordinate to the rounded coordinate that it was computed from.
+	 * @since 1.6.0
+	 */
+	private static boolean reaches(final EpsLineBuilder line, final double delta, final double current) {
+		final double end = current + delta;
+		return Math.abs(current + line.roundDelta(delta) - end) <= ARITHMETIC_TOLERANCE * Math.max(1d, Math.abs(end));
+	}
+
+	/**
+	 * Writes a segment that moves the current point, in absolute or relative
+	 * form.
+	 * @since 1.6.0
+	 */
+	private void segmentTo(final EpsLineBuilder line, final double x, final double y, final EpsOperator absolute, final EpsOperator relative) {
+		line.coordinate(x).coordinate(y).operator(absolute);
+
+		final double endX = line.roundCoordinate(x);
+		final double endY = line.roundCoordinate(y);
+
+		if(_relative && _currentKnown) {
+			final double dx = endX - _currentX;
+			final double dy = endY - _currentY;
+			_relativeLine.clear().delta(dx).delta(dy).operator(relative);
+
+			if(_relativeLine.length() < line.length() && reaches(line, dx, _currentX) && reaches(line, dy, _currentY)) {
+				line.clear().append(_relativeLine);
+				_currentX = endX;
+				_currentY = endY;
+				return;
+			}
+		}
+
+		_currentX = endX;
+		_currentY = endY;
+		_currentKnown = true;
+	}
+}// class EpsPathEncoder
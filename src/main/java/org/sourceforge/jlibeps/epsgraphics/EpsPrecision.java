@@ -0,0 +1,28 @@
+/**
+ * Copyright (c) 2001, 2006, Paul James Mutton
+ * Copyright (c) 2007, Arnaud Blouin
+ * All rights reserved.
+ * This file is part of jlibeps, merged with similar code from EPS Graphics, and
+ * expanded by Meyer Sound Laboratories Inc.
+ * jlibeps is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * jlibeps is distributed without any warranty; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the GNU General Public License for more details.
+ * Project: http://www.jibble.org/
+ */
+package org.sourceforge.jlibeps.epsgraphics;
+
+/**
+ * Enumeration of the ways coordinates can be rounded when they are written.
+ * FULL keeps the seven significant digits of a PostScript real. DECIMALS
+ * limits the number of decimals. QUANTUM snaps coordinates to a grid given in
+ * document units, and DEVICE snaps them to a grid given in points of the
+ * output page, which is converted to document units with the page scale factor.
+ * @version 1.6.0
+ */
+public enum EpsPrecision {
+	FULL, DECIMALS, QUANTUM, DEVICE
+}
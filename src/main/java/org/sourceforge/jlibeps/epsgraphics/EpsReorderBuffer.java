@@ -0,0 +1,564 @@
+/**
+ * Copyright (c) 2001, 2006, Paul James Mutton
+ * Copyright (c) 2007, Arnaud Blouin
+ * All rights reserved.
+ * This file is part of jlibeps, merged with similar code from EPS Graphics, and
+ * expanded by Meyer Sound Laboratories Inc.
+ * jlibeps is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * jlibeps is distributed without any warranty; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the GNU General Public License for more details.
+ * Project: http://www.jibble.org/
+ */
+package org.sourceforge.jlibeps.epsgraphics;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.geom.AffineTransform;
+import java.util.Arrays;
+
+/**
+ * This class holds back a window of painting operations, so that they can be
+ * written in an order that changes the graphics state less often. Each
+ * operation is recorded with its content lines, its graphics state and its
+ * bounds in device space. The order keeps every operation after the earlier
+ * ones that it overlaps, as in the painter's algorithm, and otherwise groups
+ * the operations that share the same graphics state. The overlaps are found
+ * through a uniform grid over the bounds of the window, so that operations
+ * far apart are never compared.
+ * @version 1.6.0
+ */
+public class EpsReorderBuffer {
+	/**
+	 * The size of the content lines after which the window should be written,
+	 * whatever the number of operations.
+	 */
+	public static final int BODY_LIMIT = 1 << 20;
+
+	/**
+	 * The content lines of the operations, one after the other, including
+	 * those of the operation being recorded.
+	 */
+	private final EpsLineBuilder _body = new EpsLineBuilder();
+	private int _bodyStart;
+	private int _lineCount;
+	private boolean _path;
+
+	// The recorded operations.
+	private int _count;
+	private EpsOperator[] _actions = new EpsOperator[16];
+	private boolean[] _paths = new boolean[16];
+	private int[] _styles = new int[16];
+	private int[] _offsets = new int[16];
+	private int[] _lengths = new int[16];
+	private int[] _lines = new int[16];
+	private double[] _bounds = new double[64];
+	private double[] _deviceBounds = new double[64];
+
+	// The distinct graphics states of the recorded operations.
+	private int _styleCount;
+	private EpsOperator[] _styleActions = new EpsOperator[16];
+	private Color[] _styleColors = new Color[16];
+	private BasicStroke[] _styleStrokes = new BasicStroke[16];
+	private AffineTransform[] _styleTransforms = new AffineTransform[16];
+
+	// The order of the operations, and what computing it takes: the number of
+	// earlier operations that each one overlaps and that are not written yet,
+	// the lists of later operations that overlap each one, and the lists of
+	// the operations of each graphics state that are ready to be written.
+	private int[] _order = new int[16];
+	private int[] _pending = new int[16];
+	private int[] _successors = new int[16];
+	private int[] _edgeTargets = new int[64];
+	private int[] _edgeNext = new int[64];
+	private int _edgeCount;
+	private int[] _seen = new int[16];
+	private int[] _readyNext = new int[16];
+	private int[] _readyHeads = new int[16];
+	private int[] _readyTails = new int[16];
+
+	// The grid over the bounds of the window, as lists of the operations that
+	// cover each cell, and the list of the operations that cover too many
+	// cells to be registered in each.
+	private int[] _cells = new int[16];
+	private int[] _entryOperations = new int[64];
+	private int[] _entryNext = new int[64];
+	private int _entryCount;
+	private int[] _large = new int[16];
+	private int _largeCount;
+
+	/**
+	 * Appends a line to the operation being recorded.
+	 * @param line The line builder holding the content line, without its
+	 * line terminator
+	 * @since 1.6.0
+	 */
+	public void append(final EpsLineBuilder line) {
+		_body.append(line).append('\n');
+		_lineCount++;
+	}
+
+	/**
+	 * Adds a directed overlap from an operation to a later one.
+	 * @since 1.6.0
+	 */
+	private void addEdge(final int from, final int to) {
+		if(_edgeCount == _edgeTargets.length) {
+			_edgeTargets = Arrays.copyOf(_edgeTargets, 2 * _edgeCount);
+			_edgeNext = Arrays.copyOf(_edgeNext, 2 * _edgeCount);
+		}
+
+		_edgeTargets[_edgeCount] = to;
+		_edgeNext[_edgeCount] = _successors[from];
+		_successors[from] = _edgeCount++;
+		_pending[to]++;
+	}
+
+	/**
+	 * Registers an operation in a cell of the grid.
+	 * @since 1.6.0
+	 */
+	private void addEntry(final int cell, final int operation) {
+		if(_entryCount == _entryOperations.length) {
+			_entryOperations = Arrays.copyOf(_entryOperations, 2 * _entryCount);
+			_entryNext = Arrays.copyOf(_entryNext, 2 * _entryCount);
+		}
+
+		_entryOperations[_entryCount] = operation;
+		_entryNext[_entryCount] = _cells[cell];
+		_cells[cell] = _entryCount++;
+	}
+
+	/**
+	 * Starts recording an operation, whose content lines are then passed to
+	 * append.
+	 * @since 1.6.0
+	 */
+	public void begin() {
+		_bodyStart = _body.length();
+		_lineCount = 0;
+		_path = false;
+	}
+
+	/**
+	 * Forgets the recorded operations, but keeps the lines of the operation
+	 * being recorded, if any.
+	 * @since 1.6.0
+	 */
+	public void clear() {
+		_body.delete(0, _bodyStart);
+		_bodyStart = 0;
+		_count = 0;
+		_styleCount = 0;
+		Arrays.fill(_styleColors, null);
+		Arrays.fill(_styleStrokes, null);
+		Arrays.fill(_styleTransforms, null);
+	}
+
+	/**
+	 * Computes the order in which the recorded operations are written. The
+	 * operations of the current graphics state are written as long as some
+	 * are ready, i.e. all the earlier operations that they overlap have been
+	 * written. Then the earliest operation not written yet, which is always
+	 * ready, gives the next graphics state.
+	 * @return The indices of the operations in the order to write them, of
+	 * which the first size() ones are meaningful
+	 * @since 1.6.0
+	 */
+	public int[] computeOrder() {
+		if(_order.length < _count) {
+			final int capacity = _actions.length;
+			_order = new int[capacity];
+			_pending = new int[capacity];
+			_successors = new int[capacity];
+			_seen = new int[capacity];
+			_readyNext = new int[capacity];
+		}
+
+		if(_readyHeads.length < _styleCount) {
+			_readyHeads = new int[_styleActions.length];
+			_readyTails = new int[_readyHeads.length];
+		}
+
+		computeOverlaps();
+
+		Arrays.fill(_readyHeads, 0, _styleCount, -1);
+
+		for(int i = 0; i < _count; i++) {
+			if(_pending[i] == 0) {
+				pushReady(i);
+			}
+		}
+
+		int written = 0;
+		int earliest = 0;
+		int style = _count > 0 ? _styles[0] : 0;
+
+		while(written < _count) {
+			int operation = _readyHeads[style];
+
+			if(operation < 0) {
+				// Written operations are marked as pending forever.
+				while(_pending[earliest] != 0) {
+					earliest++;
+				}
+
+				style = _styles[earliest];
+				operation = _readyHeads[style];
+			}
+
+			_readyHeads[style] = _readyNext[operation];
+			_pending[operation] = -1;
+			_order[written++] = operation;
+
+			for(int edge = _successors[operation]; edge >= 0; edge = _edgeNext[edge]) {
+				final int successor = _edgeTargets[edge];
+
+				if(--_pending[successor] == 0) {
+					pushReady(successor);
+				}
+			}
+		}
+
+		return _order;
+	}
+
+	/**
+	 * Finds the overlaps between the recorded operations, through a grid
+	 * that has about as many cells as there are operations.
+	 * @since 1.6.0
+	 */
+	private void computeOverlaps() {
+		Arrays.fill(_pending, 0, _count, 0);
+		Arrays.fill(_successors, 0, _count, -1);
+		Arrays.fill(_seen, 0, _count, -1);
+		_edgeCount = 0;
+		_entryCount = 0;
+		_largeCount = 0;
+
+		double minX = Double.POSITIVE_INFINITY;
+		double minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY;
+		double maxY = Double.NEGATIVE_INFINITY;
+
+		for(int i = 0; i < _count; i++) {
+			if(isBounded(i)) {
+				minX = Math.min(minX, _deviceBounds[4 * i]);
+				minY = Math.min(minY, _deviceBounds[4 * i + 1]);
+				maxX = Math.max(maxX, _deviceBounds[4 * i + 2]);
+				maxY = Math.max(maxY, _deviceBounds[4 * i + 3]);
+			}
+		}
+
+		final int side = Math.max(1, (int) Math.sqrt(_count));
+
+		if(_cells.length < side * side) {
+			_cells = new int[side * side];
+		}
+
+		Arrays.fill(_cells, 0, side * side, -1);
+
+		final double cellWidth = (maxX - minX) / side;
+		final double cellHeight = (maxY - minY) / side;
+
+		for(int j = 0; j < _count; j++) {
+			final int column1 = cellOf(_deviceBounds[4 * j], minX, cellWidth, side);
+			final int row1 = cellOf(_deviceBounds[4 * j + 1], minY, cellHeight, side);
+			final int column2 = cellOf(_deviceBounds[4 * j + 2], minX, cellWidth, side);
+			final int row2 = cellOf(_deviceBounds[4 * j + 3], minY, cellHeight, side);
+			final boolean large = !isBounded(j) || (column2 - column1 + 1) * (row2 - row1 + 1) > side;
+
+			// The large operations, and those whose bounds are not finite,
+			// are compared with every earlier one, and every later one is
+			// compared with them.
+			for(int k = 0; k < _largeCount; k++) {
+				overlap(_large[k], j);
+			}
+
+			if(large) {
+				for(int i = 0; i < j; i++) {
+					overlap(i, j);
+				}
+
+				if(_largeCount == _large.length) {
+					_large = Arrays.copyOf(_large, 2 * _largeCount);
+				}
+
+				_large[_largeCount++] = j;
+				continue;
+			}
+
+			for(int row = row1; row <= row2; row++) {
+				for(int column = column1; column <= column2; column++) {
+					for(int entry = _cells[row * side + column]; entry >= 0; entry = _entryNext[entry]) {
+						overlap(_entryOperations[entry], j);
+					}
+				}
+			}
+
+			for(int row = row1; row <= row2; row++) {
+				for(int column = column1; column <= column2; column++) {
+					addEntry(row * side + column, j);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the cell of the grid that a coordinate falls in, along one axis.
+	 * @since 1.6.0
+	 */
+	private static int cellOf(final double value, final double min, final double cellSize, final int side) {
+		if(!(cellSize > 0d)) {
+			return 0;
+		}
+
+		return Math.max(0, Math.min(side - 1, (int) ((value - min) / cellSize)));
+	}
+
+	/**
+	 * Ends the operation being recorded, and records it with its graphics
+	 * state and bounds.
+	 * @param action The painting action, which is part of the graphics state
+	 * @param color The color that the operation paints with
+	 * @param stroke The stroke that the operation paints with, or null if it
+	 * does not matter
+	 * @param transform The transformation matrix that the operation is
+	 * written in, or null if it does not matter
+	 * @param bounds The bounds of the operation in the units of the written
+	 * coordinates, as minimum x, minimum y, maximum x and maximum y
+	 * @param deviceBounds The bounds of everything that the operation may
+	 * paint in device space, in the same order
+	 * @since 1.6.0
+	 */
+	public void end(final EpsOperator action, final Color color, final BasicStroke stroke, final AffineTransform transform, final double[] bounds,
+			final double[] deviceBounds) {
+		if(_count == _actions.length) {
+			final int capacity = 2 * _count;
+			_actions = Arrays.copyOf(_actions, capacity);
+			_paths = Arrays.copyOf(_paths, capacity);
+			_styles = Arrays.copyOf(_styles, capacity);
+			_offsets = Arrays.copyOf(_offsets, capacity);
+			_lengths = Arrays.copyOf(_lengths, capacity);
+			_lines = Arrays.copyOf(_lines, capacity);
+			_bounds = Arrays.copyOf(_bounds, 4 * capacity);
+			_deviceBounds = Arrays.copyOf(_deviceBounds, 4 * capacity);
+		}
+
+		_actions[_count] = action;
+		_paths[_count] = _path;
+		_styles[_count] = styleOf(action, color, stroke, transform);
+		_offsets[_count] = _bodyStart;
+		_lengths[_count] = _body.length() - _bodyStart;
+		_lines[_count] = _lineCount;
+		System.arraycopy(bounds, 0, _bounds, 4 * _count, 4);
+		System.arraycopy(deviceBounds, 0, _deviceBounds, 4 * _count, 4);
+		_count++;
+
+		_bodyStart = _body.length();
+		_lineCount = 0;
+		_path = false;
+	}
+
+	/**
+	 * Returns the painting action of an operation.
+	 * @param operation The index of the operation
+	 * @since 1.6.0
+	 */
+	public EpsOperator getAction(final int operation) {
+		return _actions[operation];
+	}
+
+	/**
+	 * Returns the line builder that holds the content lines of all the
+	 * operations.
+	 * @since 1.6.0
+	 */
+	public EpsLineBuilder getBody() {
+		return _body;
+	}
+
+	/**
+	 * Returns the size of the content lines of all the operations.
+	 * @since 1.6.0
+	 */
+	public int getBodyLength() {
+		return _body.length();
+	}
+
+	/**
+	 * Returns a bound of an operation, in the units of the written
+	 * coordinates.
+	 * @param operation The index of the operation
+	 * @param index The index of the bound, as minimum x, minimum y, maximum x
+	 * and maximum y
+	 * @since 1.6.0
+	 */
+	public double getBound(final int operation, final int index) {
+		return _bounds[4 * operation + index];
+	}
+
+	/**
+	 * Returns the color that an operation paints with.
+	 * @param operation The index of the operation
+	 * @since 1.6.0
+	 */
+	public Color getColor(final int operation) {
+		return _styleColors[_styles[operation]];
+	}
+
+	/**
+	 * Returns the size of the content lines of an operation.
+	 * @param operation The index of the operation
+	 * @since 1.6.0
+	 */
+	public int getLength(final int operation) {
+		return _lengths[operation];
+	}
+
+	/**
+	 * Returns the number of content lines of an operation.
+	 * @param operation The index of the operation
+	 * @since 1.6.0
+	 */
+	public int getLineCount(final int operation) {
+		return _lines[operation];
+	}
+
+	/**
+	 * Returns the offset of the content lines of an operation in the body.
+	 * @param operation The index of the operation
+	 * @since 1.6.0
+	 */
+	public int getOffset(final int operation) {
+		return _offsets[operation];
+	}
+
+	/**
+	 * Returns the stroke that an operation paints with, or null if it does
+	 * not matter.
+	 * @param operation The index of the operation
+	 * @since 1.6.0
+	 */
+	public BasicStroke getStroke(final int operation) {
+		return _styleStrokes[_styles[operation]];
+	}
+
+	/**
+	 * Returns the transformation matrix that an operation is written in, or
+	 * null if it does not matter.
+	 * @param operation The index of the operation
+	 * @since 1.6.0
+	 */
+	public AffineTransform getTransform(final int operation) {
+		return _styleTransforms[_styles[operation]];
+	}
+
+	/**
+	 * Returns whether an operation has bounds that can overlap others.
+	 * @since 1.6.0
+	 */
+	private boolean isBounded(final int operation) {
+		final int index = 4 * operation;
+
+		return _deviceBounds[index] <= _deviceBounds[index + 2] && _deviceBounds[index + 1] <= _deviceBounds[index + 3] &&
+				!Double.isInfinite(_deviceBounds[index + 2] - _deviceBounds[index]) && !Double.isInfinite(_deviceBounds[index + 3] - _deviceBounds[index + 1]);
+	}
+
+	/**
+	 * Returns whether the content lines of an operation are a path, which is
+	 * to be started and painted by the caller, rather than a complete
+	 * painting command.
+	 * @param operation The index of the operation
+	 * @since 1.6.0
+	 */
+	public boolean isPath(final int operation) {
+		return _paths[operation];
+	}
+
+	/**
+	 * Records that the content lines of the operation being recorded are a
+	 * path, which is to be started and painted when the operation is written.
+	 * @since 1.6.0
+	 */
+	public void markPath() {
+		_path = true;
+	}
+
+	/**
+	 * Adds an overlap from an earlier operation to a later one, if their
+	 * bounds intersect and the overlap is not known yet.
+	 * @since 1.6.0
+	 */
+	private void overlap(final int earlier, final int later) {
+		if(_seen[earlier] == later) {
+			return;
+		}
+
+		_seen[earlier] = later;
+		final int i = 4 * earlier;
+		final int j = 4 * later;
+
+		if(_deviceBounds[i] <= _deviceBounds[j + 2] && _deviceBounds[j] <= _deviceBounds[i + 2] && _deviceBounds[i + 1] <= _deviceBounds[j + 3] &&
+				_deviceBounds[j + 1] <= _deviceBounds[i + 3]) {
+			addEdge(earlier, later);
+		}
+	}
+
+	/**
+	 * Appends an operation to the list of ready operations of its graphics
+	 * state.
+	 * @since 1.6.0
+	 */
+	private void pushReady(final int operation) {
+		final int style = _styles[operation];
+		_readyNext[operation] = -1;
+
+		if(_readyHeads[style] < 0) {
+			_readyHeads[style] = operation;
+		}else {
+			_readyNext[_readyTails[style]] = operation;
+		}
+
+		_readyTails[style] = operation;
+	}
+
+	/**
+	 * Returns the number of recorded operations.
+	 * @since 1.6.0
+	 */
+	public int size() {
+		return _count;
+	}
+
+	/**
+	 * Returns the index of a graphics state, registering it if no recorded
+	 * operation has it yet.
+	 * @since 1.6.0
+	 */
+	private int styleOf(final EpsOperator action, final Color color, final BasicStroke stroke, final AffineTransform transform) {
+		for(int i = 0; i < _styleCount; i++) {
+			if(_styleActions[i] == action && _styleColors[i].equals(color) && (stroke == null ? _styleStrokes[i] == null : stroke.equals(_styleStrokes[i])) &&
+					(transform == null ? _styleTransforms[i] == null : transform.equals(_styleTransforms[i]))) {
+				return i;
+			}
+		}
+
+		if(_styleCount == _styleActions.length) {
+			final int capacity = 2 * _styleCount;
+			_styleActions = Arrays.copyOf(_styleActions, capacity);
+			_styleColors = Arrays.copyOf(_styleColors, capacity);
+			_styleStrokes = Arrays.copyOf(_styleStrokes, capacity);
+			_styleTransforms = Arrays.copyOf(_styleTransforms, capacity);
+		}
+
+		_styleActions[_styleCount] = action;
+		_styleColors[_styleCount] = color;
+		_styleStrokes[_styleCount] = stroke;
+		_styleTransforms[_styleCount] = transform != null ? new AffineTransform(transform) : null;
+		return _styleCount++;
+	}
+}// class EpsReorderBuffer
@@ -0,0 +1,187 @@
+/**
+ * Copyright (c) 2001, 2006, Paul James Mutton
+ * Copyright (c) 2007, Arnaud Blouin
+ * All rights reserved.
+ * This file is part of jlibeps, merged with similar code from EPS Graphics, and
+ * expanded by Meyer Sound Laboratories Inc.
+ * jlibeps is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * jlibeps is distributed without any warranty; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the GNU General Public License for more details.
+ * Project: http://www.jibble.org/
+ */
+package org.sourceforge.jlibeps.epsgraphics;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * This class compresses bytes with the run-length method of the PostScript
+ * RunLengthDecode filter. A run of 3 to 128 equal bytes is written as a
+ * length byte of 257 minus the run length followed by the repeated byte, and
+ * the other bytes are gathered in literal records of up to 128 bytes, each
+ * preceded by a length byte of the record length minus 1. The output ends
+ * with the end-of-data byte 128 when the stream is closed.
+ * @version 1.6.0
+ */
+public class EpsRunLengthOutputStream extends FilterOutputStream {
+	private static final int END_OF_DATA = 128;
+
+	/**
+	 * The maximum number of bytes of a run or of a literal record.
+	 */
+	private static final int MAX_LENGTH = 128;
+
+	/**
+	 * The shortest run that is written as a run rather than as literal bytes.
+	 */
+	private static final int MIN_RUN = 3;
+
+	private final byte[] _literal = new byte[MAX_LENGTH];
+	private final byte[] _output = new byte[EpsSink.DEFAULT_BUFFER_SIZE];
+	private int _literalCount;
+	private int _outputCount;
+	private int _runByte;
+	private int _runLength;
+	private boolean _closed;
+
+	/**
+	 * Constructs a run-length encoder.
+	 * @param out The stream to write the compressed bytes to
+	 * @since 1.6.0
+	 */
+	public EpsRunLengthOutputStream(final OutputStream out) {
+		super(out);
+		_literalCount = 0;
+		_outputCount = 0;
+		_runLength = 0;
+		_closed = false;
+	}
+
+	/**
+	 * Writes the pending bytes and the end-of-data byte, then closes the
+	 * underlying stream.
+	 * @throws IOException
+	 * @since 1.6.0
+	 */
+	@Override
+	public void close() throws IOException {
+		if(_closed) {
+			return;
+		}
+
+		_closed = true;
+		endRun();
+		endLiteral();
+		flushOutput();
+		writeByte(END_OF_DATA);
+		flushOutput();
+		out.close();
+	}
+
+	/**
+	 * Writes the literal record gathered so far, if any.
+	 * @throws IOException
+	 * @since 1.6.0
+	 */
+	private void endLiteral() throws IOException {
+		if(_literalCount == 0) {
+			return;
+		}
+
+		if(_outputCount > _output.length - MAX_LENGTH - 1) {
+			flushOutput();
+		}
+
+		writeByte(_literalCount - 1);
+		System.arraycopy(_literal, 0, _output, _outputCount, _literalCount);
+		_outputCount += _literalCount;
+		_literalCount = 0;
+	}
+
+	/**
+	 * Writes the current run as a run record if it is long enough, and adds
+	 * it to the literal record otherwise.
+	 * @throws IOException
+	 * @since 1.6.0
+	 */
+	private void endRun() throws IOException {
+		if(_runLength >= MIN_RUN) {
+			endLiteral();
+
+			if(_outputCount > _output.length - 2) {
+				flushOutput();
+			}
+
+			writeByte(257 - _runLength);
+			writeByte(_runByte);
+		}else {
+			for(int i = 0; i < _runLength; i++) {
+				if(_literalCount == MAX_LENGTH) {
+					endLiteral();
+				}
+
+				_literal[_literalCount++] = (byte) _runByte;
+			}
+		}
+
+		_runLength = 0;
+	}
+
+	/**
+	 * Writes the compressed bytes produced so far. The pending run and
+	 * literal bytes are kept, as they may still be extended.
+	 * @throws IOException
+	 * @since 1.6.0
+	 */
+	@Override
+	public void flush() throws IOException {
+		flushOutput();
+		out.flush();
+	}
+
+	/**
+	 * Passes the output buffer on to the underlying stream.
+	 * @throws IOException
+	 * @since 1.6.0
+	 */
+	private void flushOutput() throws IOException {
+		if(_outputCount > 0) {
+			out.write(_output, 0, _outputCount);
+			_outputCount = 0;
+		}
+	}
+
+	@Override
+	public void write(final byte[] bytes, final int offset, final int length) throws IOException {
+		for(int i = offset, end = offset + length; i < end; i++) {
+			write(bytes[i]);
+		}
+	}
+
+	@Override
+	public void write(final int b) throws IOException {
+		final int value = b & 0xff;
+
+		if(_runLength > 0 && value == _runByte && _runLength < MAX_LENGTH) {
+			_runLength++;
+			return;
+		}
+
+		endRun();
+		_runByte = value;
+		_runLength = 1;
+	}
+
+	/**
+	 * Appends a byte to the output buffer.
+	 * @since 1.6.0
+	 */
+	private void writeByte(final int b) {
+		_output[_outputCount++] = (byte) b;
+	}
+}// class EpsRunLengthOutputStream
@@ -0,0 +1,485 @@
+/**
+ * Copyright (c) 2001, 2006, Paul James Mutton
+ * Copyright (c) 2007, Arnaud Blouin
+ * All rights reserved.
+ * This file is part of jlibeps, merged with similar code from EPS Graphics, and
+ * expanded by Meyer Sound Laboratories Inc.
+ * jlibeps is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * jlibeps is distributed without any warranty; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the GNU General Public License for more details.
+ * Project: http://www.jibble.org/
+ */
+package org.sourceforge.jlibeps.epsgraphics;
+
+/**
+ * This class holds the output settings of an EPS document. The settings are
+ * copied by the EpsDocument constructor, as most of them affect the header that
+ * is written right away, so changing them afterwards has no effect on an
+ * existing document. The default settings produce the same kind of output as
+ * previous versions of the library.
+ * @version 1.6.0
+ */
+public class EpsSettings {
+	/**
+	 * The default number of decimals of the DECIMALS precision.
+	 */
+	public static final int DEFAULT_COORDINATE_DECIMALS = 2;
+
+	/**
+	 * The default grid of the DEVICE precision, in points of the output page.
+	 * Details finer than a hundredth of a point are invisible in print.
+	 */
+	public static final double DEFAULT_DEVICE_QUANTUM = 0.01;
+
+	/**
+	 * The default maximum number of procedures defined in the document body at
+	 * any time.
+	 */
+	public static final int DEFAULT_PROCEDURE_LIMIT = 256;
+
+	private boolean _binaryTokens;
+	private boolean _coalescePaths;
+	private boolean _compactProlog;
+	private EpsCompression _compression;
+	private EpsPrecision _coordinatePrecision;
+	private EpsDithering _dithering;
+	private EpsImageCompression _imageCompression;
+	private EpsImageEncoding _imageEncoding;
+	private boolean _indexedImages;
+	private int _coordinateDecimals;
+	private double _coordinateQuantum;
+	private boolean _relativePaths;
+	private boolean _nativeTransforms;
+	private int _pathCacheRepeats;
+	private int _procedureLimit;
+	private int _reorderWindow;
+
+	/**
+	 * Constructs the default settings.
+	 * @since 1.6.0
+	 */
+	public EpsSettings() {
+		_binaryTokens = false;
+		_coalescePaths = false;
+		_compactProlog = false;
+		_compression = EpsCompression.NONE;
+		_coordinatePrecision = EpsPrecision.FULL;
+		_coordinateDecimals = DEFAULT_COORDINATE_DECIMALS;
+		_coordinateQuantum = DEFAULT_DEVICE_QUANTUM;
+		_dithering = EpsDithering.NONE;
+		_imageCompression = EpsImageCompression.NONE;
+		_imageEncoding = EpsImageEncoding.HEX;
+		_indexedImages = true;
+		_relativePaths = false;
+		_nativeTransforms = false;
+		_pathCacheRepeats = 0;
+		_procedureLimit = DEFAULT_PROCEDURE_LIMIT;
+		_reorderWindow = 0;
+	}
+
+	/**
+	 * Copy constructor.
+	 * @param settings The settings to copy
+	 * @since 1.6.0
+	 */
+	public EpsSettings(final EpsSettings settings) {
+		_binaryTokens = settings._binaryTokens;
+		_coalescePaths = settings._coalescePaths;
+		_compactProlog = settings._compactProlog;
+		_compression = settings._compression;
+		_coordinatePrecision = settings._coordinatePrecision;
+		_coordinateDecimals = settings._coordinateDecimals;
+		_coordinateQuantum = settings._coordinateQuantum;
+		_dithering = settings._dithering;
+		_imageCompression = settings._imageCompression;
+		_imageEncoding = settings._imageEncoding;
+		_indexedImages = settings._indexedImages;
+		_relativePaths = settings._relativePaths;
+		_nativeTransforms = settings._nativeTransforms;
+		_pathCacheRepeats = settings._pathCacheRepeats;
+		_procedureLimit = settings._procedureLimit;
+		_reorderWindow = settings._reorderWindow;
+	}
+
+	/**
+	 * Returns how the body of the document is compressed.
+	 * @return The compression method of the body
+	 * @since 1.6.0
+	 */
+	public EpsCompression getCompression() {
+		return _compression;
+	}
+
+	/**
+	 * Returns the maximum number of decimals of coordinates, which is used by
+	 * the DECIMALS precision.
+	 * @return The maximum number of decimals of coordinates
+	 * @since 1.6.0
+	 */
+	public int getCoordinateDecimals() {
+		return _coordinateDecimals;
+	}
+
+	/**
+	 * Returns how coordinates are rounded when they are written.
+	 * @return The coordinate precision
+	 * @since 1.6.0
+	 */
+	public EpsPrecision getCoordinatePrecision() {
+		return _coordinatePrecision;
+	}
+
+	/**
+	 * Returns the grid that coordinates are snapped to, which is used by the
+	 * QUANTUM precision in document units, and by the DEVICE precision in
+	 * points of the output page.
+	 * @return The coordinate grid
+	 * @since 1.6.0
+	 */
+	public double getCoordinateQuantum() {
+		return _coordinateQuantum;
+	}
+
+	/**
+	 * Returns how images are reduced to black and white pixels, in black and
+	 * white.
+	 * @return The dithering of images
+	 * @since 1.6.0
+	 */
+	public EpsDithering getDithering() {
+		return _dithering;
+	}
+
+	/**
+	 * Returns how the data of the images is compressed.
+	 * @return The compression of the image data
+	 * @since 1.6.0
+	 */
+	public EpsImageCompression getImageCompression() {
+		return _imageCompression;
+	}
+
+	/**
+	 * Returns how the data of the images is written.
+	 * @return The encoding of the image data
+	 * @since 1.6.0
+	 */
+	public EpsImageEncoding getImageEncoding() {
+		return _imageEncoding;
+	}
+
+	/**
+	 * Returns how many times a path has to be drawn before it is defined as a
+	 * procedure, or 0 if paths are not cached.
+	 * @return The number of repeats that promote a path to a procedure
+	 * @since 1.6.0
+	 */
+	public int getPathCacheRepeats() {
+		return _pathCacheRepeats;
+	}
+
+	/**
+	 * Returns the maximum number of procedures defined in the document body at
+	 * any time.
+	 * @return The maximum number of procedures
+	 * @since 1.6.0
+	 */
+	public int getProcedureLimit() {
+		return _procedureLimit;
+	}
+
+	/**
+	 * Returns the number of painting operations that are held back to reorder
+	 * them, or 0 if they are written in the order they are painted.
+	 * @return The size of the reordering window
+	 * @since 1.6.0
+	 */
+	public int getReorderWindow() {
+		return _reorderWindow;
+	}
+
+	/**
+	 * Returns whether color images of few colors are written with a palette.
+	 * @return true if images may be indexed; false otherwise
+	 * @since 1.6.0
+	 */
+	public boolean isIndexedImages() {
+		return _indexedImages;
+	}
+
+	/**
+	 * Returns whether numbers are written as PostScript Level 2 binary tokens.
+	 * @return true if the document content is binary; false otherwise
+	 * @since 1.6.0
+	 */
+	public boolean isBinaryTokens() {
+		return _binaryTokens;
+	}
+
+	/**
+	 * Returns whether consecutive paths painted the same way are combined into
+	 * one path.
+	 * @return true if paths are coalesced; false otherwise
+	 * @since 1.6.0
+	 */
+	public boolean isCoalescePaths() {
+		return _coalescePaths;
+	}
+
+	/**
+	 * Returns whether the document has a prolog that binds short aliases to the
+	 * most frequent operators, which the content then uses.
+	 * @return true if the compact prolog is enabled; false otherwise
+	 * @see org.sourceforge.jlibeps.epsgraphics.EpsOperator
+	 * @since 1.6.0
+	 */
+	public boolean isCompactProlog() {
+		return _compactProlog;
+	}
+
+	/**
+	 * Returns whether the transforms of the graphics contexts are written as
+	 * the PostScript current transformation matrix.
+	 * @return true if native transforms are enabled; false otherwise
+	 * @since 1.6.0
+	 */
+	public boolean isNativeTransforms() {
+		return _nativeTransforms;
+	}
+
+	/**
+	 * Returns whether path segments may be written with the relative operators
+	 * rmoveto, rlineto and rcurveto.
+	 * @return true if relative path segments are enabled; false otherwise
+	 * @since 1.6.0
+	 */
+	public boolean isRelativePaths() {
+		return _relativePaths;
+	}
+
+	/**
+	 * Sets whether numbers are written as PostScript Level 2 binary tokens,
+	 * which are shorter and faster to read than their text form. The document
+	 * then declares binary data, so it must only be given to consumers that
+	 * accept binary EPS. A Writer would encode the binary bytes as characters,
+	 * so numbers are still written as text when the target is a Writer.
+	 * @param binaryTokens Set to true to write binary tokens; false otherwise
+	 * @see org.sourceforge.jlibeps.epsgraphics.EpsBinaryLineBuilder
+	 * @since 1.6.0
+	 */
+	public void setBinaryTokens(final boolean binaryTokens) {
+		_binaryTokens = binaryTokens;
+	}
+
+	/**
+	 * Sets how the body of the document is compressed, i.e. everything between
+	 * the header and the footer. The body is then decoded by the interpreter
+	 * through the matching filter, and the document declares binary data and
+	 * the language level that the filter requires. As with binary tokens, the
+	 * body is left uncompressed when the target is a Writer.
+	 * @param compression The compression method of the body
+	 * @since 1.6.0
+	 */
+	public void setCompression(final EpsCompression compression) {
+		_compression = compression != null ? compression : EpsCompression.NONE;
+	}
+
+	/**
+	 * Limits coordinates to a maximum number of decimals, and selects the
+	 * DECIMALS precision.
+	 * @param decimals The maximum number of decimals of coordinates
+	 * @since 1.6.0
+	 */
+	public void setCoordinateDecimals(final int decimals) {
+		_coordinatePrecision = EpsPrecision.DECIMALS;
+		_coordinateDecimals = Math.max(0, decimals);
+	}
+
+	/**
+	 * Sets how coordinates are rounded when they are written. The DECIMALS,
+	 * QUANTUM and DEVICE precisions use the current number of decimals or grid.
+	 * @param precision The coordinate precision
+	 * @since 1.6.0
+	 */
+	public void setCoordinatePrecision(final EpsPrecision precision) {
+		_coordinatePrecision = precision != null ? precision : EpsPrecision.FULL;
+	}
+
+	/**
+	 * Snaps coordinates to a grid given in document units, and selects the
+	 * QUANTUM precision.
+	 * @param quantum The grid step, in document units
+	 * @since 1.6.0
+	 */
+	public void setCoordinateQuantum(final double quantum) {
+		_coordinatePrecision = EpsPrecision.QUANTUM;
+		_coordinateQuantum = quantum;
+	}
+
+	/**
+	 * Snaps coordinates to a grid given in points of the output page, and
+	 * selects the DEVICE precision. The grid is converted to document units
+	 * with the scale factor that fits the content on the page, so the output
+	 * shrinks without any visible change. In-memory documents do not know
+	 * their scale factor while drawing, and keep the FULL precision.
+	 * @param quantum The grid step, in points of the output page
+	 * @since 1.6.0
+	 */
+	public void setDeviceQuantum(final double quantum) {
+		_coordinatePrecision = EpsPrecision.DEVICE;
+		_coordinateQuantum = quantum;
+	}
+
+	/**
+	 * Sets whether consecutive paths painted with the same color, stroke,
+	 * clip and transform are combined into one path, which is painted once
+	 * when something else is written. Grid lines and tick marks drawn one by
+	 * one then cost one stroke for the lot. Stroked paths always paint the
+	 * same once combined; filled paths are only combined while their bounds
+	 * do not overlap, as the winding of one could otherwise cut holes in
+	 * another.
+	 * @param coalescePaths Set to true to coalesce paths; false otherwise
+	 * @since 1.6.0
+	 */
+	public void setCoalescePaths(final boolean coalescePaths) {
+		_coalescePaths = coalescePaths;
+	}
+
+	/**
+	 * Sets whether the document has a prolog that binds short aliases to the
+	 * most frequent operators, which the content then uses. This typically
+	 * makes path-heavy documents a third smaller.
+	 * @param compactProlog Set to true to enable the compact prolog; false otherwise
+	 * @since 1.6.0
+	 */
+	public void setCompactProlog(final boolean compactProlog) {
+		_compactProlog = compactProlog;
+	}
+
+	/**
+	 * Sets how images are reduced to black and white pixels, in black and
+	 * white, where each pixel is written as a single bit. Dithering renders
+	 * the gray levels of the image as patterns of black and white pixels.
+	 * @param dithering The dithering of images
+	 * @since 1.6.0
+	 */
+	public void setDithering(final EpsDithering dithering) {
+		_dithering = dithering != null ? dithering : EpsDithering.NONE;
+	}
+
+	/**
+	 * Sets how the data of the images is compressed. The document declares
+	 * the language level that the compression requires, which is Level 3 for
+	 * Deflate and for the automatic choice.
+	 * @param imageCompression The compression of the image data
+	 * @since 1.6.0
+	 */
+	public void setImageCompression(final EpsImageCompression imageCompression) {
+		_imageCompression = imageCompression != null ? imageCompression : EpsImageCompression.NONE;
+	}
+
+	/**
+	 * Sets whether color images of at most 256 colors are written as 1, 2, 4
+	 * or 8-bit indices into a palette, in an Indexed color space, rather than
+	 * as red, green and blue samples. This makes their data up to 24 times
+	 * smaller. The palette is that of an IndexColorModel, or is gathered from
+	 * the pixels, which takes an extra pass over them unless they turn out to
+	 * have too many colors early on. Indexed color spaces require Level 2.
+	 * @param indexedImages Set to true to index the images of few colors; false otherwise
+	 * @since 1.6.0
+	 */
+	public void setIndexedImages(final boolean indexedImages) {
+		_indexedImages = indexedImages;
+	}
+
+	/**
+	 * Sets how the data of the images is written. ASCII85 data is a third
+	 * smaller than hexadecimal data and is read through a filter, so the
+	 * document then declares Level 2. Binary data is the smallest, but makes
+	 * the document binary, so it falls back to hexadecimal data when the
+	 * target is a Writer.
+	 * @param imageEncoding The encoding of the image data
+	 * @since 1.6.0
+	 */
+	public void setImageEncoding(final EpsImageEncoding imageEncoding) {
+		_imageEncoding = imageEncoding != null ? imageEncoding : EpsImageEncoding.HEX;
+	}
+
+	/**
+	 * Sets whether the transforms of the graphics contexts are written as the
+	 * PostScript current transformation matrix, with setmatrix and concat
+	 * whenever it changes, instead of being applied to every coordinate. The
+	 * shapes are then written in user space, which saves transforming them,
+	 * and line widths, dashes and text are transformed like in Java 2D, where
+	 * they otherwise keep their size in device space. The coordinate precision
+	 * still applies to document units: the grid or the decimals are scaled
+	 * with the largest scale of each transform along its axes. A transform
+	 * that cannot be inverted is still applied to the coordinates, as the
+	 * interpreter would reject it as a matrix.
+	 * @param nativeTransforms Set to true to enable native transforms; false otherwise
+	 * @since 1.6.0
+	 */
+	public void setNativeTransforms(final boolean nativeTransforms) {
+		_nativeTransforms = nativeTransforms;
+	}
+
+	/**
+	 * Sets how many times a path has to be drawn before it is defined as a
+	 * procedure. Paths are compared once moved to their first point, so that
+	 * repeated icons, legend symbols or arrowheads are only written once and
+	 * then cost their position and the name of the procedure. Paths drawn
+	 * fewer times are written as usual, as the definition would not pay off.
+	 * @param repeats The number of repeats that promote a path to a
+	 * procedure, or 0 to disable the path cache
+	 * @see #setProcedureLimit(int)
+	 * @since 1.6.0
+	 */
+	public void setPathCacheRepeats(final int repeats) {
+		_pathCacheRepeats = Math.max(0, repeats);
+	}
+
+	/**
+	 * Sets the maximum number of procedures defined in the document body at
+	 * any time. Once the limit is reached, the least recently used procedure
+	 * gives its name to the next one, so that the dictionary does not grow.
+	 * @param limit The maximum number of procedures
+	 * @since 1.6.0
+	 */
+	public void setProcedureLimit(final int limit) {
+		_procedureLimit = Math.max(1, limit);
+	}
+
+	/**
+	 * Sets the number of painting operations that are held back to reorder
+	 * them, so that the operations sharing the same color and stroke are
+	 * written together and the graphics state changes less often. This pays
+	 * off for charts whose series are painted in turn. Operations that
+	 * overlap keep their order, so the page looks the same. Only shapes,
+	 * lines, polylines, polygons, rectangles and arcs are reordered. Anything
+	 * else, such as text, images or a new clip, writes the held operations
+	 * first.
+	 * @param operations The size of the reordering window, or 0 to write the
+	 * operations in the order they are painted
+	 * @see #setCoalescePaths(boolean)
+	 * @since 1.6.0
+	 */
+	public void setReorderWindow(final int operations) {
+		_reorderWindow = Math.max(0, operations);
+	}
+
+	/**
+	 * Sets whether path segments may be written with the relative operators
+	 * rmoveto, rlineto and rcurveto. Each segment is then written in relative
+	 * or absolute form, whichever is shorter, which pays off for long paths of
+	 * close points such as plots.
+	 * @param relativePaths Set to true to enable relative path segments; false otherwise
+	 * @since 1.6.0
+	 */
+	public void setRelativePaths(final boolean relativePaths) {
+		_relativePaths = relativePaths;
+	}
+}// class EpsSettings
@@ -0,0 +1,343 @@
+/**
+ * Copyright (c) 2001, 2006, Paul James Mutton
+ * Copyright (c) 2007, Arnaud Blouin
+ * All rights reserved.
+ * This file is part of jlibeps, merged with similar code from EPS Graphics, and
+ * expanded by Meyer Sound Laboratories Inc.
+ * jlibeps is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * jlibeps is distributed without any warranty; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the GNU General Public License for more details.
+ * Project: http://www.jibble.org/
+ */
+package org.sourceforge.jlibeps.epsgraphics;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * This class is the byte-oriented output of an EPS document. EPS content is
+ * 7-bit clean, so the emitters hand over ASCII bytes that are buffered here
+ * and passed on to the target without any charset encoding.
+ * Text is written in ISO-8859-1 (Latin-1), one byte per character: the
+ * characters beyond it, such as the euro sign, cannot be represented and are
+ * written as a question mark, rather than as the low byte of their code.
+ * A sink can be created on top of an OutputStream or a WritableByteChannel,
+ * which is the most efficient, or on top of a Writer for compatibility with
+ * the Writer based constructors, in which case each byte is widened to the
+ * character of the same code, so the Writer receives Latin-1 characters.
+ * Part of the content can be routed through an encoder, e.g. to compress the
+ * body of the document, while the surrounding content is written as is.
+ * @version 1.6.0
+ */
+public class EpsSink extends OutputStream {
+	/**
+	 * The default size of the output buffer.
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * The character written in place of those beyond ISO-8859-1.
+	 */
+	public static final char REPLACEMENT_CHARACTER = '?';
+
+	/**
+	 * This class adapts a Writer to the byte-oriented output of the sink. Bytes
+	 * are widened to characters through a reusable buffer, so no charset
+	 * encoder and no per-line String is involved.
+	 */
+	private static final class WriterOutputStream extends OutputStream {
+		private final Writer _writer;
+		private final char[] _chars = new char[DEFAULT_BUFFER_SIZE];
+
+		WriterOutputStream(final Writer writer) {
+			_writer = writer;
+		}
+
+		@Override
+		public void close() throws IOException {
+			_writer.close();
+		}
+
+		@Override
+		public void flush() throws IOException {
+			_writer.flush();
+		}
+
+		@Override
+		public void write(final byte[] bytes, final int offset, final int length) throws IOException {
+			int done = 0;
+
+			while(done < length) {
+				final int count = Math.min(length - done, _chars.length);
+
+				for(int i = 0; i < count; i++) {
+					_chars[i] = (char) (bytes[offset + done + i] & 0xff);
+				}
+
+				_writer.write(_chars, 0, count);
+				done += count;
+			}
+		}
+
+		@Override
+		public void write(final int b) throws IOException {
+			_writer.write(b & 0xff);
+		}
+	}
+
+	/**
+	 * This class shields the target from being closed by an encoder, as closing
+	 * an encoder is the way to make it write its last bytes.
+	 */
+	private static final class ShieldOutputStream extends FilterOutputStream {
+		ShieldOutputStream(final OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void close() throws IOException {
+			flush();
+		}
+
+		@Override
+		public void write(final byte[] bytes, final int offset, final int length) throws IOException {
+			out.write(bytes, offset, length);
+		}
+	}
+
+	private final OutputStream _target;
+
+	/**
+	 * Whether the target passes the bytes on unchanged, which a Writer cannot
+	 * guarantee for the bytes beyond ASCII.
+	 */
+	private final boolean _binary;
+
+	/**
+	 * Where the buffered bytes go: either the target, or an encoder on top of
+	 * it.
+	 */
+	private OutputStream _out;
+	private final byte[] _buffer;
+	private int _count;
+
+	/**
+	 * Constructs a sink that writes to an OutputStream, with the default buffer
+	 * size.
+	 * @param outputStream The @OutputStream to channel the EPS content to
+	 * @since 1.6.0
+	 */
+	public EpsSink(final OutputStream outputStream) {
+		this(outputStream, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Constructs a sink that writes to an OutputStream.
+	 * @param outputStream The @OutputStream to channel the EPS content to
+	 * @param bufferSize The size of the output buffer, in bytes
+	 * @since 1.6.0
+	 */
+	public EpsSink(final OutputStream outputStream, final int bufferSize) {
+		this(outputStream, bufferSize, true);
+	}
+
+	/**
+	 * Constructs a sink that writes to an OutputStream, which passes the bytes
+	 * on unchanged or not.
+	 * @param outputStream The @OutputStream to channel the EPS content to
+	 * @param bufferSize The size of the output buffer, in bytes
+	 * @param binary Whether binary data can be written to the target
+	 * @since 1.6.0
+	 */
+	private EpsSink(final OutputStream outputStream, final int bufferSize, final boolean binary) {
+		_target = outputStream;
+		_binary = binary;
+		_out = outputStream;
+		_buffer = new byte[Math.max(bufferSize, 16)];
+		_count = 0;
+	}
+
+	/**
+	 * Routes the bytes written from now on through the encoder of a compression
+	 * method, until endEncoding is called. Nothing happens if the compression
+	 * method is NONE or if an encoding is already under way.
+	 * @param compression The compression method to encode the bytes with
+	 * @throws IOException
+	 * @since 1.6.0
+	 */
+	public void beginEncoding(final EpsCompression compression) throws IOException {
+		if(compression == EpsCompression.NONE || isEncoding()) {
+			return;
+		}
+
+		flushBuffer();
+		_out = compression.createEncoder(new ShieldOutputStream(_target));
+	}
+
+	/**
+	 * Ends the encoding begun by beginEncoding, writing the last encoded bytes
+	 * and the end-of-data marker, so that the following bytes are written as
+	 * is. Nothing happens if no encoding is under way.
+	 * @throws IOException
+	 * @since 1.6.0
+	 */
+	public void endEncoding() throws IOException {
+		if(!isEncoding()) {
+			return;
+		}
+
+		flushBuffer();
+		final OutputStream encoder = _out;
+		_out = _target;
+		encoder.close();
+	}
+
+	/**
+	 * Returns whether binary data can be written to this sink. This is not the
+	 * case of a sink on top of a Writer, which may encode the bytes beyond
+	 * ASCII as several bytes, so binary output falls back to its text forms.
+	 * @return true if the target passes the bytes on unchanged; false otherwise
+	 * @since 1.6.0
+	 */
+	public boolean isBinary() {
+		return _binary;
+	}
+
+	/**
+	 * Returns whether the bytes are currently routed through an encoder.
+	 * @return true if an encoding is under way; false otherwise
+	 * @since 1.6.0
+	 */
+	public boolean isEncoding() {
+		return _out != _target;
+	}
+
+	/**
+	 * Creates a sink that writes to a WritableByteChannel, with the default
+	 * buffer size.
+	 * @param channel The @WritableByteChannel to channel the EPS content to
+	 * @return The new sink
+	 * @since 1.6.0
+	 */
+	public static EpsSink forChannel(final WritableByteChannel channel) {
+		return new EpsSink(Channels.newOutputStream(channel));
+	}
+
+	/**
+	 * Creates a sink that writes to a Writer, with the default buffer size.
+	 * Each byte is written as the character of the same code. The sink is not
+	 * binary, as the Writer may still encode those characters as it likes.
+	 * @param writer The wrapped @Writer to channel the EPS content to
+	 * @return The new sink
+	 * @since 1.6.0
+	 */
+	public static EpsSink forWriter(final Writer writer) {
+		return new EpsSink(new WriterOutputStream(writer), DEFAULT_BUFFER_SIZE, false);
+	}
+
+	/**
+	 * Ends any encoding, flushes the buffer and closes the underlying target.
+	 * @throws IOException
+	 * @since 1.6.0
+	 */
+	@Override
+	public void close() throws IOException {
+		endEncoding();
+		flush();
+		_target.close();
+	}
+
+	/**
+	 * Flushes the buffer and the underlying target.
+	 * @throws IOException
+	 * @since 1.6.0
+	 */
+	@Override
+	public void flush() throws IOException {
+		flushBuffer();
+		_out.flush();
+	}
+
+	/**
+	 * Passes the buffered bytes on to the underlying target, without flushing
+	 * the target itself.
+	 * @throws IOException
+	 * @since 1.6.0
+	 */
+	private void flushBuffer() throws IOException {
+		if(_count > 0) {
+			_out.write(_buffer, 0, _count);
+			_count = 0;
+		}
+	}
+
+	/**
+	 * Writes a range of bytes. Ranges larger than the buffer bypass it.
+	 * @throws IOException
+	 * @since 1.6.0
+	 */
+	@Override
+	public void write(final byte[] bytes, final int offset, final int length) throws IOException {
+		if(length >= _buffer.length) {
+			flushBuffer();
+			_out.write(bytes, offset, length);
+			return;
+		}
+
+		if(_count + length > _buffer.length) {
+			flushBuffer();
+		}
+
+		System.arraycopy(bytes, offset, _buffer, _count, length);
+		_count += length;
+	}
+
+	/**
+	 * Returns the ISO-8859-1 byte of a character, or that of the replacement
+	 * character if it is beyond ISO-8859-1.
+	 * @param ch The character to convert
+	 * @return The byte that represents the character
+	 * @since 1.6.0
+	 */
+	public static byte toLatin1(final char ch) {
+		return (byte) (ch <= 0xff ? ch : REPLACEMENT_CHARACTER);
+	}
+
+	/**
+	 * Writes the characters of a sequence as single bytes. This is meant for
+	 * the ASCII text of the EPS header and footer; the characters beyond
+	 * ISO-8859-1 are written as the replacement character.
+	 * @param text The text to write
+	 * @throws IOException
+	 * @since 1.6.0
+	 */
+	public void write(final CharSequence text) throws IOException {
+		final int length = text.length();
+
+		for(int i = 0; i < length; i++) {
+			write(toLatin1(text.charAt(i)));
+		}
+	}
+
+	/**
+	 * Writes a single byte.
+	 * @throws IOException
+	 * @since 1.6.0
+	 */
+	@Override
+	public void write(final int b) throws IOException {
+		if(_count == _buffer.length) {
+			flushBuffer();
+		}
+
+		_buffer[_count++] = (byte) b;
+	}
+}// class EpsSink
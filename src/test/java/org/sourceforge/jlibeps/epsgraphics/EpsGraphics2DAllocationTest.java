@@ -0,0 +1,125 @@
+/**
+ * Copyright (c) 2001, 2006, Paul James Mutton
+ * Copyright (c) 2007, Arnaud Blouin
+ * All rights reserved.
+ * This file is part of jlibeps, merged with similar code from EPS Graphics, and
+ * expanded by Meyer Sound Laboratories Inc.
+ * jlibeps is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * jlibeps is distributed without any warranty; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the GNU General Public License for more details.
+ * Project: http://www.jibble.org/
+ */
+package org.sourceforge.jlibeps.epsgraphics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import net.sf.epsgraphics.ColorMode;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that drawing lines, polylines, polygons and rectangles does not
+ * allocate once the graphics context is warmed up. The allocated bytes of the thread are
+ * counted over many calls, less what reading them allocates, so that a
+ * single object per call fails the test while one-off allocations do not.
+ * @version 1.6.0
+ */
+public class EpsGraphics2DAllocationTest {
+	private static final int WARMUP_CALLS = 50000;
+	private static final int MEASURED_CALLS = 10000;
+
+	private static final int[] XS = {1, 20, 3, 40, 5};
+	private static final int[] YS = {5, 30, 6, 1, 9};
+
+	private com.sun.management.ThreadMXBean _threads;
+	private EpsGraphics2D _graphics;
+
+	@Before
+	public void setUp() throws IOException {
+		final java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+		_threads = (com.sun.management.ThreadMXBean) threads;
+		assumeTrue(_threads.isThreadAllocatedMemorySupported());
+		_threads.setThreadAllocatedMemoryEnabled(true);
+
+		// The output is discarded, so that no buffer grows along the way.
+		final OutputStream discard = new OutputStream() {
+			@Override
+			public void write(final int b) {
+				// Discarded.
+			}
+
+			@Override
+			public void write(final byte[] b, final int off, final int len) {
+				// Discarded.
+			}
+		};
+
+		final EpsDocument document = new EpsDocument(new EpsSink(discard), "test", 0, 0, 100, 100, new EpsSettings());
+		_graphics = new EpsGraphics2D(document, ColorMode.COLOR_RGB);
+	}
+
+	/**
+	 * Returns the number of bytes that a call allocates on average, rounded
+	 * down, once the calls are warmed up.
+	 */
+	private long getAllocatedBytesPerCall(final Runnable call) {
+		for(int i = 0; i < WARMUP_CALLS; i++) {
+			call.run();
+		}
+
+		final long threadId = Thread.currentThread().getId();
+		final long start = _threads.getThreadAllocatedBytes(threadId);
+		final long overhead = _threads.getThreadAllocatedBytes(threadId) - start;
+		final long before = _threads.getThreadAllocatedBytes(threadId);
+
+		for(int i = 0; i < MEASURED_CALLS; i++) {
+			call.run();
+		}
+
+		final long allocated = _threads.getThreadAllocatedBytes(threadId) - before - overhead;
+
+		return Math.max(0L, allocated) / MEASURED_CALLS;
+	}
+
+	@Test
+	public void testDrawLine() {
+		final int[] counter = new int[1];
+		assertEquals(0L, getAllocatedBytesPerCall(() -> _graphics.drawLine(counter[0]++ % 50, 2, 30, 40)));
+	}
+
+	@Test
+	public void testDrawPolygon() {
+		assertEquals(0L, getAllocatedBytesPerCall(() -> _graphics.drawPolygon(XS, YS, XS.length)));
+	}
+
+	@Test
+	public void testDrawPolyline() {
+		assertEquals(0L, getAllocatedBytesPerCall(() -> _graphics.drawPolyline(XS, YS, XS.length)));
+	}
+
+	@Test
+	public void testDrawRect() {
+		_graphics.rotate(0.3d);
+		assertEquals(0L, getAllocatedBytesPerCall(() -> _graphics.drawRect(1, 2, 30, 40)));
+	}
+
+	@Test
+	public void testFillPolygon() {
+		assertEquals(0L, getAllocatedBytesPerCall(() -> _graphics.fillPolygon(XS, YS, XS.length)));
+	}
+
+	@Test
+	public void testFillRect() {
+		_graphics.rotate(0.3d);
+		assertEquals(0L, getAllocatedBytesPerCall(() -> _graphics.fillRect(1, 2, 30, 40)));
+	}
+}// class EpsGraphics2DAllocationTest
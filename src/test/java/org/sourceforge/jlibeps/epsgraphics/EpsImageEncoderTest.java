@@ -0,0 +1,167 @@
+/**
+ * Copyright (c) 2001, 2006, Paul James Mutton
+ * Copyright (c) 2007, Arnaud Blouin
+ * All rights reserved.
+ * This file is part of jlibeps, merged with similar code from EPS Graphics, and
+ * expanded by Meyer Sound Laboratories Inc.
+ * jlibeps is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * jlibeps is distributed without any warranty; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the GNU General Public License for more details.
+ * Project: http://www.jibble.org/
+ */
+package org.sourceforge.jlibeps.epsgraphics;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import net.sf.epsgraphics.ColorMode;
+import org.junit.Test;
+
+/**
+ * Checks that the ASCII85 image data written by the image encoder
+ * round-trips: the characters are decoded the way the ASCII85Decode filter
+ * does, and must give back the original bytes, including the groups of four
+ * zero bytes written as 'z' and the partial group that ends the data.
+ * @version 1.6.0
+ */
+public class EpsImageEncoderTest {
+	/**
+	 * Encodes bytes as ASCII85 image data, in chunks of various sizes so that
+	 * the groups straddle the chunks, and returns the characters.
+	 */
+	private static String encode(final byte[] data) throws IOException {
+		final EpsImageEncoder encoder = new EpsImageEncoder(new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB), 0, 0, 1, 1, ColorMode.COLOR_RGB,
+				EpsImageEncoding.ASCII85, EpsImageCompression.NONE, EpsDithering.NONE, false);
+		final EpsLineBuilder line = new EpsLineBuilder();
+		int offset = 0;
+
+		for(int chunk = 1; offset < data.length; chunk = chunk % 7 + 1) {
+			final int length = Math.min(chunk, data.length - offset);
+			encoder.write(data, offset, length, line);
+			offset += length;
+		}
+
+		encoder.end(line);
+		return line.toString();
+	}
+
+	/**
+	 * Decodes ASCII85 data like the ASCII85Decode filter, checking that it ends
+	 * with the end-of-data marker.
+	 */
+	private static byte[] decode(final String text) {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final int end = text.indexOf("~>");
+		long tuple = 0L;
+		int count = 0;
+
+		assertTrue("The data has no end-of-data marker", end >= 0);
+		assertEquals("Characters follow the end-of-data marker", "", text.substring(end + 2).trim());
+
+		for(int i = 0; i < end; i++) {
+			final char ch = text.charAt(i);
+
+			if(Character.isWhitespace(ch)) {
+				continue;
+			}
+
+			if(ch == 'z') {
+				assertEquals("A 'z' is within a group", 0, count);
+				out.write(0);
+				out.write(0);
+				out.write(0);
+				out.write(0);
+				continue;
+			}
+
+			assertTrue("Invalid character " + ch, ch >= '!' && ch <= 'u');
+			tuple = tuple * 85L + ch - '!';
+
+			if(++count == 5) {
+				assertTrue("The group overflows", tuple <= 0xffffffffL);
+
+				for(int shift = 24; shift >= 0; shift -= 8) {
+					out.write((int) (tuple >>> shift));
+				}
+
+				tuple = 0L;
+				count = 0;
+			}
+		}
+
+		// A partial group of n characters stands for n - 1 bytes, and is
+		// padded with the highest digit.
+		if(count > 0) {
+			assertTrue("A partial group has a single character", count > 1);
+
+			for(int i = count; i < 5; i++) {
+				tuple = tuple * 85L + 84L;
+			}
+
+			for(int i = 0, shift = 24; i < count - 1; i++, shift -= 8) {
+				out.write((int) (tuple >>> shift));
+			}
+		}
+
+		return out.toByteArray();
+	}
+
+	private static String assertRoundTrip(final byte[] data) throws IOException {
+		final String text = encode(data);
+		assertArrayEquals(data, decode(text));
+
+		for(final String line : text.split("\n")) {
+			assertTrue("A line is too long", line.length() <= EpsImageEncoder.ASCII85_LINE_LENGTH + 1);
+			assertFalse("A line reads as a DSC comment", line.startsWith("%%"));
+		}
+
+		return text;
+	}
+
+	@Test
+	public void testPartialGroups() throws IOException {
+		final Random random = new Random(42);
+
+		// Every number of bytes left in the last group, from none to three.
+		for(int length = 0; length < 12; length++) {
+			final byte[] data = new byte[length];
+			random.nextBytes(data);
+			assertRoundTrip(data);
+		}
+	}
+
+	@Test
+	public void testPartialZeros() throws IOException {
+		// Zero bytes that do not make a whole group are not written as 'z'.
+		for(int length = 1; length < 4; length++) {
+			assertFalse(assertRoundTrip(new byte[length]).contains("z"));
+		}
+	}
+
+	@Test
+	public void testRandom() throws IOException {
+		final byte[] data = new byte[10001];
+		new Random(7).nextBytes(data);
+		assertRoundTrip(data);
+	}
+
+	@Test
+	public void testZeros() throws IOException {
+		// Aligned groups of zero bytes are written as 'z', but not those that
+		// straddle two groups.
+		final byte[] data = {0, 0, 0, 0, 1, 2, 0, 0, 0, 0, 3, 4, 0, 0, 0, 0, 0};
+		final String text = assertRoundTrip(data);
+		assertTrue(text.startsWith("z"));
+		assertEquals(2, text.length() - text.replace("z", "").length());
+	}
+}// class EpsImageEncoderTest
@@ -0,0 +1,186 @@
+/**
+ * Copyright (c) 2001, 2006, Paul James Mutton
+ * Copyright (c) 2007, Arnaud Blouin
+ * All rights reserved.
+ * This file is part of jlibeps, merged with similar code from EPS Graphics, and
+ * expanded by Meyer Sound Laboratories Inc.
+ * jlibeps is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * jlibeps is distributed without any warranty; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the GNU General Public License for more details.
+ * Project: http://www.jibble.org/
+ */
+package org.sourceforge.jlibeps.epsgraphics;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Checks that the LZW encoder round-trips: the compressed bytes are decoded
+ * the way the LZWDecode filter does with its default parameters, i.e. codes
+ * of 9 to 12 bits and EarlyChange 1, and must give back the original bytes.
+ * The inputs go well past the 4094 codes after which the table is cleared.
+ * @version 1.6.0
+ */
+public class EpsLzwOutputStreamTest {
+	private static final int CLEAR_TABLE = 256;
+	private static final int END_OF_DATA = 257;
+	private static final int FIRST_CODE = 258;
+
+	private static byte[] compress(final byte[] data) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		try(EpsLzwOutputStream lzw = new EpsLzwOutputStream(out)) {
+			// Both the single byte and the array variants are exercised.
+			final int half = data.length / 2;
+
+			for(int i = 0; i < half; i++) {
+				lzw.write(data[i]);
+			}
+
+			lzw.write(data, half, data.length - half);
+		}
+
+		return out.toByteArray();
+	}
+
+	/**
+	 * Decodes LZW data like the LZWDecode filter, and returns the decoded
+	 * bytes. The number of table clears is stored in the given array.
+	 */
+	private static byte[] decompress(final byte[] data, final int[] clears) {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[][] table = new byte[4096][];
+
+		for(int i = 0; i < 256; i++) {
+			table[i] = new byte[] {(byte) i};
+		}
+
+		int next = FIRST_CODE;
+		int width = 9;
+		int previous = -1;
+		long bits = 0L;
+		int bitCount = 0;
+		int position = 0;
+
+		while(true) {
+			while(bitCount < width) {
+				assertTrue("The data ends before the end-of-data code", position < data.length);
+				bits = bits << 8 | data[position++] & 0xff;
+				bitCount += 8;
+			}
+
+			bitCount -= width;
+			final int code = (int) (bits >>> bitCount) & (1 << width) - 1;
+
+			if(code == CLEAR_TABLE) {
+				next = FIRST_CODE;
+				width = 9;
+				previous = -1;
+				clears[0]++;
+				continue;
+			}
+
+			if(code == END_OF_DATA) {
+				break;
+			}
+
+			final byte[] entry;
+
+			if(previous < 0) {
+				entry = table[code];
+			}else {
+				assertTrue("Code " + code + " is not in the table", code <= next);
+				final byte[] prefix = table[previous];
+				entry = code < next ? table[code] : Arrays.copyOf(prefix, prefix.length + 1);
+
+				if(code == next) {
+					entry[prefix.length] = prefix[0];
+				}
+
+				final byte[] added = Arrays.copyOf(prefix, prefix.length + 1);
+				added[prefix.length] = entry[0];
+				table[next++] = added;
+			}
+
+			out.write(entry, 0, entry.length);
+			previous = code;
+
+			// EarlyChange 1: the code length grows one code early.
+			width = next + 1 >= 2048 ? 12 : next + 1 >= 1024 ? 11 : next + 1 >= 512 ? 10 : 9;
+		}
+
+		return out.toByteArray();
+	}
+
+	private static int assertRoundTrip(final byte[] data) throws IOException {
+		final int[] clears = new int[1];
+		assertArrayEquals(data, decompress(compress(data), clears));
+		return clears[0];
+	}
+
+	@Test
+	public void testEmpty() throws IOException {
+		assertRoundTrip(new byte[0]);
+	}
+
+	@Test
+	public void testRandom() throws IOException {
+		final byte[] data = new byte[100000];
+		new Random(42).nextBytes(data);
+
+		// Random bytes use up about a code per byte, so the table is cleared
+		// many times.
+		assertTrue("The table is not cleared", assertRoundTrip(data) > 10);
+	}
+
+	@Test
+	public void testRepeated() throws IOException {
+		// Long runs of a single byte produce the codes that the decoder only
+		// knows once it reads them.
+		final byte[] data = new byte[200000];
+		Arrays.fill(data, (byte) 'a');
+		assertRoundTrip(data);
+	}
+
+	@Test
+	public void testSingleByte() throws IOException {
+		assertRoundTrip(new byte[] {42});
+	}
+
+	@Test
+	public void testText() throws IOException {
+		final Random random = new Random(7);
+		final byte[] data = new byte[300000];
+
+		// A small alphabet in runs, like image rows, fills the table with long
+		// strings of various lengths.
+		for(int i = 0; i < data.length; ) {
+			final byte value = (byte) ('a' + random.nextInt(6));
+
+			for(int run = 1 + random.nextInt(20); run > 0 && i < data.length; run--) {
+				data[i++] = value;
+			}
+		}
+
+		assertTrue("The table is not cleared", assertRoundTrip(data) > 0);
+	}
+
+	@Test
+	public void testStartsWithClear() throws IOException {
+		final byte[] compressed = compress(new byte[] {1, 2, 3});
+
+		// The first 9 bits hold the clear-table code.
+		assertEquals(CLEAR_TABLE, (compressed[0] & 0xff) << 1 | (compressed[1] & 0xff) >>> 7);
+	}
+}// class EpsLzwOutputStreamTest
@@ -0,0 +1,115 @@
+/**
+ * Copyright (c) 2001, 2006, Paul James Mutton
+ * Copyright (c) 2007, Arnaud Blouin
+ * All rights reserved.
+ * This file is part of jlibeps, merged with similar code from EPS Graphics, and
+ * expanded by Meyer Sound Laboratories Inc.
+ * jlibeps is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * jlibeps is distributed without any warranty; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the GNU General Public License for more details.
+ * Project: http://www.jibble.org/
+ */
+package org.sourceforge.jlibeps.epsgraphics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Line2D;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import net.sf.epsgraphics.ColorMode;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the coordinates written in native transform mode: the coordinate
+ * precision must hold along every axis of a non-uniform transform, and a
+ * transform that cannot be inverted must not be written as the matrix.
+ * @version 1.6.0
+ */
+public class EpsNativeTransformTest {
+	private static final double TOLERANCE = 1e-9;
+
+	private ByteArrayOutputStream _out;
+	private EpsGraphics2D _graphics;
+
+	@Before
+	public void setUp() throws IOException {
+		final EpsSettings settings = new EpsSettings();
+		settings.setNativeTransforms(true);
+		settings.setCoordinateDecimals(2);
+		_out = new ByteArrayOutputStream();
+		final EpsDocument document = new EpsDocument(new EpsSink(_out), "test", 0, 0, 500, 500, settings);
+		_graphics = new EpsGraphics2D(document, ColorMode.COLOR_RGB);
+	}
+
+	/**
+	 * Finishes the document and returns the tokens of its body.
+	 */
+	private String[] finish() throws IOException {
+		_graphics.finish();
+		final String document = _out.toString("ISO-8859-1");
+		return document.substring(document.indexOf("%%EndComments")).trim().split("\\s+");
+	}
+
+	/**
+	 * Returns the index of the first occurrence of a token, from an index on.
+	 */
+	private static int indexOf(final String[] tokens, final String token, final int from) {
+		for(int i = from; i < tokens.length; i++) {
+			if(tokens[i].equals(token)) {
+				return i;
+			}
+		}
+
+		return -1;
+	}
+
+	@Test
+	public void testNonUniformScale() throws IOException {
+		_graphics.scale(1000d, 1d);
+		_graphics.draw(new Line2D.Double(0.12345d, 0.5d, 0.2d, 0.75d));
+		final String[] tokens = finish();
+		final int moveTo = indexOf(tokens, "moveto", 0);
+
+		assertTrue(moveTo >= 2);
+		assertEquals(123.45d, 1000d * Double.parseDouble(tokens[moveTo - 2]), 0.005d + TOLERANCE);
+		assertEquals(-0.5d, Double.parseDouble(tokens[moveTo - 1]), 0.005d + TOLERANCE);
+	}
+
+	@Test
+	public void testSingularTransform() throws IOException {
+		_graphics.scale(1000d, 0d);
+		_graphics.draw(new Line2D.Double(0.12345d, 0.5d, 0.2d, 0.75d));
+		_graphics.setTransform(AffineTransform.getScaleInstance(2d, 2d));
+		_graphics.draw(new Line2D.Double(1d, 1d, 2d, 2d));
+		final String[] tokens = finish();
+
+		// The coordinates of the first line are transformed before they are
+		// written, under the base matrix.
+		final int moveTo = indexOf(tokens, "moveto", 0);
+		assertTrue(moveTo >= 2);
+		assertEquals(123.45d, Double.parseDouble(tokens[moveTo - 2]), TOLERANCE);
+		assertEquals(0d, Double.parseDouble(tokens[moveTo - 1]), TOLERANCE);
+
+		int concats = 0;
+
+		for(int concat = indexOf(tokens, "concat", 0); concat >= 0; concat = indexOf(tokens, "concat", concat + 1)) {
+			final double[] matrix = new double[6];
+
+			for(int i = 0; i < 6; i++) {
+				matrix[i] = Double.parseDouble(tokens[concat - 6 + i].replace("[", "").replace("]", ""));
+			}
+
+			assertTrue(matrix[0] * matrix[3] - matrix[1] * matrix[2] != 0d);
+			concats++;
+		}
+
+		assertEquals(1, concats);
+	}
+}// class EpsNativeTransformTest
@@ -0,0 +1,200 @@
+/**
+ * Copyright (c) 2001, 2006, Paul James Mutton
+ * Copyright (c) 2007, Arnaud Blouin
+ * All rights reserved.
+ * This file is part of jlibeps, merged with similar code from EPS Graphics, and
+ * expanded by Meyer Sound Laboratories Inc.
+ * jlibeps is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * jlibeps is distributed without any warranty; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the GNU General Public License for more details.
+ * Project: http://www.jibble.org/
+ */
+package org.sourceforge.jlibeps.epsgraphics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.geom.Path2D;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import net.sf.epsgraphics.ColorMode;
+import org.junit.Test;
+
+/**
+ * Checks that writing path segments in relative form does not change the
+ * geometry: the same random paths are written with relative segments
+ * disabled and enabled, and the points that the interpreter would reach are
+ * resolved from both outputs and compared.
+ * @version 1.6.0
+ */
+public class EpsPathEncoderTest {
+	private static final int PATH_COUNT = 20;
+	private static final int SEGMENT_COUNT = 60;
+	private static final double TOLERANCE = 1e-9;
+
+	/**
+	 * Draws the random paths into a new document and returns its content.
+	 */
+	private static String draw(final boolean relative, final EpsPrecision precision, final int decimals) throws IOException {
+		final EpsSettings settings = new EpsSettings();
+		settings.setRelativePaths(relative);
+
+		if(precision == EpsPrecision.DECIMALS) {
+			settings.setCoordinateDecimals(decimals);
+		}
+
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final EpsDocument document = new EpsDocument(new EpsSink(out), "test", 0, 0, 500, 500, settings);
+		final EpsGraphics2D graphics = new EpsGraphics2D(document, ColorMode.COLOR_RGB);
+		final Random random = new Random(42);
+
+		for(int i = 0; i < PATH_COUNT; i++) {
+			graphics.draw(createPath(random));
+		}
+
+		graphics.finish();
+
+		return out.toString("ISO-8859-1");
+	}
+
+	/**
+	 * Creates a path of short segments, for which the relative form pays off,
+	 * mixed with long jumps, curves and closed subpaths.
+	 */
+	private static Path2D createPath(final Random random) {
+		final Path2D path = new Path2D.Double();
+		double x = 500d * random.nextDouble();
+		double y = 500d * random.nextDouble();
+		path.moveTo(x, y);
+
+		for(int i = 0; i < SEGMENT_COUNT; i++) {
+			final double step = random.nextInt(4) == 0 ? 200d : 2d;
+			x = Math.max(0d, Math.min(500d, x + step * (random.nextDouble() - 0.5d)));
+			y = Math.max(0d, Math.min(500d, y + step * (random.nextDouble() - 0.5d)));
+
+			switch(random.nextInt(6)) {
+				case 0:
+					path.curveTo(x + random.nextDouble(), y - random.nextDouble(), x - random.nextDouble(), y + random.nextDouble(), x, y);
+					break;
+				case 1:
+					path.quadTo(x + random.nextDouble(), y + random.nextDouble(), x, y);
+					break;
+				case 2:
+					path.closePath();
+					path.moveTo(x, y);
+					break;
+				case 3:
+					path.closePath();
+					break;
+				default:
+					path.lineTo(x, y);
+					break;
+			}
+		}
+
+		return path;
+	}
+
+	/**
+	 * Resolves the absolute points reached by the path operators of the
+	 * document body, as x and y pairs. Relative operators are resolved from
+	 * the current point, and closepath brings it back to the start of the
+	 * subpath.
+	 */
+	private static List<Double> resolvePoints(final String document) {
+		final String body = document.substring(document.indexOf("%%EndComments"));
+		final List<Double> points = new ArrayList<>();
+		final List<Double> operands = new ArrayList<>();
+		double currentX = 0d;
+		double currentY = 0d;
+		double startX = 0d;
+		double startY = 0d;
+
+		for(final String token : body.split("\\s+")) {
+			if(token.matches("-?[0-9.]+")) {
+				operands.add(Double.valueOf(token));
+				continue;
+			}
+
+			final int count = operands.size();
+
+			switch(token) {
+				case "moveto":
+				case "rmoveto":
+					currentX = (token.charAt(0) == 'r' ? currentX : 0d) + operands.get(count - 2);
+					currentY = (token.charAt(0) == 'r' ? currentY : 0d) + operands.get(count - 1);
+					startX = currentX;
+					startY = currentY;
+					break;
+				case "lineto":
+				case "rlineto":
+					currentX = (token.charAt(0) == 'r' ? currentX : 0d) + operands.get(count - 2);
+					currentY = (token.charAt(0) == 'r' ? currentY : 0d) + operands.get(count - 1);
+					break;
+				case "curveto":
+				case "rcurveto":
+					final double originX = token.charAt(0) == 'r' ? currentX : 0d;
+					final double originY = token.charAt(0) == 'r' ? currentY : 0d;
+
+					for(int i = count - 6; i < count - 2; i += 2) {
+						points.add(originX + operands.get(i));
+						points.add(originY + operands.get(i + 1));
+					}
+
+					currentX = originX + operands.get(count - 2);
+					currentY = originY + operands.get(count - 1);
+					break;
+				case "closepath":
+					currentX = startX;
+					currentY = startY;
+					break;
+				default:
+					operands.clear();
+					continue;
+			}
+
+			points.add(currentX);
+			points.add(currentY);
+			operands.clear();
+		}
+
+		return points;
+	}
+
+	private static void assertSameGeometry(final EpsPrecision precision, final int decimals) throws IOException {
+		final String absolute = draw(false, precision, decimals);
+		final String relative = draw(true, precision, decimals);
+		final List<Double> expected = resolvePoints(absolute);
+		final List<Double> actual = resolvePoints(relative);
+
+		assertTrue("The relative output has no relative segment", relative.contains("rlineto"));
+		assertTrue("The relative output is not shorter", relative.length() < absolute.length());
+		assertEquals("The number of points differs", expected.size(), actual.size());
+
+		for(int i = 0; i < expected.size(); i++) {
+			assertEquals("Point coordinate " + i + " differs", expected.get(i), actual.get(i), TOLERANCE);
+		}
+	}
+
+	@Test
+	public void testDecimals0() throws IOException {
+		assertSameGeometry(EpsPrecision.DECIMALS, 0);
+	}
+
+	@Test
+	public void testDecimals2() throws IOException {
+		assertSameGeometry(EpsPrecision.DECIMALS, 2);
+	}
+
+	@Test
+	public void testFull() throws IOException {
+		assertSameGeometry(EpsPrecision.FULL, 0);
+	}
+}// class EpsPathEncoderTest
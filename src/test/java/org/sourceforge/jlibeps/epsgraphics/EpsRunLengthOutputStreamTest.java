@@ -0,0 +1,137 @@
+/**
+ * Copyright (c) 2001, 2006, Paul James Mutton
+ * Copyright (c) 2007, Arnaud Blouin
+ * All rights reserved.
+ * This file is part of jlibeps, merged with similar code from EPS Graphics, and
+ * expanded by Meyer Sound Laboratories Inc.
+ * jlibeps is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * jlibeps is distributed without any warranty; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the GNU General Public License for more details.
+ * Project: http://www.jibble.org/
+ */
+package org.sourceforge.jlibeps.epsgraphics;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Checks that the run-length encoder round-trips: the compressed bytes are
+ * decoded the way the RunLengthDecode filter does, and must give back the
+ * original bytes, whatever the lengths of the runs and literal records.
+ * @version 1.6.0
+ */
+public class EpsRunLengthOutputStreamTest {
+	private static final int END_OF_DATA = 128;
+
+	private static byte[] compress(final byte[] data) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		try(EpsRunLengthOutputStream runLength = new EpsRunLengthOutputStream(out)) {
+			// Both the single byte and the array variants are exercised.
+			final int half = data.length / 2;
+
+			for(int i = 0; i < half; i++) {
+				runLength.write(data[i]);
+			}
+
+			runLength.write(data, half, data.length - half);
+		}
+
+		return out.toByteArray();
+	}
+
+	/**
+	 * Decodes run-length data like the RunLengthDecode filter, checking that
+	 * the end-of-data byte comes last.
+	 */
+	private static byte[] decompress(final byte[] data) {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		int position = 0;
+
+		while(true) {
+			assertTrue("The data ends before the end-of-data byte", position < data.length);
+			final int length = data[position++] & 0xff;
+
+			if(length == END_OF_DATA) {
+				break;
+			}
+
+			if(length < END_OF_DATA) {
+				out.write(data, position, length + 1);
+				position += length + 1;
+			}else {
+				for(int i = 257 - length; i > 0; i--) {
+					out.write(data[position]);
+				}
+
+				position++;
+			}
+		}
+
+		assertEquals("Bytes follow the end-of-data byte", data.length, position);
+		return out.toByteArray();
+	}
+
+	private static void assertRoundTrip(final byte[] data) throws IOException {
+		assertArrayEquals(data, decompress(compress(data)));
+	}
+
+	@Test
+	public void testEmpty() throws IOException {
+		assertRoundTrip(new byte[0]);
+	}
+
+	@Test
+	public void testLongRun() throws IOException {
+		// Runs longer than 128 bytes are split into several run records.
+		final byte[] data = new byte[1000];
+		final byte[] compressed = compress(data);
+		assertRoundTrip(data);
+		assertTrue("The run is not compressed", compressed.length < 20);
+	}
+
+	@Test
+	public void testRandom() throws IOException {
+		// Literal records longer than 128 bytes are split as well.
+		final byte[] data = new byte[10000];
+		new Random(42).nextBytes(data);
+		assertRoundTrip(data);
+	}
+
+	@Test
+	public void testRuns() throws IOException {
+		final Random random = new Random(7);
+
+		for(int test = 0; test < 100; test++) {
+			final ByteArrayOutputStream data = new ByteArrayOutputStream();
+
+			// Runs of 1 to 300 bytes, around the 3 bytes from which a run is
+			// written as such and the 128 bytes of a record.
+			for(int run = 0; run < 50; run++) {
+				final int value = random.nextInt(4);
+				final int length = random.nextInt(4) == 0 ? 1 + random.nextInt(300) : 1 + random.nextInt(4);
+
+				for(int i = 0; i < length; i++) {
+					data.write(value);
+				}
+			}
+
+			assertRoundTrip(data.toByteArray());
+		}
+	}
+
+	@Test
+	public void testSingleByte() throws IOException {
+		assertRoundTrip(new byte[] {42});
+	}
+}// class EpsRunLengthOutputStreamTest